@@ -0,0 +1,136 @@
+/*
+ *  Copyright 2011 RoboViz
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package rv.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import rv.Configuration;
+import rv.comm.rcssserver.SExp;
+import rv.comm.rcssserver.scenegraph.SceneGraph;
+import rv.comm.rcssserver.scenegraph.StaticMeshNode;
+import rv.comm.rcssserver.scenegraph.Timeline;
+import rv.content.BenchmarkAccess;
+import rv.content.ContentManager;
+import rv.content.Model;
+import rv.world.Team;
+import rv.world.objects.Agent;
+
+/**
+ * Updating the transforms and bounds of all agents after a scene graph update. The scene graph
+ * update itself happens before each invocation and isn't measured (see {@link SceneGraphBenchmark}).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AgentBenchmark
+{
+	/** longest time to wait for the meshes of the agents to be read */
+	private static final long LOAD_TIMEOUT_MS = 30000;
+
+	@Param({"false", "true"})
+	public boolean interpolate;
+
+	private List<SExp> updates;
+	private SceneGraph graph;
+	private List<Agent> agents;
+	private long time;
+	private int next;
+
+	@Setup
+	public void setup() throws Exception
+	{
+		List<String> segment = Corpus.readSegment();
+		updates = new ArrayList<>();
+		for (String update : segment.subList(1, segment.size()))
+			updates.add(SExp.parse(update).get(2));
+		graph = SceneGraphBenchmark.createSceneGraph(SExp.parse(segment.get(0)).get(2), interpolate, () -> time);
+
+		Configuration.TeamColors colors = new Configuration().teamColors;
+		ContentManager content = new ContentManager(colors);
+		agents = new ArrayList<>();
+		for (int id : new int[] {Team.LEFT, Team.RIGHT}) {
+			Team team = new Team(id == Team.LEFT ? colors.defaultLeftColor : colors.defaultRightColor, id, content,
+					colors);
+			team.sceneGraphChanged(graph);
+			agents.addAll(team.getAgents());
+		}
+		if (agents.isEmpty())
+			throw new IllegalStateException("The log has no agents");
+		loadModels(content);
+
+		applyNextUpdate();
+		applyNextUpdate();
+	}
+
+	/**
+	 * Agents only compute their bounds once their models are loaded, which normally completes on the
+	 * GL thread. The meshes are read by the content manager as usual, and the models are then marked
+	 * as loaded without creating any GL resources, which the agents don't use. Meshes that don't
+	 * exist stay unloaded.
+	 */
+	private void loadModels(ContentManager content) throws Exception
+	{
+		long deadline = System.currentTimeMillis() + LOAD_TIMEOUT_MS;
+		for (StaticMeshNode node : graph.getAllMeshNodes()) {
+			if (getClass().getClassLoader().getResource(ContentManager.CONTENT_ROOT + node.getName()) == null)
+				continue;
+			Model model = content.getModel(node);
+			while (model.getMesh() == null) {
+				if (System.currentTimeMillis() > deadline)
+					throw new IOException("Could not read " + model.getName());
+				Thread.sleep(10);
+			}
+			BenchmarkAccess.markLoaded(model);
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void applyNextUpdate()
+	{
+		time += SceneGraphBenchmark.FRAME_NANOS;
+		Timeline timeline = graph.getTimeline();
+		timeline.beginFrame();
+		graph.update(updates.get(next));
+		next = (next + 1) % updates.size();
+		timeline.setDisplayTime(time + SceneGraphBenchmark.FRAME_NANOS / 2);
+	}
+
+	@Benchmark
+	public List<Agent> update()
+	{
+		for (int i = 0; i < agents.size(); i++)
+			agents.get(i).update(graph);
+		return agents;
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ *  Copyright 2011 RoboViz
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package rv.benchmarks;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import rv.comm.rcssserver.Logfile;
+import rv.comm.rcssserver.SExp;
+import rv.comm.rcssserver.scenegraph.SceneGraphHeader;
+
+/**
+ * Access to the benchmark corpus. The log can be replaced by a real recording with the system
+ * property {@code rv.log}, e.g. {@code -jvmArgsAppend -Drv.log=/path/to/sparkmonitor.log}.
+ */
+public class Corpus
+{
+	public static final String DIRECTORY = "benchmarks/corpus";
+
+	public static File getLogFile()
+	{
+		return new File(System.getProperty("rv.log", DIRECTORY + "/" + CorpusGenerator.LOG_FILE));
+	}
+
+	public static File getDrawingsFile()
+	{
+		return new File(DIRECTORY, CorpusGenerator.DRAWINGS_FILE);
+	}
+
+	/** Reads all server messages of the log, without draw commands */
+	public static List<String> readFrames() throws Exception
+	{
+		File file = getLogFile();
+		Logfile log = new Logfile(file, null, false);
+		if (!log.isValid())
+			throw new IOException("Could not open " + file.getAbsolutePath()
+								  + " (benchmarks must run in the project directory)");
+		List<String> frames = new ArrayList<>();
+		for (String msg = log.getCurrentFrameMessage(); msg != null; msg = log.stepForward())
+			if (!msg.isEmpty())
+				frames.add(msg);
+		log.close();
+		return frames;
+	}
+
+	/**
+	 * Reads the first full scene graph of the log and the updates that follow it, which all apply to
+	 * the structure of that scene graph
+	 */
+	public static List<String> readSegment() throws Exception
+	{
+		List<String> segment = new ArrayList<>();
+		for (String frame : readFrames()) {
+			boolean full = isFullFrame(frame);
+			if (full && !segment.isEmpty())
+				break;
+			if (full || !segment.isEmpty())
+				segment.add(frame);
+		}
+		if (segment.size() < 2)
+			throw new IOException("The log has no updates after its first full scene graph");
+		return segment;
+	}
+
+	/** Whether a message contains a full scene graph (RSG) rather than an update (RDS) */
+	public static boolean isFullFrame(String message) throws ParseException
+	{
+		return SExp.parse(message).get(1).getAtoms()[0].equals(SceneGraphHeader.FULL);
+	}
+
+	/** Reads the draw command packets */
+	public static List<byte[]> readPackets() throws IOException
+	{
+		List<byte[]> packets = new ArrayList<>();
+		try (DataInputStream in = new DataInputStream(new FileInputStream(getDrawingsFile()))) {
+			while (true) {
+				byte[] packet = new byte[in.readInt()];
+				in.readFully(packet);
+				packets.add(packet);
+			}
+		} catch (EOFException e) {
+			return packets;
+		}
+	}
+}
@@ -0,0 +1,334 @@
+/*
+ *  Copyright 2011 RoboViz
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package rv.benchmarks;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import rv.comm.drawing.commands.Command;
+import rv.comm.drawing.commands.DrawShape;
+import rv.comm.rcssserver.TarBz2ZipUtil;
+
+/**
+ * Writes the benchmark corpus: a short match in the monitor format of rcssserver3d, and packets of
+ * draw commands. The match has two teams of Nao robots that walk across the field, so the frames
+ * have the size and structure of real server frames; one agent joins halfway, which adds a second
+ * full (RSG) frame. Usage: {@code CorpusGenerator <directory>}
+ */
+public class CorpusGenerator
+{
+	static final String LOG_FILE = "sparkmonitor.log.bz2";
+	static final String DRAWINGS_FILE = "drawings.bin";
+
+	private static final int FRAMES = 40;
+	private static final int JOIN_FRAME = FRAMES / 2;
+	private static final int AGENTS_PER_TEAM = 11;
+	private static final double SECONDS_PER_FRAME = 0.04;
+	/** shapes per draw command packet */
+	private static final int SHAPES_PER_PACKET = 100;
+
+	/** mesh, offset from the torso and joint axis of each part of a Nao with a mesh */
+	private static final Object[][] PARTS = {
+			{"naobody", new double[] {0, 0, 0}, 'z'},
+			{"naohead", new double[] {0, 0, 0.19}, 'z'},
+			{"lupperarm", new double[] {0.098, 0.02, 0.075}, 'x'},
+			{"llowerarm", new double[] {0.098, 0.13, 0.075}, 'z'},
+			{"rupperarm", new double[] {-0.098, 0.02, 0.075}, 'x'},
+			{"rlowerarm", new double[] {-0.098, 0.13, 0.075}, 'z'},
+			{"lthigh", new double[] {0.055, 0.01, -0.17}, 'x'},
+			{"lshank", new double[] {0.055, 0.005, -0.27}, 'x'},
+			{"lfoot", new double[] {0.055, 0.03, -0.37}, 'x'},
+			{"rthigh", new double[] {-0.055, 0.01, -0.17}, 'x'},
+			{"rshank", new double[] {-0.055, 0.005, -0.27}, 'x'},
+			{"rfoot", new double[] {-0.055, 0.03, -0.37}, 'x'},
+	};
+	/** bodies of a Nao without a mesh (joint links), which are still transform nodes */
+	private static final double[][] LINKS = {
+			{0, 0, 0.09}, {0.098, 0, 0.075}, {0.098, 0.09, 0.075}, {-0.098, 0, 0.075}, {-0.098, 0.09, 0.075},
+			{0.055, -0.01, -0.115}, {0.055, -0.01, -0.115}, {0.055, 0, -0.37}, {-0.055, -0.01, -0.115},
+			{-0.055, -0.01, -0.115}, {-0.055, 0, -0.37},
+	};
+
+	public static void main(String[] args) throws IOException
+	{
+		File dir = new File(args.length > 0 ? args[0] : "benchmarks/corpus");
+		dir.mkdirs();
+		writeLog(new File(dir, LOG_FILE));
+		writeDrawings(new File(dir, DRAWINGS_FILE));
+	}
+
+	private static void writeLog(File file) throws IOException
+	{
+		try (PrintWriter out = TarBz2ZipUtil.createPrintWriter(file)) {
+			for (int frame = 0; frame < FRAMES; frame++) {
+				StringBuilder sb = new StringBuilder(1 << 17);
+				boolean full = frame == 0 || frame == JOIN_FRAME;
+				writeGameState(sb, frame);
+				sb.append(full ? "(RSG 0 1)(" : "(RDS 0 1)(");
+				writeScene(sb, frame, full);
+				sb.append(')');
+				out.println(sb);
+			}
+		}
+	}
+
+	private static void writeGameState(StringBuilder sb, int frame)
+	{
+		double time = frame * SECONDS_PER_FRAME;
+		if (frame == 0) {
+			sb.append("((FieldLength 30)(FieldWidth 20)(FieldHeight 40)(GoalWidth 2.1)(GoalDepth 0.6)"
+					+ "(GoalHeight 0.8)(BorderSize 0)(FreeKickDistance 2)(WaitBeforeKickOff 30)(AgentRadius 0.4)"
+					+ "(BallRadius 0.042)(BallMass 0.026)(RuleGoalPauseTime 3)(RuleKickInPauseTime 1)"
+					+ "(RuleHalfTime 300)(play_modes BeforeKickOff KickOff_Left KickOff_Right PlayOn KickIn_Left "
+					+ "KickIn_Right corner_kick_left corner_kick_right goal_kick_left goal_kick_right offside_left "
+					+ "offside_right GameOver Goal_Left Goal_Right free_kick_left free_kick_right "
+					+ "direct_free_kick_left direct_free_kick_right pass_left pass_right)");
+			sb.append("(time 0)(half 1)(score_left 0)(score_right 0)(play_mode 3)(team_left Left)"
+					+ "(team_right Right))");
+		} else {
+			sb.append("((time ").append(format(time)).append("))");
+		}
+	}
+
+	/** Writes the nodes below the root of the scene graph, as declarations or as updates */
+	private static void writeScene(StringBuilder sb, int frame, boolean full)
+	{
+		double t = frame * SECONDS_PER_FRAME;
+
+		// lights and the static field, which never change and are left out of updates
+		writeLight(sb, full, 0, 0, 10);
+		writeLight(sb, full, 10, 10, 10);
+		writeStaticMesh(sb, full, identity(0, 0, 0), "models/naosoccerfield.obj");
+		writeStaticMesh(sb, full, identity(-15, 0, 0), "models/leftgoal.obj");
+		writeStaticMesh(sb, full, identity(15, 0, 0), "models/rightgoal.obj");
+		writeStaticMesh(sb, full, identity(0, 0, 0), "models/skybox.obj");
+
+		// the ball rolls across the field
+		double[] ball = identity(-3 + 6 * Math.sin(t * 0.4), 2 * Math.cos(t * 0.3), 0.042);
+		writeMesh(sb, full, ball, "models/soccerball.obj", 0.042, "soccerball_rcs-soccerball.png");
+
+		for (int team = 0; team < 2; team++) {
+			int agents = team == 1 && frame < JOIN_FRAME ? AGENTS_PER_TEAM - 1 : AGENTS_PER_TEAM;
+			for (int id = 1; id <= agents; id++)
+				writeAgent(sb, full, team, id, t);
+		}
+	}
+
+	private static void writeAgent(StringBuilder sb, boolean full, int team, int id, double t)
+	{
+		double side = team == 0 ? -1 : 1;
+		double phase = id * 0.7 + team * 0.35;
+		double x = side * (1 + id * 1.2) + 0.3 * Math.sin(t * 0.5 + phase);
+		double y = -8 + id * 1.5 + 0.3 * Math.cos(t * 0.5 + phase);
+		double yaw = team == 0 ? 0 : Math.PI;
+		double[] torso = transform('z', yaw + 0.1 * Math.sin(t + phase), x, y, 0.38 + 0.005 * Math.sin(8 * t + phase));
+
+		sb.append(full ? "(nd TRF " : "(nd ");
+		appendMatrix(sb, torso);
+
+		String material = team == 0 ? "matLeft" : "matRight";
+		for (int i = 0; i < PARTS.length; i++) {
+			String mesh = (String) PARTS[i][0];
+			double[] offset = (double[]) PARTS[i][1];
+			double angle = 0.4 * Math.sin(8 * t + phase + i);
+			String materials = i == 0 ? material + " matNum" + id + " naoblack naowhite" : material + " naoblack naowhite";
+			writeMesh(sb, full, transform((char) PARTS[i][2], angle, offset[0], offset[1], offset[2]),
+					"models/" + mesh + ".obj", 0.1, materials);
+		}
+		for (int i = 0; i < LINKS.length; i++) {
+			double[] l = LINKS[i];
+			sb.append(full ? "(nd TRF " : "(nd ");
+			appendMatrix(sb, transform('y', 0.3 * Math.sin(8 * t + phase - i), l[0], l[1], l[2]));
+			sb.append(')');
+		}
+		sb.append(')');
+	}
+
+	private static void writeLight(StringBuilder sb, boolean full, double x, double y, double z)
+	{
+		if (!full) {
+			sb.append("(nd (nd))");
+			return;
+		}
+		sb.append("(nd TRF ");
+		appendMatrix(sb, identity(x, y, z));
+		sb.append("(nd Light (setDiffuse 1 1 1 1) (setAmbient 0.8 0.8 0.8 1) (setSpecular 0.1 0.1 0.1 1)))");
+	}
+
+	private static void writeStaticMesh(StringBuilder sb, boolean full, double[] matrix, String mesh)
+	{
+		if (full)
+			writeMesh(sb, true, matrix, mesh, 1, "");
+		else
+			sb.append("(nd (nd))");
+	}
+
+	/** A transform node with a mesh node; updates only contain the (possibly unchanged) matrix */
+	private static void writeMesh(StringBuilder sb, boolean full, double[] matrix, String mesh, double scale,
+			String materials)
+	{
+		sb.append(full ? "(nd TRF " : "(nd ");
+		appendMatrix(sb, matrix);
+		if (full) {
+			String s = format(scale);
+			sb.append("(nd StaticMesh (setVisible 1) (load ").append(mesh).append(") (sSc ");
+			sb.append(s).append(' ').append(s).append(' ').append(s).append(')');
+			if (!materials.isEmpty())
+				sb.append(" (resetMaterials ").append(materials).append(')');
+			sb.append(')');
+		} else {
+			sb.append("(nd)");
+		}
+		sb.append(')');
+	}
+
+	private static double[] identity(double x, double y, double z)
+	{
+		return transform('z', 0, x, y, z);
+	}
+
+	/** Column-major matrix of a rotation about an axis followed by a translation */
+	private static double[] transform(char axis, double angle, double x, double y, double z)
+	{
+		double c = Math.cos(angle), s = Math.sin(angle);
+		double[] m = {1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, x, y, z, 1};
+		switch (axis) {
+		case 'x':
+			m[5] = c;
+			m[6] = s;
+			m[9] = -s;
+			m[10] = c;
+			break;
+		case 'y':
+			m[0] = c;
+			m[2] = -s;
+			m[8] = s;
+			m[10] = c;
+			break;
+		default:
+			m[0] = c;
+			m[1] = s;
+			m[4] = -s;
+			m[5] = c;
+		}
+		return m;
+	}
+
+	private static void appendMatrix(StringBuilder sb, double[] m)
+	{
+		sb.append("(SLT");
+		for (double v : m)
+			sb.append(' ').append(format(v));
+		sb.append(')');
+	}
+
+	/** Formats a number like the server does, with 6 significant digits */
+	static String format(double v)
+	{
+		if (v == 0)
+			return "0";
+		String s = String.format(Locale.US, "%.6g", v);
+		int e = s.indexOf('e');
+		String mantissa = e == -1 ? s : s.substring(0, e);
+		String exponent = e == -1 ? "" : s.substring(e);
+		if (mantissa.contains(".")) {
+			mantissa = mantissa.replaceAll("0+$", "");
+			if (mantissa.endsWith("."))
+				mantissa = mantissa.substring(0, mantissa.length() - 1);
+		}
+		return mantissa + exponent;
+	}
+
+	/**
+	 * Writes one packet per shape type with {@link #SHAPES_PER_PACKET} shapes, and one with a buffer
+	 * swap, each prefixed by its length like stream drawings
+	 */
+	private static void writeDrawings(File file) throws IOException
+	{
+		try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+			for (int type = 0; type < DrawCommandBenchmark.SHAPE_TYPES.length; type++) {
+				ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+				for (int i = 0; i < SHAPES_PER_PACKET; i++)
+					writeShape(buf, type, i);
+				writePacket(out, buf);
+			}
+			ByteBuffer buf = ByteBuffer.allocate(64);
+			buf.put((byte) Command.DRAW_OPTION).put((byte) 0);
+			putString(buf, "benchmark");
+			writePacket(out, buf);
+		}
+	}
+
+	private static void writePacket(DataOutputStream out, ByteBuffer buf) throws IOException
+	{
+		out.writeInt(buf.position());
+		out.write(buf.array(), 0, buf.position());
+	}
+
+	private static void writeShape(ByteBuffer buf, int type, int i)
+	{
+		float x = -15 + (i % 20) * 1.5f;
+		float y = -10 + (i / 20) * 4f;
+		String set = "benchmark." + DrawCommandBenchmark.SHAPE_TYPES[type] + "." + (i % 4);
+		buf.put((byte) Command.DRAW_SHAPE).put((byte) type);
+		switch (type) {
+		case DrawShape.CIRCLE:
+			putFloats(buf, x, y, 0.5f, 2);
+			putColor(buf, false);
+			break;
+		case DrawShape.LINE:
+			putFloats(buf, x, y, 0, x + 1, y + 1, 0.5f, 2);
+			putColor(buf, false);
+			break;
+		case DrawShape.POINT:
+			putFloats(buf, x, y, 0.2f, 5);
+			putColor(buf, false);
+			break;
+		case DrawShape.SPHERE:
+			putFloats(buf, x, y, 0.5f, 0.2f);
+			putColor(buf, false);
+			break;
+		default:
+			buf.put((byte) 4);
+			putColor(buf, true);
+			putFloats(buf, x, y, 0, x + 1, y, 0, x + 1, y + 1, 0, x, y + 1, 0);
+		}
+		putString(buf, set);
+	}
+
+	private static void putFloats(ByteBuffer buf, float... values)
+	{
+		for (float v : values)
+			Command.writeFloat(buf, v);
+	}
+
+	private static void putColor(ByteBuffer buf, boolean alpha)
+	{
+		buf.put((byte) 255).put((byte) 128).put((byte) 0);
+		if (alpha)
+			buf.put((byte) 200);
+	}
+
+	private static void putString(ByteBuffer buf, String s)
+	{
+		buf.put(s.getBytes()).put((byte) 0);
+	}
+}
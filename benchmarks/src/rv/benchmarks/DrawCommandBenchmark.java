@@ -0,0 +1,88 @@
+/*
+ *  Copyright 2011 RoboViz
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package rv.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import rv.comm.drawing.Drawings;
+import rv.comm.drawing.commands.Command;
+import rv.comm.drawing.commands.DrawShape;
+
+/**
+ * Parsing a packet of draw commands of one shape type with {@link Command#parse}, and executing
+ * them followed by a buffer swap like a frame of stream drawings. Shape commands don't refer to
+ * agents, so no world model is needed. Results are per packet.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DrawCommandBenchmark
+{
+	/** names of the shape types, in the order of their {@link DrawShape} constants */
+	static final String[] SHAPE_TYPES = {"circle", "line", "point", "sphere", "polygon"};
+
+	@Param({"circle", "line", "point", "sphere", "polygon"})
+	public String shape;
+
+	private byte[] packet;
+	private byte[] swapPacket;
+	private Drawings drawings;
+
+	@Setup
+	public void setup() throws Exception
+	{
+		List<byte[]> packets = Corpus.readPackets();
+		packet = packets.get(Arrays.asList(SHAPE_TYPES).indexOf(shape));
+		swapPacket = packets.get(SHAPE_TYPES.length);
+		drawings = new Drawings();
+	}
+
+	@Benchmark
+	public void parse(Blackhole bh)
+	{
+		ByteBuffer buf = ByteBuffer.wrap(packet);
+		while (buf.hasRemaining())
+			bh.consume(Command.parse(buf, drawings, null));
+	}
+
+	@Benchmark
+	public Drawings parseAndSwap()
+	{
+		ByteBuffer buf = ByteBuffer.wrap(packet);
+		while (buf.hasRemaining())
+			Command.parse(buf, drawings, null).execute();
+		Command.parse(ByteBuffer.wrap(swapPacket), drawings, null).execute();
+		return drawings;
+	}
+}
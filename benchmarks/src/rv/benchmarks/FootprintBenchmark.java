@@ -0,0 +1,95 @@
+/*
+ *  Copyright 2011 RoboViz
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package rv.benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import rv.comm.rcssserver.SExp;
+import rv.comm.rcssserver.scenegraph.SceneGraph;
+
+/**
+ * Retained heap of a scene graph built from the first full frame of the corpus. Many graphs are
+ * kept alive at once and the used heap after a full GC is compared with the heap before, which is
+ * reported as the bytesPerGraph counter. The counter is summed over measurement iterations, so
+ * there is exactly one.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 1)
+@Fork(1)
+public class FootprintBenchmark
+{
+	private static final int GRAPHS = 50;
+
+	@State(Scope.Benchmark)
+	public static class Frame
+	{
+		SExp full;
+
+		@Setup
+		public void setup() throws Exception
+		{
+			full = SExp.parse(Corpus.readSegment().get(0)).get(2);
+		}
+	}
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Footprint
+	{
+		public long bytesPerGraph;
+	}
+
+	@Benchmark
+	public SceneGraph[] sceneGraph(Frame frame, Footprint footprint)
+	{
+		SceneGraph[] graphs = new SceneGraph[GRAPHS];
+		long before = usedHeap();
+		for (int i = 0; i < graphs.length; i++)
+			graphs[i] = new SceneGraph(frame.full);
+		long after = usedHeap();
+		footprint.bytesPerGraph = (after - before) / GRAPHS;
+		return graphs;
+	}
+
+	/** Used heap after the garbage collector has settled */
+	private static long usedHeap()
+	{
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		long used = Long.MAX_VALUE;
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+			used = Math.min(used, memory.getHeapMemoryUsage().getUsed());
+		}
+		return used;
+	}
+}
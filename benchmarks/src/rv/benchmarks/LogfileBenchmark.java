@@ -0,0 +1,129 @@
+/*
+ *  Copyright 2011 RoboViz
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package rv.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import rv.comm.rcssserver.ILogfileReader;
+import rv.comm.rcssserver.Logfile;
+import rv.comm.rcssserver.LogfileReaderBuffered;
+import rv.comm.rcssserver.TarBz2ZipUtil;
+
+/**
+ * Reading logfiles: decompressing the whole file, stepping through all frames and seeking back and
+ * forth, with the plain reader and with the buffer used by the log player. Results are per pass
+ * over the log or per seek.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogfileBenchmark
+{
+	/** frames buffered by the log player */
+	private static final int BUFFER_SIZE = 200;
+
+	@State(Scope.Thread)
+	public static class Reader
+	{
+		@Param({"plain", "buffered"})
+		public String reader;
+
+		private ILogfileReader log;
+		private int frames;
+		private boolean seekBack;
+
+		@Setup
+		public void setup() throws Exception
+		{
+			frames = Corpus.readFrames().size();
+			Logfile logfile = new Logfile(Corpus.getLogFile(), null, false);
+			log = reader.equals("buffered") ? new LogfileReaderBuffered(logfile, BUFFER_SIZE) : logfile;
+		}
+
+		@TearDown
+		public void tearDown()
+		{
+			log.close();
+		}
+	}
+
+	private File file;
+
+	@Setup
+	public void setup()
+	{
+		file = Corpus.getLogFile();
+	}
+
+	/** Decompressing and reading the whole file */
+	@Benchmark
+	public long decompress() throws IOException
+	{
+		long chars = 0;
+		char[] buffer = new char[8192];
+		try (BufferedReader in = TarBz2ZipUtil.createBufferedReader(file)) {
+			int n;
+			while ((n = in.read(buffer)) != -1)
+				chars += n;
+		}
+		return chars;
+	}
+
+	/** Stepping from the first to the last frame */
+	@Benchmark
+	public int stepForward(Reader r) throws IOException
+	{
+		ILogfileReader log = r.log;
+		log.rewind();
+		int length = 0;
+		while (!log.isAtEndOfLog()) {
+			String msg = log.stepForward();
+			if (msg != null)
+				length += msg.length();
+		}
+		return length;
+	}
+
+	/**
+	 * Alternately seeking to the last frame and back to the middle of the log, like dragging the
+	 * slider of the log player
+	 */
+	@Benchmark
+	public String seek(Reader r) throws IOException
+	{
+		r.seekBack = !r.seekBack;
+		r.log.stepAnywhere(r.seekBack ? r.frames / 2 : r.frames - 1);
+		return r.log.getCurrentFrameMessage();
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ *  Copyright 2011 RoboViz
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package rv.benchmarks;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import rv.comm.rcssserver.GameState;
+import rv.comm.rcssserver.MessageParser;
+import rv.comm.rcssserver.SExp;
+import rv.world.WorldModel;
+
+/**
+ * Applying server messages to a world model (without teams, which need a GL context), and parsing
+ * the game state part of the messages alone
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageParserBenchmark
+{
+	private String full;
+	private List<String> updates;
+	private List<SExp> fullGameState;
+	private List<SExp> gameStates;
+	private WorldModel world;
+	private MessageParser parser;
+	private int next;
+
+	@Setup
+	public void setup() throws Exception
+	{
+		List<String> segment = Corpus.readSegment();
+		full = segment.get(0);
+		updates = segment.subList(1, segment.size());
+		fullGameState = SExp.parse(full);
+		gameStates = new ArrayList<>();
+		for (String update : updates)
+			gameStates.add(SExp.parse(update).get(0));
+
+		world = new WorldModel();
+		parser = new MessageParser(world);
+		parser.parse(full);
+	}
+
+	/** A full scene graph (RSG) that replaces an empty scene graph */
+	@Benchmark
+	public WorldModel parseFullNew() throws ParseException
+	{
+		world.setSceneGraph(null);
+		parser.parse(full);
+		return world;
+	}
+
+	/** A full scene graph that is reconciled with the same scene graph, like a repeated RSG */
+	@Benchmark
+	public WorldModel parseFullReconcile() throws ParseException
+	{
+		parser.parse(full);
+		return world;
+	}
+
+	/** An update (RDS) of the scene graph */
+	@Benchmark
+	public WorldModel parseUpdate() throws ParseException
+	{
+		parser.parse(updates.get(next));
+		next = (next + 1) % updates.size();
+		return world;
+	}
+
+	/** The game state of a full scene graph, which declares the rules and play modes */
+	@Benchmark
+	public GameState parseGameStateFull()
+	{
+		GameState gameState = world.getGameState();
+		gameState.parse(fullGameState.get(0), world);
+		return gameState;
+	}
+
+	/** The game state of an update, usually only the time */
+	@Benchmark
+	public GameState parseGameStateUpdate()
+	{
+		GameState gameState = world.getGameState();
+		gameState.parse(gameStates.get(next), world);
+		next = (next + 1) % gameStates.size();
+		return gameState;
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ *  Copyright 2011 RoboViz
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package rv.benchmarks;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import rv.comm.rcssserver.SExp;
+
+/**
+ * Tokenizing server messages into s-expressions, for a full scene graph and the updates of the log
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SExpBenchmark
+{
+	private String full;
+	private List<String> updates;
+	private int next;
+
+	@Setup
+	public void setup() throws Exception
+	{
+		updates = new ArrayList<>();
+		for (String frame : Corpus.readFrames()) {
+			if (!Corpus.isFullFrame(frame))
+				updates.add(frame);
+			else if (full == null)
+				full = frame;
+		}
+	}
+
+	@Benchmark
+	public ArrayList<SExp> parseFull() throws ParseException
+	{
+		return SExp.parse(full);
+	}
+
+	@Benchmark
+	public ArrayList<SExp> parseUpdate() throws ParseException
+	{
+		String update = updates.get(next);
+		next = (next + 1) % updates.size();
+		return SExp.parse(update);
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ *  Copyright 2011 RoboViz
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package rv.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import rv.comm.rcssserver.SExp;
+import rv.comm.rcssserver.scenegraph.Node;
+import rv.comm.rcssserver.scenegraph.SceneGraph;
+import rv.comm.rcssserver.scenegraph.StaticMeshNode;
+import rv.comm.rcssserver.scenegraph.Timeline;
+
+/**
+ * Building and updating the scene graph from parsed messages, and computing the world transforms
+ * of all meshes like the update stage of the world model does once per frame. With interpolation,
+ * the display time is halfway between the last two updates, so every transform is blended.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SceneGraphBenchmark
+{
+	/** game time between two frames of the log */
+	static final long FRAME_NANOS = 40000000L;
+
+	@Param({"false", "true"})
+	public boolean interpolate;
+
+	private SExp full;
+	private List<SExp> updates;
+	private SceneGraph graph;
+	private List<StaticMeshNode> meshNodes;
+	private long time;
+	private int next;
+
+	@Setup
+	public void setup() throws Exception
+	{
+		List<String> segment = Corpus.readSegment();
+		full = SExp.parse(segment.get(0)).get(2);
+		updates = new ArrayList<>();
+		for (String update : segment.subList(1, segment.size()))
+			updates.add(SExp.parse(update).get(2));
+
+		graph = createSceneGraph(full, interpolate, () -> time);
+		meshNodes = graph.getAllMeshNodes();
+		// two updates, so that there is something to interpolate between
+		applyNextUpdate();
+		applyNextUpdate();
+	}
+
+	static SceneGraph createSceneGraph(SExp full, boolean interpolate, LongSupplier clock)
+	{
+		SceneGraph graph = new SceneGraph(full);
+		graph.getTimeline().setEnabled(interpolate);
+		graph.getTimeline().setClock(clock, FRAME_NANOS);
+		return graph;
+	}
+
+	/** Applies the next update one frame later and moves the display time to the middle of the frame */
+	private void applyNextUpdate()
+	{
+		time += FRAME_NANOS;
+		Timeline timeline = graph.getTimeline();
+		timeline.beginFrame();
+		graph.update(updates.get(next));
+		next = (next + 1) % updates.size();
+		timeline.setDisplayTime(time + FRAME_NANOS / 2);
+	}
+
+	@Benchmark
+	public SceneGraph construct()
+	{
+		return new SceneGraph(full);
+	}
+
+	/** Reconciling with the full scene graph it was built from, which keeps all nodes */
+	@Benchmark
+	public SceneGraph reconcile()
+	{
+		List<Node> added = new ArrayList<>();
+		List<Node> removed = new ArrayList<>();
+		graph.reconcile(full, added, removed);
+		return graph;
+	}
+
+	@Benchmark
+	public SceneGraph update()
+	{
+		applyNextUpdate();
+		return graph;
+	}
+
+	/** World transforms of all mesh nodes in a new rendered frame */
+	@Benchmark
+	public void worldTransforms(Blackhole bh)
+	{
+		graph.getTimeline().setDisplayTime(time + FRAME_NANOS / 2);
+		for (int i = 0; i < meshNodes.size(); i++)
+			bh.consume(meshNodes.get(i).getWorldTransform());
+	}
+}
@@ -0,0 +1,44 @@
+#!/bin/bash
+# Builds and runs the JMH benchmarks in benchmarks/src with the GC profiler. Arguments are passed
+# to JMH, for example:
+#   ./bash-benchmark.sh SceneGraph               (only benchmarks matching a pattern)
+#   ./bash-benchmark.sh -f 1 -wi 1 -i 1          (a quick run)
+#   ./bash-benchmark.sh -jvmArgsAppend -Drv.log=/path/to/sparkmonitor.log
+DIR="$( cd "$( dirname "$0" )" && pwd )"
+cd $DIR/..
+
+if ! which javac >/dev/null 2>&1 ; then
+  echo "Could not find 'javac' command. Please install JDK and/or set PATH."
+  exit 1
+fi
+
+JMH_VERSION=1.37
+MAVEN=https://repo1.maven.org/maven2
+LIB=benchmarks/lib
+BIN=benchmarks/bin
+JOGL=lib/jogl-2.0/linux-amd64
+
+# JMH isn't bundled, so it is downloaded once
+fetch() {
+  JAR=$LIB/$(basename $1)
+  if [ ! -f $JAR ]; then
+    echo "Downloading $1"
+    curl -sSfL -o $JAR $MAVEN/$1 || { rm -f $JAR; exit 1; }
+  fi
+}
+mkdir -p $LIB
+fetch org/openjdk/jmh/jmh-core/$JMH_VERSION/jmh-core-$JMH_VERSION.jar
+fetch org/openjdk/jmh/jmh-generator-annprocess/$JMH_VERSION/jmh-generator-annprocess-$JMH_VERSION.jar
+fetch net/sf/jopt-simple/jopt-simple/5.0.4/jopt-simple-5.0.4.jar
+fetch org/apache/commons/commons-math3/3.6.1/commons-math3-3.6.1.jar
+
+BENCHCLASSPATH=$JOGL/gluegen-rt.jar:$JOGL/jogl.all.jar:$JOGL/nativewindow.all.jar:$JOGL/newt.all.jar:lib/jsgl.jar:lib/commons-compress-1.5.jar:$LIB/*
+rm -rf $BIN
+mkdir -p $BIN
+javac -nowarn -d $BIN -cp "$BENCHCLASSPATH" $(find src benchmarks/src -name '*.java') || exit 1
+
+# the project directory is on the class path for the models in resources/
+if [ ! -f benchmarks/corpus/sparkmonitor.log.bz2 ]; then
+  java -cp "$BIN:$BENCHCLASSPATH" rv.benchmarks.CorpusGenerator benchmarks/corpus || exit 1
+fi
+java -cp "$BIN:$BENCHCLASSPATH:." org.openjdk.jmh.Main -prof gc "$@"
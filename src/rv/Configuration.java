@@ -177,6 +177,10 @@ public class Configuration
 
 		public String overriddenServerHost = null;
 		private Integer overriddenServerPort = null;
+		private Integer overriddenDrawingStreamPort = null;
+
+		/** path of the Unix domain socket for stream drawings, <code>null</code> if disabled */
+		public String drawingSocketPath = null;
 
 		private void read(BufferedReader in) throws IOException
 		{
@@ -220,6 +224,20 @@ public class Configuration
 		{
 			return (overriddenServerPort == null) ? serverPort : overriddenServerPort;
 		}
+
+		public void overrideDrawingStreamPort(Integer drawingStreamPort)
+		{
+			this.overriddenDrawingStreamPort = drawingStreamPort;
+		}
+
+		/**
+		 * The local TCP port accepting length-framed drawings, by default the same number as the UDP
+		 * drawing port. A value of 0 disables the TCP stream transport.
+		 */
+		public int getDrawingStreamPort()
+		{
+			return (overriddenDrawingStreamPort == null) ? listenPort : overriddenDrawingStreamPort;
+		}
 	}
 
 	public class General
@@ -0,0 +1,135 @@
+/*
+ *  Copyright 2011 RoboViz
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package rv;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import rv.util.metrics.Counter;
+import rv.util.metrics.Metrics;
+
+/**
+ * Decides which frames the viewer actually renders. The animator keeps calling the viewer at its
+ * fixed rate so that the world and the camera are updated, but a frame is only drawn when one of
+ * the tracked sources changed since the last rendered frame, something is animating, or the
+ * keep-alive interval has passed. Everything else is counted as a skipped frame.
+ * <p>
+ * {@link #track(Source, long)} and {@link #shouldRender(boolean)} must be called from the GL
+ * thread; {@link #markDirty()} and {@link #keepRendering(long)} may be called from any thread.
+ */
+public class FrameScheduler
+{
+	/** Parts of the viewer state whose changes are visible in the next frame */
+	public enum Source {
+		WORLD,
+		DRAWINGS,
+		CAMERA,
+		SELECTION,
+		CONTENT
+	}
+
+	private static final Counter RENDERED = Metrics.counter("frames.rendered");
+	private static final Counter SKIPPED = Metrics.counter("frames.skipped");
+
+	private final long keepAliveNanos;
+	private final long[] current = new long[Source.values().length];
+	private final long[] rendered = new long[Source.values().length];
+	private final AtomicBoolean dirty = new AtomicBoolean(true);
+	private volatile long renderUntil;
+	private boolean alwaysRender = false;
+	private long lastRenderTime;
+	private long renderedFrames;
+	private long skippedFrames;
+
+	/**
+	 * @param keepAliveMS
+	 *            - longest time between two rendered frames, even if nothing changed
+	 */
+	public FrameScheduler(long keepAliveMS)
+	{
+		this.keepAliveNanos = keepAliveMS * 1000000L;
+	}
+
+	/** Renders every frame, e.g. for benchmarking or if changes can't be detected reliably */
+	public void setAlwaysRender(boolean alwaysRender)
+	{
+		this.alwaysRender = alwaysRender;
+	}
+
+	public boolean isAlwaysRender()
+	{
+		return alwaysRender;
+	}
+
+	/** Number of frames drawn so far */
+	public long getRenderedFrames()
+	{
+		return renderedFrames;
+	}
+
+	/** Number of frames skipped because nothing changed */
+	public long getSkippedFrames()
+	{
+		return skippedFrames;
+	}
+
+	/** Forces the next frame to be rendered */
+	public void markDirty()
+	{
+		dirty.set(true);
+	}
+
+	/**
+	 * Renders every frame for the given time, for changes that aren't tracked directly (like the
+	 * effects of user input)
+	 */
+	public void keepRendering(long ms)
+	{
+		long until = System.nanoTime() + ms * 1000000L;
+		if (until - renderUntil > 0)
+			renderUntil = until;
+	}
+
+	/** Reports the current state of a source (e.g. a hash or version) for the upcoming frame */
+	public void track(Source source, long state)
+	{
+		current[source.ordinal()] = state;
+	}
+
+	/**
+	 * Decides whether the upcoming frame is rendered and counts it.
+	 *
+	 * @param animating
+	 *            - whether something on screen changes with time alone, like a fading overlay
+	 */
+	public boolean shouldRender(boolean animating)
+	{
+		long now = System.nanoTime();
+		boolean render = dirty.getAndSet(false) || alwaysRender || animating || now - renderUntil < 0
+				|| now - lastRenderTime >= keepAliveNanos || !Arrays.equals(current, rendered);
+		if (!render) {
+			skippedFrames++;
+			SKIPPED.increment();
+			return false;
+		}
+
+		System.arraycopy(current, 0, rendered, 0, current.length);
+		lastRenderTime = now;
+		renderedFrames++;
+		RENDERED.increment();
+		return true;
+	}
+}
@@ -0,0 +1,433 @@
+/*
+ *  Copyright 2011 RoboViz
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package rv;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.locks.Lock;
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+import javax.media.opengl.GLCapabilities;
+import javax.media.opengl.GLContext;
+import javax.media.opengl.GLDrawable;
+import javax.media.opengl.GLDrawableFactory;
+import js.jogl.FrameBufferObject;
+import js.jogl.view.FPCamera;
+import js.math.vector.Vec2f;
+import js.math.vector.Vec3f;
+import rv.comm.drawing.Drawings;
+import rv.comm.rcssserver.Logfile;
+import rv.comm.rcssserver.MessageParser;
+import rv.content.ContentManager;
+import rv.ui.LogExportDialog;
+import rv.util.jogl.FrameCapture;
+import rv.world.WorldModel;
+
+/**
+ * Renders a range of a logfile at a fixed frame rate to an image sequence or to the standard input
+ * of a video encoder, independent of the playback in the viewer. The log is replayed in a world
+ * model of its own: for every output frame, the log frames up to its game time are applied and the
+ * transforms are sampled at exactly that time, so the output doesn't depend on how fast the frames
+ * are rendered. The draw commands of the log are executed on drawings of its own as well. The team
+ * colors are the ones of the viewer, since the team materials are shared.
+ * <p>
+ * The export runs on a thread of its own, with an offscreen context that shares the textures,
+ * meshes and shaders of the viewer's context, and renders into a frame buffer object of the export
+ * resolution. Each frame is rendered while holding the render lock of the viewer, so that the two
+ * never use the shared content at the same time. The camera is fixed at the view of the viewer when
+ * the export starts.
+ */
+public class LogExporter implements Runnable
+{
+	/** exported frames that may wait for encoding before the export waits for the encoders */
+	private static final int MAX_CAPTURED_FRAMES = 8;
+	/** how long to wait for models that are still loading before checking again */
+	private static final long LOAD_WAIT_MS = 20;
+	/** how long the viewer waits for a cancelled export to release its context */
+	private static final long CANCEL_WAIT_MS = 5000;
+
+	public static class Settings
+	{
+		public File logfile;
+		/** first and last (inclusive) frame of the logfile to export */
+		public int startFrame;
+		public int endFrame;
+		public float fps = 30;
+		public int width = 1920;
+		public int height = 1080;
+		/** whether transforms are interpolated between log frames */
+		public boolean interpolate = true;
+		/** directory of the exported image sequence */
+		public File outputDir;
+		/**
+		 * command and arguments of a process that receives the frames as raw rgb24 video on its
+		 * standard input instead of an image sequence; {width}, {height} and {fps} are replaced by
+		 * the export settings
+		 */
+		public List<String> pipeCommand;
+	}
+
+	/** Writes frames as raw rgb24 video to the standard input of a process */
+	private static class PipeWriter implements FrameCapture.FrameWriter
+	{
+		private final OutputStream out;
+		private byte[] row = new byte[0];
+		/** first error writing to the process, after which frames are dropped */
+		private volatile IOException error;
+
+		PipeWriter(List<String> command, Settings settings) throws IOException
+		{
+			List<String> args = new ArrayList<>();
+			for (String arg : command)
+				args.add(arg.replace("{width}", Integer.toString(settings.width))
+								 .replace("{height}", Integer.toString(settings.height))
+								 .replace("{fps}", String.format(Locale.US, "%s", settings.fps)));
+			Process process = new ProcessBuilder(args)
+							  .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+							  .redirectError(ProcessBuilder.Redirect.INHERIT)
+							  .start();
+			out = new BufferedOutputStream(process.getOutputStream(), 1 << 20);
+		}
+
+		@Override
+		public void write(int[] pixels, int width, int height) throws IOException
+		{
+			if (error != null)
+				return;
+			if (row.length != width * 3)
+				row = new byte[width * 3];
+			try {
+				for (int y = 0; y < height; y++) {
+					int o = y * width;
+					for (int x = 0; x < width; x++) {
+						int p = pixels[o + x];
+						row[x * 3] = (byte) (p >> 16);
+						row[x * 3 + 1] = (byte) (p >> 8);
+						row[x * 3 + 2] = (byte) p;
+					}
+					out.write(row);
+				}
+			} catch (IOException e) {
+				error = e;
+				throw e;
+			}
+		}
+
+		IOException getError()
+		{
+			return error;
+		}
+
+		void close()
+		{
+			try {
+				out.close();
+			} catch (IOException e) {
+				if (error == null)
+					error = e;
+			}
+		}
+	}
+
+	private final Viewer viewer;
+	private final Settings settings;
+	private final long frameNanos;
+	private final GLContext sharedContext;
+	private final Thread thread;
+
+	private ContentManager content;
+	private Logfile logfile;
+	private MessageParser parser;
+	private WorldModel world;
+	private final Drawings drawings = new Drawings();
+	private FPCamera camera;
+	private OffscreenRenderer renderer;
+	private FrameBufferObject fbo;
+	private FrameCapture capture;
+	private PipeWriter pipe;
+
+	/** clock of the exported world, in log time */
+	private long time;
+	private int appliedFrame = -1;
+	private volatile int outputFrame;
+	private volatile boolean finished;
+	private volatile boolean cancelled;
+	private long startTime;
+
+	/**
+	 * @param secondsPerFrame
+	 *            - game time between two frames of the logfile
+	 * @param sharedContext
+	 *            - context of the viewer, whose objects the export uses
+	 */
+	public LogExporter(Viewer viewer, Settings settings, float secondsPerFrame, GLContext sharedContext)
+	{
+		this.viewer = viewer;
+		this.settings = settings;
+		this.frameNanos = Math.round(secondsPerFrame * 1e9);
+		this.sharedContext = sharedContext;
+		thread = new Thread(this, "Log Export");
+		thread.setDaemon(true);
+	}
+
+	/** Starts the export on its own thread */
+	public void start()
+	{
+		thread.start();
+	}
+
+	/** Stops the export and waits a while for its thread to release its context */
+	public void cancel()
+	{
+		cancelled = true;
+		// stop waiting for the encoders
+		thread.interrupt();
+		try {
+			thread.join(CANCEL_WAIT_MS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public boolean isFinished()
+	{
+		return finished;
+	}
+
+	/** Fraction of the range that has been exported */
+	public float getProgress()
+	{
+		int frames = Math.max(1, settings.endFrame - settings.startFrame);
+		return Math.min(1, (float) (getPosition() - settings.startFrame) / frames);
+	}
+
+	/** Position of the next output frame in the logfile, in (fractional) log frames */
+	private double getPosition()
+	{
+		return settings.startFrame + outputFrame * 1e9 / (settings.fps * frameNanos);
+	}
+
+	@Override
+	public void run()
+	{
+		GLDrawable drawable = null;
+		GLContext context = null;
+		String error = null;
+		try {
+			// the frames are rendered into an FBO, so the drawable is only a minimal surface to make
+			// the context current on
+			GLCapabilities caps = new GLCapabilities(sharedContext.getGLDrawable().getGLProfile());
+			caps.setOnscreen(false);
+			drawable = GLDrawableFactory.getFactory(caps.getGLProfile()).createOffscreenDrawable(
+					null, caps, null, 1, 1);
+			drawable.setRealized(true);
+			context = drawable.createContext(sharedContext);
+			if (context.makeCurrent() == GLContext.CONTEXT_NOT_CURRENT)
+				throw new IOException("Could not create an offscreen GL context");
+
+			GL2 gl = context.getGL().getGL2();
+			try {
+				init(gl);
+				System.out.println("Exporting frames " + settings.startFrame + " to " + settings.endFrame + " of "
+								   + settings.logfile);
+				export(gl);
+			} catch (Exception e) {
+				error = getMessage(e);
+			}
+			dispose(gl);
+			if (error == null && pipe != null && pipe.getError() != null)
+				error = "Video encoder exited early: " + getMessage(pipe.getError());
+		} catch (Exception e) {
+			error = getMessage(e);
+		} finally {
+			if (context != null) {
+				if (context.isCurrent())
+					context.release();
+				context.destroy();
+			}
+			if (drawable != null)
+				drawable.setRealized(false);
+		}
+
+		if (cancelled) {
+			System.out.println("Export cancelled");
+		} else if (error != null) {
+			System.err.println("Export failed: " + error);
+			LogExportDialog.showFailed(viewer, error);
+		} else {
+			double seconds = (System.nanoTime() - startTime) / 1e9;
+			String target =
+					pipe != null ? String.join(" ", settings.pipeCommand) : settings.outputDir.getAbsolutePath();
+			System.out.printf(Locale.US, "Exported %d frames to %s in %.1f s (%.2fx real time)%n", outputFrame,
+					target, seconds, outputFrame / settings.fps / seconds);
+		}
+		finished = true;
+	}
+
+	private static String getMessage(Exception e)
+	{
+		return e.getMessage() != null ? e.getMessage() : e.toString();
+	}
+
+	/** Opens the logfile and creates the GL resources of the export */
+	private void init(GL2 gl) throws Exception
+	{
+		content = viewer.getContentManager();
+		Lock lock = viewer.getRenderLock();
+		lock.lock();
+		try {
+			world = new WorldModel();
+			world.init(gl, content, viewer.getConfig(), Viewer.Mode.LOGFILE);
+			// the content manager recolors the shared team materials for the game state of the
+			// viewer, which the one of the export must not change
+			world.getGameState().removeListener(content);
+			world.setInterpolateTransforms(settings.interpolate);
+			world.setClock(() -> time, frameNanos);
+			world.addSceneGraphListener(content);
+			parser = new MessageParser(world);
+
+			// the draw commands of the log go to the drawings of the export, which the viewer hides
+			// if it hides its own
+			if (!viewer.getDrawings().isVisible())
+				drawings.toggle();
+			logfile = new Logfile(settings.logfile, drawings, world);
+			if (!logfile.isValid())
+				throw new IOException("Invalid logfile " + settings.logfile);
+
+			FPCamera view = viewer.getUI().getCamera();
+			Vec3f position = view.getPosition();
+			Vec2f rotation = view.getRotAngle();
+			camera = new FPCamera(new Vec3f(position.x, position.y, position.z),
+					new Vec2f(rotation.x, rotation.y), view.getFOVY(), view.getNear(), view.getFar());
+		} finally {
+			lock.unlock();
+		}
+
+		renderer = new OffscreenRenderer(viewer.getConfig().graphics);
+		renderer.init(gl, content, viewer.isInstancingEnabled());
+		fbo = FrameBufferObject.create(gl, settings.width, settings.height, GL.GL_RGBA);
+		capture = new FrameCapture(gl, MAX_CAPTURED_FRAMES);
+		if (settings.pipeCommand != null)
+			pipe = new PipeWriter(settings.pipeCommand, settings);
+
+		startTime = System.nanoTime();
+		lock.lock();
+		try {
+			applyFrame();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Applies the current log frame to the exported world */
+	private void applyFrame()
+	{
+		appliedFrame = logfile.getCurrentFrame();
+		time = appliedFrame * frameNanos;
+		String msg = logfile.getCurrentFrameMessage();
+		try {
+			if (msg != null)
+				parser.parse(msg);
+		} catch (Exception e) {
+			// like in playback, frames that can't be parsed are skipped
+		}
+	}
+
+	/** Applies log frames and renders output frames until the end of the range */
+	private void export(GL2 gl) throws IOException, InterruptedException
+	{
+		Lock lock = viewer.getRenderLock();
+		while (!cancelled) {
+			// hand the frame read back during the previous iteration to the encoders
+			capture.update(gl);
+			if (pipe != null && pipe.getError() != null)
+				throw new IOException("Video encoder exited early: " + pipe.getError().getMessage());
+
+			double position = getPosition();
+			if (position > settings.endFrame)
+				return;
+
+			int frame = (int) (settings.interpolate ? Math.ceil(position) : Math.floor(position));
+			boolean loaded;
+			lock.lock();
+			try {
+				while (appliedFrame < frame && !logfile.isAtEndOfLog()) {
+					logfile.stepForward();
+					applyFrame();
+				}
+
+				// only render once all models of the scene are loaded, so that frames don't depend
+				// on load times
+				loaded = content.getPendingModelCount() == 0;
+				if (loaded) {
+					// the display time trails the clock by one log frame
+					time = Math.round(position * frameNanos) + frameNanos;
+					world.beginFrame();
+					world.update(1000 / settings.fps, camera.getPosition());
+					drawings.update();
+					renderer.render(gl, world, drawings, camera, fbo);
+				}
+			} finally {
+				lock.unlock();
+			}
+			if (!loaded) {
+				// the models are initialized by the viewer
+				Thread.sleep(LOAD_WAIT_MS);
+				continue;
+			}
+
+			if (pipe != null)
+				capture.capture(gl, 0, 0, settings.width, settings.height, pipe, true);
+			else
+				capture.capture(gl, 0, 0, settings.width, settings.height,
+						new File(settings.outputDir, String.format(Locale.US, "frame_%06d.png", outputFrame)));
+			fbo.unbind(gl);
+			outputFrame++;
+		}
+	}
+
+	/** Writes the remaining frames and releases the resources of the export */
+	private void dispose(GL2 gl)
+	{
+		// waits for the encoders, which is why the export has a thread of its own
+		if (capture != null)
+			capture.dispose(gl);
+		if (pipe != null)
+			pipe.close();
+		if (renderer != null)
+			renderer.dispose(gl);
+		if (world != null) {
+			Lock lock = viewer.getRenderLock();
+			lock.lock();
+			try {
+				world.removeSceneGraphListener(content);
+				world.dispose(gl);
+			} finally {
+				lock.unlock();
+			}
+		}
+		if (fbo != null)
+			fbo.dispose(gl);
+		if (logfile != null)
+			logfile.close();
+	}
+}
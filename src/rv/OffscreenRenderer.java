@@ -0,0 +1,77 @@
+/*
+ *  Copyright 2011 RoboViz
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package rv;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+import js.jogl.FrameBufferObject;
+import js.jogl.Texture2D;
+import js.jogl.view.Camera3D;
+import js.jogl.view.Viewport;
+import rv.comm.drawing.Drawings;
+import rv.content.ContentManager;
+import rv.effects.EffectManager;
+import rv.world.WorldModel;
+import rv.world.rendering.SceneRenderer;
+
+/**
+ * Draws a world other than the one of the viewer (e.g. one replaying a log for an export) into a
+ * frame buffer object. It has its own scene and shadow renderers, so it can run on another thread
+ * in a context that shares the objects of the viewer's context. Bloom and the 2D interface are not
+ * applied.
+ */
+public class OffscreenRenderer
+{
+	private final Configuration.Graphics graphics;
+	private EffectManager effectManager;
+	private SceneRenderer sceneRenderer;
+
+	public OffscreenRenderer(Configuration.Graphics graphics)
+	{
+		this.graphics = graphics;
+	}
+
+	public void init(GL2 gl, ContentManager cm, boolean useInstancing)
+	{
+		effectManager = new EffectManager();
+		effectManager.initShadows(gl, graphics, cm, useInstancing);
+		sceneRenderer = Renderer.createSceneRenderer(gl, graphics, cm, effectManager, useInstancing);
+	}
+
+	/** Draws the world into the target, which is left bound so that its pixels can be read */
+	public void render(GL2 gl, WorldModel world, Drawings drawings, Camera3D camera, FrameBufferObject target)
+	{
+		if (effectManager.getShadowRenderer() != null)
+			effectManager.getShadowRenderer().render(gl, world, drawings);
+
+		Texture2D color = target.getColorTexture(0);
+		target.bind(gl);
+		target.clear(gl);
+		target.setViewport(gl);
+		camera.apply(gl, Renderer.glu, new Viewport(0, 0, color.getWidth(), color.getHeight()));
+		sceneRenderer.render(gl, world, drawings);
+	}
+
+	public void dispose(GL gl)
+	{
+		if (effectManager != null)
+			effectManager.dispose(gl);
+		if (sceneRenderer != null)
+			sceneRenderer.dispose(gl);
+	}
+}
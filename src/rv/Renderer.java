@@ -31,7 +31,13 @@ import rv.Viewer.WindowResizeEvent;
 import rv.Viewer.WindowResizeListener;
 import rv.content.ContentManager;
 import rv.effects.EffectManager;
+import rv.util.jogl.GPUTimer;
+import rv.util.metrics.Histogram;
+import rv.util.metrics.Metrics;
+import rv.util.metrics.TraceEvent;
 import rv.world.rendering.BasicSceneRenderer;
+import rv.world.rendering.InstancedPhongWorldRenderer;
+import rv.world.rendering.InstancedVSMPhongWorldRenderer;
 import rv.world.rendering.PhongWorldRenderer;
 import rv.world.rendering.SceneRenderer;
 import rv.world.rendering.ShadowMapRenderer;
@@ -46,11 +52,28 @@ public class Renderer implements WindowResizeListener
 {
 	public static final GLU glu = new GLU();
 	public static final GLUT glut = new GLUT();
+
+	// CPU time of issuing the GL commands of each pass, which the driver may execute later
+	private static final Histogram SHADOW_TIME = Metrics.histogram("submit.shadows");
+	private static final Histogram SCENE_TIME = Metrics.histogram("submit.scene");
+	private static final Histogram BLOOM_TIME = Metrics.histogram("submit.bloom");
+	private static final Histogram UI_TIME = Metrics.histogram("submit.ui");
+	private static final Histogram FRAME_TIME = Metrics.histogram("submit.frame");
+	// time the GPU takes to execute each pass, measured if timer queries are supported
+	private static final Histogram SHADOW_GPU_TIME = Metrics.histogram("gpu.shadows");
+	private static final Histogram SCENE_GPU_TIME = Metrics.histogram("gpu.scene");
+	private static final Histogram BLOOM_GPU_TIME = Metrics.histogram("gpu.bloom");
+	private static final Histogram UI_GPU_TIME = Metrics.histogram("gpu.ui");
+	private static final Histogram FRAME_GPU_TIME = Metrics.histogram("gpu.frame");
+	private static final TraceEvent PASS_EVENT = new TraceEvent("rv.RenderPass", "Render Pass",
+			"Issuing the GL commands of a render pass", new TraceEvent.Field(String.class, "pass", "Pass"));
+
 	private FrameBufferObject sceneFBO;
 	private EffectManager effectManager;
 	private final Viewer viewer;
 	private final Configuration.Graphics graphics;
 	private SceneRenderer sceneRenderer;
+	private GPUTimer gpuTimer;
 	private Camera3D vantage;
 
 	// this FBO is only used if bloom and FSAA are enabled at the same time
@@ -103,9 +126,11 @@ public class Renderer implements WindowResizeListener
 			genFBO(drawable.getGL().getGL2(), viewer.getScreen());
 		}
 
-		selectRenderer(drawable.getGL().getGL2(), cm);
+		sceneRenderer = createSceneRenderer(
+				drawable.getGL().getGL2(), graphics, cm, effectManager, viewer.isInstancingEnabled());
 
 		drawable.getGL().setSwapInterval(viewer.getConfig().graphics.useVsync ? 1 : 0);
+		gpuTimer = GPUTimer.create(drawable.getGL().getGL2(), FRAME_GPU_TIME);
 
 		vantage = viewer.getUI().getCamera();
 	}
@@ -113,11 +138,17 @@ public class Renderer implements WindowResizeListener
 	/**
 	 * Find best match for world renderer given user's graphics configuration
 	 */
-	private void selectRenderer(GL2 gl, ContentManager cm)
+	static SceneRenderer createSceneRenderer(
+			GL2 gl, Configuration.Graphics graphics, ContentManager cm, EffectManager effects, boolean useInstancing)
 	{
+		SceneRenderer sceneRenderer = null;
 		while (sceneRenderer == null) {
-			if (graphics.useShadows)
-				sceneRenderer = new VSMPhongWorldRenderer(effectManager);
+			if (graphics.useShadows && useInstancing)
+				sceneRenderer = new InstancedVSMPhongWorldRenderer(effects);
+			else if (graphics.useShadows)
+				sceneRenderer = new VSMPhongWorldRenderer(effects);
+			else if (graphics.usePhong && useInstancing)
+				sceneRenderer = new InstancedPhongWorldRenderer();
 			else if (graphics.usePhong)
 				sceneRenderer = new PhongWorldRenderer();
 			else
@@ -125,9 +156,14 @@ public class Renderer implements WindowResizeListener
 
 			if (!sceneRenderer.init(gl, graphics, cm)) {
 				System.err.println("Could not initialize " + sceneRenderer);
+				// without instancing support, fall back to drawing meshes one by one
+				if (sceneRenderer instanceof InstancedPhongWorldRenderer
+						|| sceneRenderer instanceof InstancedVSMPhongWorldRenderer)
+					useInstancing = false;
 				sceneRenderer = null;
 			}
 		}
+		return sceneRenderer;
 	}
 
 	private void genFBO(GL2 gl, Viewport vp)
@@ -143,10 +179,16 @@ public class Renderer implements WindowResizeListener
 	public void render(GLAutoDrawable drawable, Configuration.Graphics config)
 	{
 		GL2 gl = drawable.getGL().getGL2();
+		long frameStart = System.nanoTime();
+		if (gpuTimer != null)
+			gpuTimer.beginFrame(gl);
 
 		if (config.useShadows) {
+			long start = System.nanoTime();
+			Object event = beginPass(gl);
 			ShadowMapRenderer shadowRenderer = effectManager.getShadowRenderer();
 			shadowRenderer.render(gl, viewer.getWorldModel(), viewer.getDrawings());
+			endPass(gl, SHADOW_TIME, SHADOW_GPU_TIME, start, event, "shadows");
 		}
 
 		if (graphics.useStereo) {
@@ -161,7 +203,7 @@ public class Renderer implements WindowResizeListener
 			drawScene(gl);
 
 			gl.glDrawBuffer(GL.GL_BACK);
-			viewer.getUI().render(gl, glu, glut);
+			renderUI(gl);
 		} else {
 			gl.glDrawBuffer(GL.GL_BACK);
 			gl.glClear(GL.GL_COLOR_BUFFER_BIT | GL.GL_DEPTH_BUFFER_BIT);
@@ -170,12 +212,39 @@ public class Renderer implements WindowResizeListener
 
 			drawScene(gl);
 
-			viewer.getUI().render(gl, glu, glut);
+			renderUI(gl);
 		}
+		FRAME_TIME.recordSince(frameStart);
+	}
+
+	private void renderUI(GL2 gl)
+	{
+		long start = System.nanoTime();
+		Object event = beginPass(gl);
+		viewer.getUI().render(gl, glu, glut);
+		endPass(gl, UI_TIME, UI_GPU_TIME, start, event, "ui");
+	}
+
+	private Object beginPass(GL2 gl)
+	{
+		if (gpuTimer != null)
+			gpuTimer.beginPass(gl);
+		return PASS_EVENT.begin();
+	}
+
+	private void endPass(GL2 gl, Histogram time, Histogram gpuTime, long start, Object event, String pass)
+	{
+		if (gpuTimer != null)
+			gpuTimer.endPass(gl, gpuTime);
+		time.recordSince(start);
+		if (event != null)
+			PASS_EVENT.commit(event, pass);
 	}
 
 	private void drawScene(GL2 gl)
 	{
+		long start = System.nanoTime();
+		Object event = beginPass(gl);
 		if (graphics.useBloom) {
 			if (msSceneFBO != null) {
 				msSceneFBO.bind(gl);
@@ -196,8 +265,11 @@ public class Renderer implements WindowResizeListener
 				sceneRenderer.render(gl, viewer.getWorldModel(), viewer.getDrawings());
 				sceneFBO.unbind(gl);
 			}
+			endPass(gl, SCENE_TIME, SCENE_GPU_TIME, start, event, "scene");
 
 			// post processing
+			start = System.nanoTime();
+			event = beginPass(gl);
 			gl.glDisable(GLLightingFunc.GL_LIGHTING);
 			gl.glEnable(GL.GL_TEXTURE_2D);
 			Texture2D output = effectManager.getBloom().process(gl, sceneFBO.getColorTexture(0));
@@ -208,14 +280,18 @@ public class Renderer implements WindowResizeListener
 			output.bind(gl);
 			EffectManager.renderScreenQuad(gl);
 			Texture2D.unbind(gl);
+			endPass(gl, BLOOM_TIME, BLOOM_GPU_TIME, start, event, "bloom");
 		} else {
 			viewer.getScreen().apply(gl);
 			sceneRenderer.render(gl, viewer.getWorldModel(), viewer.getDrawings());
+			endPass(gl, SCENE_TIME, SCENE_GPU_TIME, start, event, "scene");
 		}
 	}
 
 	public void dispose(GL gl)
 	{
+		if (gpuTimer != null)
+			gpuTimer.dispose(gl);
 		if (effectManager != null)
 			effectManager.dispose(gl);
 		if (sceneFBO != null)
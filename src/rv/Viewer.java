@@ -16,7 +16,8 @@
 
 package rv;
 
-import java.awt.image.BufferedImage;
+import java.awt.AWTEvent;
+import java.awt.Toolkit;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -24,7 +25,8 @@ import java.util.Calendar;
 import java.util.EventObject;
 import java.util.List;
 import java.util.Locale;
-import javax.imageio.ImageIO;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import javax.media.opengl.GL;
 import javax.media.opengl.GL2;
 import javax.media.opengl.GLAutoDrawable;
@@ -37,10 +39,11 @@ import com.jogamp.newt.event.KeyListener;
 import com.jogamp.newt.event.MouseListener;
 import com.jogamp.newt.event.awt.AWTKeyAdapter;
 import com.jogamp.newt.event.awt.AWTMouseAdapter;
-import com.jogamp.opengl.util.awt.Screenshot;
 import js.jogl.GLInfo;
 import js.jogl.prog.GLProgram;
+import js.jogl.view.Camera3D;
 import js.jogl.view.Viewport;
+import js.math.vector.Vec3f;
 import rv.comm.NetworkManager;
 import rv.comm.drawing.Drawings;
 import rv.comm.rcssserver.LogPlayer;
@@ -49,8 +52,13 @@ import rv.comm.rcssserver.scenegraph.SceneGraph;
 import rv.content.ContentManager;
 import rv.ui.UserInterface;
 import rv.ui.menus.MenuBar;
+import rv.util.jogl.FrameCapture;
+import rv.util.metrics.Histogram;
+import rv.util.metrics.Metrics;
 import rv.util.swing.SwingUtil;
 import rv.world.WorldModel;
+import rv.world.WorldSnapshot;
+import rv.world.rendering.RenderList;
 
 /**
  *
@@ -61,6 +69,17 @@ abstract public class Viewer
 {
 	private static final String VERSION = "1.6.1";
 
+	/** longest time between two rendered frames while nothing changes */
+	private static final long KEEP_ALIVE_MS = 1000;
+	/** how long frames are rendered after user input, which may trigger changes that aren't tracked */
+	private static final long INPUT_SETTLE_MS = 1000;
+	private static final long INPUT_EVENTS = AWTEvent.KEY_EVENT_MASK | AWTEvent.MOUSE_EVENT_MASK
+			| AWTEvent.MOUSE_MOTION_EVENT_MASK | AWTEvent.MOUSE_WHEEL_EVENT_MASK | AWTEvent.WINDOW_EVENT_MASK
+			| AWTEvent.COMPONENT_EVENT_MASK;
+	/** captured frames that may wait for encoding before rendering has to wait for the encoders */
+	private static final int MAX_CAPTURED_FRAMES = 16;
+	private static final Histogram UPDATE_TIME = Metrics.histogram("viewer.update");
+
 	public enum Mode {
 		LOGFILE,
 		LIVE,
@@ -109,9 +128,25 @@ abstract public class Viewer
 	protected boolean fullscreen = false;
 	protected GLInfo glInfo;
 	protected final Configuration config;
-	protected String ssName = null;
+	protected volatile String ssName = null;
+	/** directory of the image sequence that is being captured, or null */
+	protected volatile File captureDir = null;
+	/** number of frames captured to {@link #captureDir}, reset by the UI thread */
+	protected volatile int capturedFrameCount;
+	protected FrameCapture frameCapture;
+	protected volatile LogExporter.Settings pendingExport;
+	protected LogExporter exporter;
+	/** held while the GL thread uses the content that a log export renders with */
+	protected final ReentrantLock renderLock = new ReentrantLock(true);
 	protected File logFile;
 	protected String drawingFilter;
+	protected int drawingLimit = 0;
+	protected boolean dropDrawingsOverLimit = false;
+	protected boolean interpolateTransforms = true;
+	protected boolean useInstancing = true;
+	protected int lowDetailAngle = RenderList.DEFAULT_LOW_DETAIL_ANGLE;
+	protected boolean alwaysRender = false;
+	protected final FrameScheduler frameScheduler = new FrameScheduler(KEEP_ALIVE_MS);
 	protected Mode mode = Mode.LIVE;
 
 	public LogPlayer getLogPlayer()
@@ -159,6 +194,11 @@ abstract public class Viewer
 		return drawings;
 	}
 
+	public ContentManager getContentManager()
+	{
+		return contentManager;
+	}
+
 	abstract public JFrame getFrame();
 
 	public void addWindowResizeListener(WindowResizeListener l)
@@ -176,6 +216,18 @@ abstract public class Viewer
 		return renderer;
 	}
 
+	/** Whether robots may be drawn with instanced draw calls if the graphics card supports it */
+	public boolean isInstancingEnabled()
+	{
+		return useInstancing;
+	}
+
+	/** Decides which frames are rendered and counts rendered and skipped frames */
+	public FrameScheduler getFrameScheduler()
+	{
+		return frameScheduler;
+	}
+
 	public Viewer(Configuration config, int w, int h)
 	{
 		super(w, h);
@@ -202,8 +254,14 @@ abstract public class Viewer
 		if (!init) { // print OpenGL renderer info
 			glInfo = new GLInfo(drawable.getGL());
 			glInfo.print();
+			initFrameScheduler();
+			Metrics.monitorGarbageCollection();
 		}
 
+		// buffers are only swapped for frames that are actually rendered
+		drawable.setAutoSwapBufferMode(false);
+		frameScheduler.markDirty();
+
 		// initialize / load content
 		contentManager = new ContentManager(config.teamColors);
 		if (!contentManager.init(drawable, glInfo)) {
@@ -215,7 +273,10 @@ abstract public class Viewer
 			oldSceneGraph = world.getSceneGraph();
 		world = new WorldModel();
 		world.init(drawable.getGL(), contentManager, config, mode);
+		world.setInterpolateTransforms(interpolateTransforms);
+		world.setLowDetailAngle(lowDetailAngle);
 		drawings = new Drawings();
+		drawings.setLimit(drawingLimit, dropDrawingsOverLimit);
 		ui = new UserInterface(this, drawingFilter);
 
 		if (mode == Mode.LIVE) {
@@ -235,6 +296,7 @@ abstract public class Viewer
 		ui.init();
 		renderer = new Renderer(this);
 		renderer.init(drawable, contentManager, glInfo);
+		frameCapture = new FrameCapture(gl, MAX_CAPTURED_FRAMES);
 
 		if (init && oldSceneGraph != null)
 			world.setSceneGraph(oldSceneGraph);
@@ -244,6 +306,19 @@ abstract public class Viewer
 		init = true;
 	}
 
+	private void initFrameScheduler()
+	{
+		frameScheduler.setAlwaysRender(alwaysRender);
+		try {
+			// input anywhere in the application (camera controls, menus, panels) may change the frame
+			Toolkit.getDefaultToolkit().addAWTEventListener(
+					e -> frameScheduler.keepRendering(INPUT_SETTLE_MS), INPUT_EVENTS);
+		} catch (SecurityException e) {
+			System.err.println("Can't listen to input events, rendering every frame");
+			frameScheduler.setAlwaysRender(true);
+		}
+	}
+
 	public void addKeyListener(KeyListener l)
 	{
 		(new AWTKeyAdapter(l)).addTo(canvas);
@@ -254,27 +329,107 @@ abstract public class Viewer
 		(new AWTMouseAdapter(l)).addTo(canvas);
 	}
 
-	public void takeScreenShot()
+	/** Current date and time for file names */
+	public static String getTimestamp()
 	{
 		String s = Calendar.getInstance().getTime().toString();
-		s = s.replaceAll("[\\s:]+", "_");
-		ssName = String.format(Locale.US, "screenshots/%s_%s.png", "roboviz", s);
+		return s.replaceAll("[\\s:]+", "_");
+	}
+
+	public void takeScreenShot()
+	{
+		ssName = String.format(Locale.US, "screenshots/%s_%s.png", "roboviz", getTimestamp());
+		frameScheduler.markDirty();
 	}
 
-	private void takeScreenshot(String fileName)
+	/**
+	 * Starts or stops capturing every frame to a numbered image sequence in a new directory below
+	 * screenshots/
+	 */
+	public void toggleFrameCapture()
 	{
-		BufferedImage ss = Screenshot.readToBufferedImage(0, 0, screen.w, screen.h, false);
-		File ssFile = new File(fileName);
-		File ssDir = new File("screenshots");
+		if (captureDir == null) {
+			capturedFrameCount = 0;
+			captureDir = new File(String.format(Locale.US, "screenshots/%s_%s", "roboviz", getTimestamp()));
+			System.out.println("Capturing frames to " + captureDir.getAbsolutePath());
+		} else {
+			System.out.println("Stopped capturing frames to " + captureDir.getAbsolutePath());
+			captureDir = null;
+		}
+	}
+
+	public boolean isCapturingFrames()
+	{
+		return captureDir != null;
+	}
+
+	/** Writes the totals of all performance metrics to a JSON file below metrics/ */
+	public void dumpMetrics()
+	{
+		File file = new File(String.format(Locale.US, "metrics/%s_%s.json", "roboviz", getTimestamp()));
 		try {
-			if (!ssDir.exists())
-				ssDir.mkdir();
-			ImageIO.write(ss, "png", ssFile);
+			Metrics.writeJson(file);
+			System.out.println("Metrics written to " + file.getAbsolutePath());
 		} catch (IOException e) {
-			e.printStackTrace();
+			System.err.println("Failed to write metrics: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Starts exporting a range of a logfile, which runs on a thread of its own. If an export is
+	 * running, it starts once that one is finished.
+	 */
+	public void startExport(LogExporter.Settings settings)
+	{
+		pendingExport = settings;
+	}
+
+	/** Whether an export is running or about to start */
+	public boolean isExporting()
+	{
+		return exporter != null || pendingExport != null;
+	}
+
+	/**
+	 * Lock that the viewer holds while it updates the content and renders, so that a log export
+	 * rendering on another thread with the same content waits for it
+	 */
+	public Lock getRenderLock()
+	{
+		return renderLock;
+	}
+
+	/** Removes a finished export and starts a requested one */
+	private void updateExport()
+	{
+		if (exporter != null && exporter.isFinished())
+			exporter = null;
+
+		LogExporter.Settings settings = pendingExport;
+		if (settings != null && exporter == null) {
+			pendingExport = null;
+			exporter = new LogExporter(this, settings, logPlayer.getSecondsPerFrame(), drawable.getContext());
+			exporter.start();
+		}
+	}
+
+	/** Starts reading back the rendered frame for the pending screenshot and the frame sequence */
+	private void captureFrame(GL2 gl)
+	{
+		String ssName = this.ssName;
+		if (ssName != null) {
+			this.ssName = null;
+			File ssFile = new File(ssName);
+			frameCapture.capture(gl, 0, 0, screen.w, screen.h, ssFile,
+					() -> System.out.println("Screenshot taken: " + ssFile.getAbsolutePath()));
 		}
 
-		System.out.println("Screenshot taken: " + ssFile.getAbsolutePath());
+		File captureDir = this.captureDir;
+		if (captureDir != null) {
+			int frame = capturedFrameCount++;
+			File file = new File(captureDir, String.format(Locale.US, "frame_%06d.png", frame));
+			frameCapture.capture(gl, 0, 0, screen.w, screen.h, file);
+		}
 	}
 
 	/** Enter or exit full-screen exclusive mode depending on current mode */
@@ -291,11 +446,19 @@ abstract public class Viewer
 		if (!init)
 			return;
 
+		long startTime = System.nanoTime();
 		GL2 gl = glGeneric.getGL2();
-		contentManager.update(gl);
-		ui.update(gl, elapsedMS);
-		world.update(gl, elapsedMS, ui);
-		drawings.update();
+		renderLock.lock();
+		try {
+			contentManager.update(gl);
+			world.beginFrame();
+			ui.update(gl, elapsedMS);
+			world.update(gl, elapsedMS, ui);
+			drawings.update();
+		} finally {
+			renderLock.unlock();
+		}
+		UPDATE_TIME.recordSince(startTime);
 	}
 
 	@Override
@@ -305,10 +468,15 @@ abstract public class Viewer
 
 		if (netManager != null)
 			netManager.shutdown();
+		// the export renders with a context that shares this one
+		if (exporter != null)
+			exporter.cancel();
 		if (world != null)
 			world.dispose(gl);
 		if (renderer != null)
 			renderer.dispose(gl);
+		if (frameCapture != null)
+			frameCapture.dispose(gl.getGL2());
 		if (contentManager != null)
 			contentManager.dispose(gl);
 	}
@@ -317,6 +485,7 @@ abstract public class Viewer
 	public void reshape(GLAutoDrawable drawable, int x, int y, int w, int h)
 	{
 		super.reshape(drawable, x, y, w, h);
+		frameScheduler.markDirty();
 
 		WindowResizeEvent event = new WindowResizeEvent(this, screen);
 		for (WindowResizeListener l : windowResizeListeners)
@@ -329,12 +498,53 @@ abstract public class Viewer
 		if (!init)
 			return;
 
-		if (ssName != null) {
-			takeScreenshot(ssName);
-			ssName = null;
+		// pixels read back in the previous frame have arrived by now
+		GL2 gl2 = gl.getGL2();
+		frameCapture.update(gl2);
+		if (logPlayer != null)
+			updateExport();
+
+		// image sequences get every frame, so that they play back at the frame rate
+		if (captureDir != null)
+			frameScheduler.markDirty();
+
+		if (scheduleFrame()) {
+			renderLock.lock();
+			try {
+				renderer.render(drawable, config.graphics);
+			} finally {
+				renderLock.unlock();
+			}
+			captureFrame(gl2);
+			drawable.swapBuffers();
 		}
+		world.prepareNextFrame();
+	}
 
-		renderer.render(drawable, config.graphics);
+	/** Reports the state of everything that is drawn to the frame scheduler and asks it for a frame */
+	private boolean scheduleFrame()
+	{
+		WorldSnapshot snapshot = world.getFrameSnapshot();
+		RenderList list = world.getRenderList();
+		long worldState = 31 * (31 * snapshot.getStateHash() + list.getStaticHash()) + list.getDynamicHash();
+		worldState = 31 * worldState + (world.getField().getModel().isLoaded() ? 1 : 0);
+		frameScheduler.track(FrameScheduler.Source.WORLD, worldState);
+		frameScheduler.track(FrameScheduler.Source.DRAWINGS, drawings.getVersion());
+
+		Camera3D camera = ui.getCamera();
+		Vec3f position = camera.getPosition();
+		Vec3f forward = camera.getForward();
+		long cameraState = Float.floatToIntBits(camera.getFOVY());
+		cameraState = 31 * (31 * (31 * cameraState + Float.floatToIntBits(position.x))
+				+ Float.floatToIntBits(position.y)) + Float.floatToIntBits(position.z);
+		cameraState = 31 * (31 * (31 * cameraState + Float.floatToIntBits(forward.x))
+				+ Float.floatToIntBits(forward.y)) + Float.floatToIntBits(forward.z);
+		frameScheduler.track(FrameScheduler.Source.CAMERA, cameraState);
+
+		frameScheduler.track(FrameScheduler.Source.SELECTION, System.identityHashCode(world.getSelectedObject()));
+		frameScheduler.track(FrameScheduler.Source.CONTENT, contentManager.getInitializedModelCount());
+
+		return frameScheduler.shouldRender(world.isAnimating() || ui.isAnimating());
 	}
 
 	@Override
@@ -40,6 +40,7 @@ import rv.util.commandline.Argument;
 import rv.util.commandline.BooleanArgument;
 import rv.util.commandline.IntegerArgument;
 import rv.util.commandline.StringArgument;
+import rv.world.rendering.RenderList;
 
 /**
  * Program entry point / main class. Creates a window and delegates OpenGL rendering the Renderer
@@ -82,11 +83,28 @@ public class ViewerFrame
 		StringArgument serverHostArgument = new StringArgument("serverHost", null);
 		IntegerArgument serverPortArgument = new IntegerArgument("serverPort", null, 1, 65535);
 		StringArgument drawingFilterArgument = new StringArgument("drawingFilter", ".*");
+		IntegerArgument drawingStreamPortArgument = new IntegerArgument("drawingStreamPort", null, 0, 65535);
+		StringArgument drawingSocketArgument = new StringArgument("drawingSocket", null);
+		IntegerArgument drawingLimitArgument = new IntegerArgument("drawingLimit", 0, 0);
+		BooleanArgument drawingLimitDropArgument = new BooleanArgument("drawingLimitDrop");
+		BooleanArgument noInterpolationArgument = new BooleanArgument("noInterpolation");
+		BooleanArgument noInstancingArgument = new BooleanArgument("noInstancing");
+		IntegerArgument lowDetailAngleArgument =
+				new IntegerArgument("lowDetailAngle", RenderList.DEFAULT_LOW_DETAIL_ANGLE, 0);
+		BooleanArgument alwaysRenderArgument = new BooleanArgument("alwaysRender");
 
 		handleLogModeArgs(logFileArgument.parse(args), logModeArgument.parse(args));
 		config.networking.overrideServerHost(serverHostArgument.parse(args));
 		config.networking.overrideServerPort(serverPortArgument.parse(args));
 		drawingFilter = drawingFilterArgument.parse(args);
+		config.networking.overrideDrawingStreamPort(drawingStreamPortArgument.parse(args));
+		config.networking.drawingSocketPath = drawingSocketArgument.parse(args);
+		drawingLimit = drawingLimitArgument.parse(args);
+		dropDrawingsOverLimit = drawingLimitDropArgument.parse(args);
+		interpolateTransforms = !noInterpolationArgument.parse(args);
+		useInstancing = !noInstancingArgument.parse(args);
+		lowDetailAngle = lowDetailAngleArgument.parse(args);
+		alwaysRender = alwaysRenderArgument.parse(args);
 		Argument.endParse(args);
 	}
 
@@ -45,7 +45,7 @@ public class NetworkManager
 	public void init(Viewer viewer, Configuration config)
 	{
 		try {
-			agentComm = new DrawComm(viewer, config.networking.listenPort);
+			agentComm = new DrawComm(viewer, config.networking);
 		} catch (SocketException e) {
 			e.printStackTrace();
 		}
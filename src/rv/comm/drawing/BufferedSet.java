@@ -17,22 +17,27 @@
 package rv.comm.drawing;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Contains two buffers of the same data type that can be used for asynchronous reading and writing
- * of data
+ * of data. Any number of threads may put data into the back buffer; swapping publishes it as an
+ * immutable front buffer which readers access without locking.
  *
  * @author justin
  */
 public class BufferedSet<T> implements VisibleNamedObject
 {
-	private boolean visible = true;
+	private volatile boolean visible = true;
 	private final String name;
-	private int frontBuf = 0;
-	private int backBuf = 1;
-
-	@SuppressWarnings("unchecked")
-	private final ArrayList<T>[] buffers = new ArrayList[2];
+	private volatile List<T> front = Collections.emptyList();
+	private ArrayList<T> back = new ArrayList<>();
+	private int limit = 0;
+	private boolean dropWhenOverLimit = false;
+	private int rejected = 0;
+	private volatile int lastSwapSize = 0;
+	private volatile int lastSwapDropped = 0;
 
 	public boolean isVisible()
 	{
@@ -49,45 +54,79 @@ public class BufferedSet<T> implements VisibleNamedObject
 		return name;
 	}
 
-	public BufferedSet(String name)
+	/** Number of items that were put into the back buffer before the last swap */
+	public int getLastSwapSize()
 	{
-		this.name = name;
-		buffers[0] = new ArrayList<>();
-		buffers[1] = new ArrayList<>();
+		return lastSwapSize;
+	}
+
+	/** Number of items that were discarded because of the limit at the last swap */
+	public int getLastSwapDropped()
+	{
+		return lastSwapDropped;
 	}
 
 	/**
-	 * Gets a copy of the set of data stored in the front buffer
+	 * Limits the number of items per swap.
+	 *
+	 * @param limit
+	 *            - maximum number of items in the back buffer, 0 for no limit
+	 * @param dropWhenOverLimit
+	 *            - whether the whole buffer is discarded on swap if the limit was exceeded instead of
+	 *            keeping the first items up to the limit
 	 */
-	public synchronized ArrayList<T> getFrontSet()
+	public synchronized void setLimit(int limit, boolean dropWhenOverLimit)
 	{
-		// a copy is made because we don't want to return a reference to the
-		// current front buffer; this buffer may be swapped while the thread
-		// is still using the shapes in it (such as rendering).
-		ArrayList<T> set = buffers[frontBuf];
-		ArrayList<T> setCopy = new ArrayList<>(set.size());
-		setCopy.addAll(set);
+		this.limit = limit;
+		this.dropWhenOverLimit = dropWhenOverLimit;
+	}
 
-		return setCopy;
+	public BufferedSet(String name)
+	{
+		this.name = name;
 	}
 
 	/**
-	 * Adds data to the back buffer set. This method is not synchronized as the only thread that
-	 * should be using it is the one that is also responsible for swapping the buffers.
+	 * Gets the data stored in the front buffer. The returned list is never modified after it has been
+	 * published, so it can safely be used while the buffers are swapped (such as rendering).
 	 */
-	public void put(T data)
+	public List<T> getFrontSet()
+	{
+		return front;
+	}
+
+	/** Adds data to the back buffer set */
+	public synchronized void put(T data)
 	{
-		buffers[backBuf].add(data);
+		if (limit > 0 && back.size() >= limit) {
+			rejected++;
+			return;
+		}
+		back.add(data);
 	}
 
 	/**
-	 * Swaps the front and back buffers and clears the new back buffer.
+	 * Publishes the back buffer as the new front buffer and starts a new back buffer.
 	 */
 	public synchronized void swapBuffers()
 	{
-		int temp = backBuf;
-		backBuf = frontBuf;
-		frontBuf = temp;
-		buffers[backBuf].clear();
+		int size = back.size();
+		lastSwapSize = size + rejected;
+		lastSwapDropped = rejected;
+		if (rejected > 0 && dropWhenOverLimit) {
+			back.clear();
+			lastSwapDropped = lastSwapSize;
+		}
+		rejected = 0;
+
+		front = Collections.unmodifiableList(back);
+		published(front);
+		// the old front buffer may still be in use by readers, so it can't be recycled
+		back = new ArrayList<>(Math.max(size, 10));
+	}
+
+	/** Called after a swap with the newly published front buffer */
+	protected void published(List<T> front)
+	{
 	}
 }
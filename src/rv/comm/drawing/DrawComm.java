@@ -16,21 +16,46 @@
 
 package rv.comm.drawing;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
 import java.net.BindException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
 import java.net.SocketException;
+import java.net.StandardProtocolFamily;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import js.io.ByteUtil;
+import rv.Configuration;
 import rv.Viewer;
 import rv.comm.drawing.commands.Command;
 import rv.ui.DebugInfo;
+import rv.util.metrics.Counter;
+import rv.util.metrics.Histogram;
+import rv.util.metrics.Metrics;
+import rv.util.metrics.TraceEvent;
 
 /**
- * Communication interface between clients sending draw commands and RoboViz
+ * Communication interface between clients sending draw commands and RoboViz. Draw commands are
+ * accepted as UDP packets, and as length-framed batches over a local TCP port and an optional Unix
+ * domain socket. Each frame of a stream is prefixed by its size in bytes as a 4-byte big-endian
+ * integer, followed by the same command bytes a UDP packet would contain.
  *
  * @author Justin Stoecker
  */
@@ -39,9 +64,14 @@ public class DrawComm
 	/** Receives UDP packets */
 	private class ReceiveThread extends Thread
 	{
-		private static final int BUFFER_SIZE = 512;
+		/** maximum payload of a UDP datagram */
+		private static final int BUFFER_SIZE = 65507;
+		/** most sender addresses whose source names are kept */
+		private static final int MAX_SOURCES = 256;
 		private DatagramSocket socket = null;
 		private volatile boolean running = true;
+		/** source names of the sender addresses, so they aren't built for every packet */
+		private final Map<SocketAddress, String> sources = new HashMap<>();
 
 		public ReceiveThread(int port) throws SocketException
 		{
@@ -58,12 +88,14 @@ public class DrawComm
 		@Override
 		public void run()
 		{
+			byte[] buf = new byte[BUFFER_SIZE];
+			DatagramPacket packet = new DatagramPacket(buf, buf.length);
 			while (running) {
 				try {
-					byte[] buf = new byte[BUFFER_SIZE];
-					DatagramPacket packet = new DatagramPacket(buf, buf.length);
+					packet.setLength(buf.length);
 					socket.receive(packet);
-					handle(packet);
+					handle(packet.getData(), packet.getOffset(), packet.getLength(),
+							getSource(packet.getSocketAddress()));
 				} catch (IOException e) {
 					// only if we're still running; otherwise we would produce
 					// print outs when we're "enforcing" shutdown!
@@ -75,17 +107,182 @@ public class DrawComm
 			if (socket != null)
 				socket.close();
 		}
+
+		private String getSource(SocketAddress address)
+		{
+			String source = sources.get(address);
+			if (source == null) {
+				if (sources.size() >= MAX_SOURCES)
+					sources.clear();
+				source = "udp " + address;
+				sources.put(address, source);
+			}
+			return source;
+		}
+
+		public void shutdown()
+		{
+			running = false;
+			// enforce closing, otherwise it gets blocked by "receive()"!
+			if (socket != null)
+				socket.close();
+		}
+	}
+
+	/** Accepts stream connections from a TCP port or a Unix domain socket */
+	private class StreamListenThread extends Thread
+	{
+		/** longest wait before accepting again after a failure */
+		private static final long MAX_RETRY_DELAY_MS = 1000;
+		private final ServerSocketChannel channel;
+		private final Path socketFile;
+		private volatile boolean running = true;
+		private int accepted = 0;
+
+		public StreamListenThread(ServerSocketChannel channel, Path socketFile)
+		{
+			this.channel = channel;
+			this.socketFile = socketFile;
+		}
+
+		@Override
+		public void run()
+		{
+			long retryDelay = 0;
+			while (running) {
+				try {
+					SocketChannel client = channel.accept();
+					String source = socketFile != null ? "unix " + socketFile.getFileName() + " #" + ++accepted
+													   : "tcp " + client.getRemoteAddress();
+					StreamReceiveThread connection = new StreamReceiveThread(client, source);
+					connections.add(connection);
+					connection.start();
+					retryDelay = 0;
+				} catch (ClosedChannelException e) {
+					// also thrown by "accept()" when the channel is closed by "shutdown()"
+					break;
+				} catch (IOException e) {
+					if (!running || !channel.isOpen())
+						break;
+					// a persistent error (e.g. too many open files) is reported once and retried
+					// with increasing delays until it goes away
+					if (retryDelay == 0)
+						DebugInfo.println(getClass(), "Unable to accept draw stream connections - " + e);
+					retryDelay = Math.min(MAX_RETRY_DELAY_MS, Math.max(10, retryDelay * 2));
+					try {
+						Thread.sleep(retryDelay);
+					} catch (InterruptedException ex) {
+						break;
+					}
+				}
+			}
+		}
+
+		public void shutdown()
+		{
+			running = false;
+			try {
+				// closing the channel also unblocks "accept()"
+				channel.close();
+				if (socketFile != null)
+					Files.deleteIfExists(socketFile);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/** Receives length-framed draw command batches from a single stream connection */
+	private class StreamReceiveThread extends Thread
+	{
+		/** upper bound for a single frame, larger sizes are treated as a corrupt stream */
+		private static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+		private final SocketChannel channel;
+		private final String source;
+		private final ByteBuffer header = ByteBuffer.allocate(4);
+		private ByteBuffer frame = ByteBuffer.allocate(ReceiveThread.BUFFER_SIZE);
+		private volatile boolean running = true;
+
+		public StreamReceiveThread(SocketChannel channel, String source)
+		{
+			this.channel = channel;
+			this.source = source;
+		}
+
+		@Override
+		public void run()
+		{
+			try {
+				while (running) {
+					header.clear();
+					readFully(header);
+					int length = header.getInt(0);
+					if (length < 0 || length > MAX_FRAME_SIZE) {
+						DebugInfo.println(getClass(), "Invalid drawing frame size " + length + ", closing connection");
+						break;
+					}
+
+					if (frame.capacity() < length)
+						frame = ByteBuffer.allocate(length);
+					frame.clear();
+					frame.limit(length);
+					readFully(frame);
+					handle(frame.array(), 0, length, source);
+				}
+			} catch (EOFException e) {
+				// client closed the connection
+			} catch (IOException e) {
+				if (running) {
+					e.printStackTrace();
+				}
+			} finally {
+				close();
+				connections.remove(this);
+				viewer.getDrawings().removeTrafficStats(source);
+			}
+		}
+
+		private void readFully(ByteBuffer buf) throws IOException
+		{
+			while (buf.hasRemaining()) {
+				if (channel.read(buf) < 0)
+					throw new EOFException();
+			}
+		}
+
+		private void close()
+		{
+			try {
+				channel.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		public void shutdown()
+		{
+			running = false;
+			close();
+		}
 	}
 
 	public interface DrawCommListener {
 		void drawCommandReceived(byte[] command);
 	}
 
-	private final List<DrawCommListener> listeners = new ArrayList<>();
+	private final List<DrawCommListener> listeners = new CopyOnWriteArrayList<>();
 
 	private final static boolean SHOW_WARNINGS = true;
+	private static final Counter PACKETS = Metrics.counter("drawing.packets");
+	private static final Histogram PACKET_TIME = Metrics.histogram("drawing.packet");
+	private static final TraceEvent PACKET_EVENT = new TraceEvent("rv.DrawCommands", "Draw Commands",
+			"Parsing and executing the draw commands of a UDP packet or stream frame",
+			new TraceEvent.Field(int.class, "size", "Size"), new TraceEvent.Field(int.class, "commands", "Commands"),
+			new TraceEvent.Field(String.class, "source", "Source"));
 	private final Viewer viewer;
 	private ReceiveThread packetReceiver;
+	private final List<StreamListenThread> streamListeners = new CopyOnWriteArrayList<>();
+	private final List<StreamReceiveThread> connections = new CopyOnWriteArrayList<>();
 
 	public void addListener(DrawCommListener l)
 	{
@@ -98,18 +295,117 @@ public class DrawComm
 	}
 
 	/** Creates a new AgentComm */
-	public DrawComm(Viewer viewer, int port) throws SocketException
+	public DrawComm(Viewer viewer, Configuration.Networking net) throws SocketException
 	{
 		this.viewer = viewer;
-		packetReceiver = new ReceiveThread(port);
+		packetReceiver = new ReceiveThread(net.listenPort);
 		packetReceiver.start();
+
+		int streamPort = net.getDrawingStreamPort();
+		if (streamPort != 0)
+			startTcpListener(streamPort);
+		if (net.drawingSocketPath != null)
+			startUnixDomainListener(net.drawingSocketPath);
 	}
 
-	/** Handle incoming UDP packet data */
-	public void handle(DatagramPacket packet)
+	private void startTcpListener(int port)
 	{
-		byte[] pktData = new byte[packet.getLength()];
-		System.arraycopy(packet.getData(), packet.getOffset(), pktData, 0, pktData.length);
+		try {
+			ServerSocketChannel channel = ServerSocketChannel.open();
+			// agents are expected to run on the same host, so don't expose the port
+			channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+			startStreamListener(channel, null);
+		} catch (BindException e) {
+			DebugInfo.println(getClass(),
+					"Unable to bind to draw stream port " + port +
+							" - another RoboViz instance is probably already listening on the same port");
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void startUnixDomainListener(String path)
+	{
+		Path socketFile = Paths.get(path);
+		try {
+			deleteStaleSocket(socketFile);
+			startStreamListener(openUnixDomainChannel(socketFile), socketFile);
+		} catch (IOException e) {
+			DebugInfo.println(getClass(), "Unable to bind to draw socket " + path + " - " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Removes a socket file left behind by a crashed instance. Fails if something else exists at the
+	 * path, which must not be deleted.
+	 */
+	private static void deleteStaleSocket(Path socketFile) throws IOException
+	{
+		if (!Files.exists(socketFile, LinkOption.NOFOLLOW_LINKS))
+			return;
+		if (!isSocket(socketFile))
+			throw new IOException(socketFile + " exists and is not a socket");
+		Files.delete(socketFile);
+	}
+
+	private static boolean isSocket(Path file) throws IOException
+	{
+		try {
+			int mode = (Integer) Files.getAttribute(file, "unix:mode", LinkOption.NOFOLLOW_LINKS);
+			return (mode & 0170000) == 0140000; // S_IFMT and S_IFSOCK
+		} catch (UnsupportedOperationException | IllegalArgumentException e) {
+			// without the unix attribute view (e.g. on Windows), sockets are neither regular files,
+			// directories nor links
+			return Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isOther();
+		}
+	}
+
+	private void startStreamListener(ServerSocketChannel channel, Path socketFile)
+	{
+		StreamListenThread listener = new StreamListenThread(channel, socketFile);
+		streamListeners.add(listener);
+		listener.start();
+	}
+
+	/**
+	 * Opens a server channel bound to a Unix domain socket. Unix domain socket channels are only
+	 * available from Java 16 on, while RoboViz still targets Java 1.8, so they are looked up
+	 * reflectively.
+	 */
+	private static ServerSocketChannel openUnixDomainChannel(Path socketFile) throws IOException
+	{
+		try {
+			ProtocolFamily unix = StandardProtocolFamily.valueOf("UNIX");
+			ServerSocketChannel channel = (ServerSocketChannel) ServerSocketChannel.class
+												  .getMethod("open", ProtocolFamily.class)
+												  .invoke(null, unix);
+			SocketAddress address = (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress")
+											.getMethod("of", Path.class)
+											.invoke(null, socketFile);
+			channel.bind(address);
+			return channel;
+		} catch (InvocationTargetException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		} catch (IllegalArgumentException | ReflectiveOperationException e) {
+			throw new IOException("Unix domain sockets require Java 16 or newer");
+		}
+	}
+
+	/**
+	 * Handle incoming UDP packet data or stream frame. Called concurrently by the UDP receiver and
+	 * each stream connection, which {@link Drawings} supports without a global lock.
+	 */
+	public void handle(byte[] data, int offset, int length, String source)
+	{
+		long startTime = System.nanoTime();
+		Object event = PACKET_EVENT.begin();
+		int commands = 0;
+		TrafficStats stats = viewer.getDrawings().getTrafficStats(source);
+
+		byte[] pktData = new byte[length];
+		System.arraycopy(data, offset, pktData, 0, pktData.length);
 
 		for (DrawCommListener l : listeners)
 			l.drawCommandReceived(pktData);
@@ -119,48 +415,58 @@ public class DrawComm
 		while (buf.hasRemaining()) {
 			Command cmd = null;
 			try {
-				cmd = Command.parse(buf, viewer);
+				cmd = Command.parse(buf, viewer.getDrawings(), viewer.getWorldModel());
 			} catch (Exception e) {
+				stats.recordError();
 				if (SHOW_WARNINGS) {
-					System.out.printf("Exception parsing command (start index %d)\n", buf.position());
-					printPacket(packet);
+					System.out.printf("Exception parsing command from %s (start index %d)\n", source, buf.position());
+					printPacket(pktData);
 				}
-				return;
+				break;
 			}
 
 			if (cmd == null) {
+				stats.recordError();
 				if (SHOW_WARNINGS) {
-					System.out.printf("Null command (start index %d)\n", buf.position());
-					printPacket(packet);
+					System.out.printf("Null command from %s (start index %d)\n", source, buf.position());
+					printPacket(pktData);
 				}
-				return;
+				break;
 			} else {
 				cmd.execute();
+				commands++;
 			}
 		}
+
+		stats.record(length, System.nanoTime() - startTime);
+		PACKETS.increment();
+		PACKET_TIME.recordSince(startTime);
+		if (event != null)
+			PACKET_EVENT.commit(event, length, commands, source);
 	}
 
-	/** Stops receiving UDP packets and closes connections */
+	/** Stops receiving UDP packets and stream frames and closes connections */
 	public void shutdown()
 	{
-		packetReceiver.running = false;
-		// enforce closing, otherwise it gets blocked by "receive()"!
-		packetReceiver.socket.close();
+		packetReceiver.shutdown();
+		for (StreamListenThread listener : streamListeners)
+			listener.shutdown();
+		for (StreamReceiveThread connection : connections)
+			connection.shutdown();
 		try {
 			packetReceiver.join();
+			for (StreamListenThread listener : streamListeners)
+				listener.join();
 		} catch (InterruptedException ex) { /* ignore */
 		}
 	}
 
 	/** Prints packet contents for debug purposes */
-	private static void printPacket(DatagramPacket pkt)
+	private static void printPacket(byte[] data)
 	{
-		int length = pkt.getLength();
-		int offset = pkt.getOffset();
-		byte[] data = pkt.getData();
+		int length = data.length;
 
 		System.out.printf("Packet Length: %d\n", length);
-		System.out.printf("Packet Offset: %d\n", offset);
 		System.out.println("Packet Data:");
 
 		for (int i = 0; i < length; i++)
@@ -172,7 +478,7 @@ public class DrawComm
 		System.out.println();
 
 		for (int i = 0; i < length; i++) {
-			int d = ByteUtil.uValue(data[i + offset]);
+			int d = ByteUtil.uValue(data[i]);
 			System.out.printf("%3d|", d);
 		}
 		System.out.println();
@@ -16,33 +16,46 @@
 
 package rv.comm.drawing;
 
-import java.util.ArrayList;
+import java.util.Collection;
 import java.util.EventListener;
 import java.util.EventObject;
-import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.media.opengl.GL;
 import javax.media.opengl.GL2;
 import com.jogamp.opengl.util.gl2.GLUT;
 import rv.comm.drawing.annotations.AgentAnnotation;
 import rv.comm.drawing.annotations.Annotation;
 import rv.comm.drawing.shapes.Shape;
+import rv.util.jogl.Frustum;
+import rv.util.metrics.TraceEvent;
 
 /**
- * Contains and manages shape sets
+ * Contains and manages shape sets.
+ *
+ * Shapes and annotations may be added concurrently from several threads (one per transport, the log
+ * runner...) without a global lock: set lookup and creation go through concurrent maps, and each set
+ * only synchronizes its own back buffer. Swapping a set's buffers publishes an immutable front buffer
+ * that renderers read without locking. Clearing replaces the whole registry of sets, so producers
+ * still holding a set of the old registry can never leak it into the new one.
  *
  * @author Justin Stoecker
  */
 public class Drawings
 {
+	private static final TraceEvent SWAP_EVENT = new TraceEvent("rv.DrawingsSwap", "Drawings Swap",
+			"Swapping the buffers of drawing sets", new TraceEvent.Field(String.class, "set", "Set Prefix"));
+
 	/** Event object launched when the list of sets is modified */
 	public class SetListChangeEvent extends EventObject
 	{
-		private final CopyOnWriteArrayList<BufferedSet<Shape>> shapeSets;
+		private final CopyOnWriteArrayList<ShapeSet> shapeSets;
 		private final CopyOnWriteArrayList<BufferedSet<Annotation>> annotationSets;
 
-		public CopyOnWriteArrayList<BufferedSet<Shape>> getShapeSets()
+		public CopyOnWriteArrayList<ShapeSet> getShapeSets()
 		{
 			return shapeSets;
 		}
@@ -55,8 +68,9 @@ public class Drawings
 		public SetListChangeEvent(Drawings source)
 		{
 			super(source);
-			this.shapeSets = source.shapeSets;
-			this.annotationSets = source.annotationSets;
+			SetRegistry registry = source.registry;
+			this.shapeSets = registry.shapeSets;
+			this.annotationSets = registry.annotationSets;
 		}
 	}
 
@@ -65,13 +79,29 @@ public class Drawings
 		void setListChanged(SetListChangeEvent evt);
 	}
 
-	private final ArrayList<ShapeListListener> listeners = new ArrayList<>();
-	private final HashMap<String, BufferedSet<Shape>> shapeSetListing = new HashMap<>();
-	private final HashMap<String, BufferedSet<Annotation>> annotationSetListing = new HashMap<>();
-	private final CopyOnWriteArrayList<BufferedSet<Shape>> shapeSets = new CopyOnWriteArrayList<>();
-	private final CopyOnWriteArrayList<BufferedSet<Annotation>> annotationSets = new CopyOnWriteArrayList<>();
-	private boolean changed = false;
-	private boolean visible = true;
+	/** All sets known since the last time they were cleared */
+	private static class SetRegistry
+	{
+		private final ConcurrentHashMap<String, ShapeSet> shapeSetListing = new ConcurrentHashMap<>();
+		private final ConcurrentHashMap<String, BufferedSet<Annotation>> annotationSetListing =
+				new ConcurrentHashMap<>();
+		private final CopyOnWriteArrayList<ShapeSet> shapeSets = new CopyOnWriteArrayList<>();
+		private final CopyOnWriteArrayList<BufferedSet<Annotation>> annotationSets = new CopyOnWriteArrayList<>();
+		private final SetIndex setIndex = new SetIndex();
+	}
+
+	private final List<ShapeListListener> listeners = new CopyOnWriteArrayList<>();
+	private volatile SetRegistry registry = new SetRegistry();
+	/** most draw command sources whose traffic statistics are kept */
+	private static final int MAX_TRAFFIC_SOURCES = 64;
+
+	private final ConcurrentHashMap<String, TrafficStats> trafficStats = new ConcurrentHashMap<>();
+	private final AtomicBoolean changed = new AtomicBoolean(false);
+	private final AtomicInteger version = new AtomicInteger();
+	private volatile boolean visible = true;
+	private volatile int setLimit = 0;
+	private volatile boolean dropSetsOverLimit = false;
+	private final Frustum frustum = new Frustum();
 
 	public boolean isVisible()
 	{
@@ -81,11 +111,76 @@ public class Drawings
 	public void toggle()
 	{
 		visible = !visible;
+		version.incrementAndGet();
+	}
+
+	/**
+	 * Counter that is incremented whenever the drawn shapes may have changed: when buffers are
+	 * swapped or sets are added, removed or hidden
+	 */
+	public int getVersion()
+	{
+		return version.get();
 	}
 
 	public List<BufferedSet<Annotation>> getAnnotationSets()
 	{
-		return annotationSets;
+		return registry.annotationSets;
+	}
+
+	/**
+	 * Limits the number of shapes / annotations per set and swap to protect the frame time against
+	 * agents flooding draw commands.
+	 *
+	 * @param limit
+	 *            - maximum number of items per set and swap, 0 for no limit
+	 * @param dropSetsOverLimit
+	 *            - whether sets exceeding the limit are not drawn at all instead of being truncated
+	 */
+	public void setLimit(int limit, boolean dropSetsOverLimit)
+	{
+		this.setLimit = limit;
+		this.dropSetsOverLimit = dropSetsOverLimit;
+		SetRegistry registry = this.registry;
+		for (ShapeSet set : registry.shapeSets)
+			set.setLimit(limit, dropSetsOverLimit);
+		for (BufferedSet<Annotation> set : registry.annotationSets)
+			set.setLimit(limit, dropSetsOverLimit);
+	}
+
+	/**
+	 * Retrieves the traffic statistics of a draw command source, creating them if necessary. Beyond
+	 * {@link #MAX_TRAFFIC_SOURCES} sources, the one that was idle the longest is dropped.
+	 */
+	public TrafficStats getTrafficStats(String source)
+	{
+		TrafficStats stats = trafficStats.get(source);
+		if (stats != null)
+			return stats;
+		if (trafficStats.size() >= MAX_TRAFFIC_SOURCES)
+			removeIdlestTrafficStats();
+		return trafficStats.computeIfAbsent(source, TrafficStats::new);
+	}
+
+	private void removeIdlestTrafficStats()
+	{
+		TrafficStats idlest = null;
+		for (TrafficStats stats : trafficStats.values())
+			if (idlest == null || stats.getLastRecordTime() - idlest.getLastRecordTime() < 0)
+				idlest = stats;
+		if (idlest != null)
+			trafficStats.remove(idlest.getSource(), idlest);
+	}
+
+	/** Forgets the traffic statistics of a source that disconnected */
+	public void removeTrafficStats(String source)
+	{
+		trafficStats.remove(source);
+	}
+
+	public Collection<TrafficStats> getTrafficStats()
+	{
+		return trafficStats.values();
 	}
 
 	public void addShapeSetListener(ShapeListListener listener)
@@ -115,85 +210,96 @@ public class Drawings
 			return;
 		}
 
-		BufferedSet<Annotation> set = annotationSetListing.get(setName);
-
+		SetRegistry registry = this.registry;
+		BufferedSet<Annotation> set = registry.annotationSetListing.get(setName);
 		if (set == null) {
-			// shape has a set name that hasn't been seen, so create a new set
-			BufferedSet<Annotation> newSet = new BufferedSet<>(setName);
-			newSet.put(annotation);
-			synchronized (this)
-			{
-				annotationSets.add(newSet);
-			}
-			annotationSetListing.put(setName, newSet);
-			changed = true;
-		} else {
-			set.put(annotation);
+			// annotation has a set name that hasn't been seen, so create a new set
+			set = registry.annotationSetListing.computeIfAbsent(setName, name -> {
+				BufferedSet<Annotation> newSet = initSet(new BufferedSet<>(name));
+				registry.annotationSets.add(newSet);
+				registry.setIndex.putAnnotations(name, newSet);
+				return newSet;
+			});
 		}
+		set.put(annotation);
 	}
 
 	public void addShape(Shape shape)
 	{
 		String setName = shape.getSetName();
-		BufferedSet<Shape> set = shapeSetListing.get(setName);
 
+		SetRegistry registry = this.registry;
+		ShapeSet set = registry.shapeSetListing.get(setName);
 		if (set == null) {
 			// shape has a set name that hasn't been seen, so create a new set
-			BufferedSet<Shape> newSet = new BufferedSet<>(setName);
-			newSet.put(shape);
-			synchronized (this)
-			{
-				shapeSets.add(newSet);
-			}
-			shapeSetListing.put(setName, newSet);
-			changed = true;
-		} else {
-			set.put(shape);
+			set = registry.shapeSetListing.computeIfAbsent(setName, name -> {
+				ShapeSet newSet = initSet(new ShapeSet(name));
+				registry.shapeSets.add(newSet);
+				registry.setIndex.putShapes(name, newSet);
+				return newSet;
+			});
 		}
+		set.put(shape);
+	}
+
+	private <S extends BufferedSet<?>> S initSet(S set)
+	{
+		set.setLimit(setLimit, dropSetsOverLimit);
+		changed.set(true);
+		version.incrementAndGet();
+		return set;
 	}
 
 	/** Removes all known shape sets */
-	public synchronized void clearAllShapeSets()
+	public void clearAllShapeSets()
 	{
-		shapeSetListing.clear();
-		shapeSets.clear();
-		annotationSetListing.clear();
-		annotationSets.clear();
+		registry = new SetRegistry();
+		trafficStats.clear();
+		changed.set(false);
+		version.incrementAndGet();
 		fireShapeChangeListener();
 	}
 
 	/** Retrieves a shape set by name */
-	public BufferedSet<Shape> getShapeSet(String name)
+	public ShapeSet getShapeSet(String name)
 	{
-		return shapeSetListing.get(name);
+		return registry.shapeSetListing.get(name);
 	}
 
 	public BufferedSet<Annotation> getAnnotationSet(String name)
 	{
-		return annotationSetListing.get(name);
+		return registry.annotationSetListing.get(name);
 	}
 
 	/**
-	 * Swaps buffers on set with specified name; if name is empty, all buffers are swapped.
+	 * Swaps buffers on all sets whose name starts with the specified name; if name is empty, all
+	 * buffers are swapped.
 	 */
 	public void swapBuffers(String name)
 	{
+		Object event = SWAP_EVENT.begin();
+		SetRegistry registry = this.registry;
 		if (name.isEmpty()) {
-			for (BufferedSet<Shape> set : shapeSets)
+			for (ShapeSet set : registry.shapeSets)
 				set.swapBuffers();
-			for (BufferedSet<Annotation> set : annotationSets)
+			for (BufferedSet<Annotation> set : registry.annotationSets)
 				set.swapBuffers();
 		} else {
-			for (BufferedSet<Shape> p : shapeSets)
-				if (p.getName().startsWith(name))
-					p.swapBuffers();
-			for (BufferedSet<Annotation> p : annotationSets)
-				if (p.getName().startsWith(name))
-					p.swapBuffers();
+			registry.setIndex.forEachWithPrefix(name, BufferedSet::swapBuffers);
 		}
+		version.incrementAndGet();
+		if (event != null)
+			SWAP_EVENT.commit(event, name);
+	}
+
+	/** Shows or hides all sets whose name starts with the specified prefix */
+	public void setVisible(String prefix, boolean visible)
+	{
+		registry.setIndex.forEachWithPrefix(prefix, set -> set.setVisible(visible));
+		version.incrementAndGet();
 	}
 
-	public synchronized void render(GL2 gl, GLUT glut)
+	public void render(GL2 gl, GLUT glut)
 	{
 		gl.glPushAttrib(GL2.GL_ENABLE_BIT);
 		gl.glEnable(GL.GL_BLEND);
@@ -202,25 +308,19 @@ public class Drawings
 		gl.glDisable(GL.GL_TEXTURE_2D);
 		gl.glDisable(GL2.GL_LIGHTING);
 
-		for (BufferedSet<Shape> setBuffer : shapeSets) {
-			if (setBuffer.isVisible()) {
-				ArrayList<Shape> shapes = setBuffer.getFrontSet();
-				for (Shape s : shapes) {
-					if (s != null) {
-						s.draw(gl);
-					}
-				}
-			}
+		frustum.update(gl);
+		for (ShapeSet set : registry.shapeSets) {
+			if (set.isVisible())
+				set.render(gl, frustum);
 		}
 
 		gl.glPopAttrib();
 	}
 
-	public synchronized void update()
+	public void update()
 	{
-		if (changed) {
+		if (changed.getAndSet(false)) {
 			fireShapeChangeListener();
-			changed = false;
 		}
 	}
 }
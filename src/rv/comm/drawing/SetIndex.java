@@ -0,0 +1,102 @@
+/*
+ *  Copyright 2011 RoboViz
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package rv.comm.drawing;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import rv.comm.drawing.annotations.Annotation;
+import rv.comm.drawing.shapes.Shape;
+
+/**
+ * Trie of shape and annotation sets keyed on the segments of their dot-separated names (such as
+ * <code>L.7.path.planned</code>). Prefix queries only visit the sets below the prefix instead of
+ * every known set. Lookups don't lock, so they may run concurrently with insertions.
+ */
+class SetIndex
+{
+	private static class Node
+	{
+		private final ConcurrentHashMap<String, Node> children = new ConcurrentHashMap<>(4);
+		private volatile BufferedSet<Shape> shapes;
+		private volatile BufferedSet<Annotation> annotations;
+
+		private Node child(String segment)
+		{
+			return children.computeIfAbsent(segment, s -> new Node());
+		}
+
+		/** Visits the sets of this node and all of its descendants */
+		private void visit(Consumer<BufferedSet<?>> action)
+		{
+			if (shapes != null)
+				action.accept(shapes);
+			if (annotations != null)
+				action.accept(annotations);
+			for (Node child : children.values())
+				child.visit(action);
+		}
+	}
+
+	private final Node root = new Node();
+
+	private Node node(String name)
+	{
+		Node node = root;
+		int start = 0;
+		int end;
+		while ((end = name.indexOf('.', start)) != -1) {
+			node = node.child(name.substring(start, end));
+			start = end + 1;
+		}
+		return node.child(name.substring(start));
+	}
+
+	public void putShapes(String name, BufferedSet<Shape> set)
+	{
+		node(name).shapes = set;
+	}
+
+	public void putAnnotations(String name, BufferedSet<Annotation> set)
+	{
+		node(name).annotations = set;
+	}
+
+	/**
+	 * Applies an action to every set whose name starts with the given prefix, matching the semantics
+	 * of {@link String#startsWith(String)}. Full segments of the prefix are resolved in the trie, only
+	 * the children of the last node are compared against a trailing partial segment.
+	 */
+	public void forEachWithPrefix(String prefix, Consumer<BufferedSet<?>> action)
+	{
+		Node node = root;
+		int start = 0;
+		int end;
+		while ((end = prefix.indexOf('.', start)) != -1) {
+			node = node.children.get(prefix.substring(start, end));
+			if (node == null)
+				return;
+			start = end + 1;
+		}
+
+		String partial = prefix.substring(start);
+		for (Map.Entry<String, Node> entry : node.children.entrySet()) {
+			if (entry.getKey().startsWith(partial))
+				entry.getValue().visit(action);
+		}
+	}
+}
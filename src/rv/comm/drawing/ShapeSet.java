@@ -0,0 +1,142 @@
+/*
+ *  Copyright 2011 RoboViz
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package rv.comm.drawing;
+
+import java.util.List;
+import javax.media.opengl.GL2;
+import rv.comm.drawing.shapes.Shape;
+import rv.util.jogl.Frustum;
+
+/**
+ * Buffered set of shapes that buckets its front buffer into a coarse uniform grid over the field
+ * when it is published, so that rendering can skip whole cells outside of the view frustum.
+ */
+public class ShapeSet extends BufferedSet<Shape>
+{
+	/** grid extent in RoboViz coordinates, slightly larger than the field */
+	private static final float GRID_MIN_X = -16;
+	private static final float GRID_MIN_Z = -12;
+	private static final float CELL_SIZE = 4;
+	private static final int CELLS_X = 8;
+	private static final int CELLS_Z = 6;
+	private static final int NUM_CELLS = CELLS_X * CELLS_Z;
+
+	/** sets with fewer shapes are culled per shape instead of per cell */
+	private static final int MIN_GRID_SIZE = 16;
+
+	/** Immutable spatial index of a published front buffer */
+	private static class Grid
+	{
+		/** shapes ordered by cell */
+		private final Shape[] shapes;
+		/** shapes of cell i are in the range [cellStart[i], cellStart[i + 1]) */
+		private final int[] cellStart = new int[NUM_CELLS + 1];
+		/** union of the bounds of the shapes in each cell, 6 floats per cell */
+		private final float[] cellBounds = new float[NUM_CELLS * 6];
+
+		private Grid(List<Shape> front)
+		{
+			int n = front.size();
+			shapes = new Shape[n];
+			int[] cells = new int[n];
+
+			for (int i = 0; i < NUM_CELLS; i++) {
+				for (int j = 0; j < 3; j++) {
+					cellBounds[i * 6 + j] = Float.POSITIVE_INFINITY;
+					cellBounds[i * 6 + 3 + j] = Float.NEGATIVE_INFINITY;
+				}
+			}
+
+			// shapes are assigned to the cell of their center and grow that cell's bounds, so
+			// shapes outside of the grid or spanning several cells are still culled correctly
+			for (int i = 0; i < n; i++) {
+				Shape shape = front.get(i);
+				int cell = cellOf(shape.getBounds());
+				cells[i] = cell;
+				cellStart[cell + 1]++;
+				float[] b = shape.getBounds();
+				int o = cell * 6;
+				for (int j = 0; j < 3; j++) {
+					cellBounds[o + j] = Math.min(cellBounds[o + j], b[j]);
+					cellBounds[o + 3 + j] = Math.max(cellBounds[o + 3 + j], b[3 + j]);
+				}
+			}
+
+			for (int i = 0; i < NUM_CELLS; i++)
+				cellStart[i + 1] += cellStart[i];
+
+			int[] next = new int[NUM_CELLS];
+			System.arraycopy(cellStart, 0, next, 0, NUM_CELLS);
+			for (int i = 0; i < n; i++)
+				shapes[next[cells[i]]++] = front.get(i);
+		}
+
+		private static int cellOf(float[] bounds)
+		{
+			float centerX = (bounds[0] + bounds[3]) * 0.5f;
+			float centerZ = (bounds[2] + bounds[5]) * 0.5f;
+			int x = clampCell((int) Math.floor((centerX - GRID_MIN_X) / CELL_SIZE), CELLS_X);
+			int z = clampCell((int) Math.floor((centerZ - GRID_MIN_Z) / CELL_SIZE), CELLS_Z);
+			return z * CELLS_X + x;
+		}
+
+		private static int clampCell(int i, int numCells)
+		{
+			// NaN centers end up as 0 as well
+			return i < 0 ? 0 : (i >= numCells ? numCells - 1 : i);
+		}
+	}
+
+	private volatile Grid grid;
+
+	public ShapeSet(String name)
+	{
+		super(name);
+	}
+
+	@Override
+	protected void published(List<Shape> front)
+	{
+		grid = front.size() >= MIN_GRID_SIZE ? new Grid(front) : null;
+	}
+
+	/** Draws the shapes of the front buffer that may be visible in the frustum */
+	public void render(GL2 gl, Frustum frustum)
+	{
+		// the grid and the front buffer are published separately, so only one of them may be used
+		Grid grid = this.grid;
+		if (grid == null) {
+			for (Shape s : getFrontSet()) {
+				if (s != null && frustum.intersects(s.getBounds(), 0))
+					s.draw(gl);
+			}
+			return;
+		}
+
+		for (int cell = 0; cell < NUM_CELLS; cell++) {
+			int start = grid.cellStart[cell];
+			int end = grid.cellStart[cell + 1];
+			if (start == end || !frustum.intersects(grid.cellBounds, cell * 6))
+				continue;
+			for (int i = start; i < end; i++) {
+				Shape s = grid.shapes[i];
+				if (s != null)
+					s.draw(gl);
+			}
+		}
+	}
+}
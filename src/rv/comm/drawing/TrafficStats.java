@@ -0,0 +1,135 @@
+/*
+ *  Copyright 2011 RoboViz
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package rv.comm.drawing;
+
+import java.util.Locale;
+
+/**
+ * Accounts the draw command traffic of a single source (an agent's UDP address, a stream connection
+ * or a logfile). Rates are measured over windows of one second and always refer to the last
+ * completed window.
+ */
+public class TrafficStats
+{
+	private static final long WINDOW_NS = 1000000000L;
+
+	private final String source;
+
+	private long windowStart = System.nanoTime();
+	private int packets;
+	private int bytes;
+	private long parseTimeNs;
+	private int packetsPerSecond;
+	private int bytesPerSecond;
+	private float parseMsPerSecond;
+	private long totalPackets;
+	private long totalErrors;
+	private volatile long lastRecordTime = System.nanoTime();
+
+	public TrafficStats(String source)
+	{
+		this.source = source;
+	}
+
+	public String getSource()
+	{
+		return source;
+	}
+
+	/** Records a packet or stream frame of the given size that took parseTimeNs to parse */
+	public synchronized void record(int size, long parseTimeNs)
+	{
+		long now = System.nanoTime();
+		roll(now);
+		lastRecordTime = now;
+		packets++;
+		bytes += size;
+		this.parseTimeNs += parseTimeNs;
+		totalPackets++;
+	}
+
+	/** Records a packet that could not be parsed */
+	public synchronized void recordError()
+	{
+		totalErrors++;
+	}
+
+	private void roll(long now)
+	{
+		long elapsed = now - windowStart;
+		if (elapsed < WINDOW_NS)
+			return;
+
+		if (elapsed < 2 * WINDOW_NS) {
+			packetsPerSecond = packets;
+			bytesPerSecond = bytes;
+			parseMsPerSecond = parseTimeNs / 1e6f;
+		} else {
+			// the last complete window had no traffic at all
+			packetsPerSecond = 0;
+			bytesPerSecond = 0;
+			parseMsPerSecond = 0;
+		}
+		packets = 0;
+		bytes = 0;
+		parseTimeNs = 0;
+		windowStart = now - elapsed % WINDOW_NS;
+	}
+
+	public synchronized int getPacketsPerSecond()
+	{
+		roll(System.nanoTime());
+		return packetsPerSecond;
+	}
+
+	public synchronized int getBytesPerSecond()
+	{
+		roll(System.nanoTime());
+		return bytesPerSecond;
+	}
+
+	/** Time spent parsing this source's commands per second, in milliseconds */
+	public synchronized float getParseMsPerSecond()
+	{
+		roll(System.nanoTime());
+		return parseMsPerSecond;
+	}
+
+	/** {@link System#nanoTime()} of the last recorded packet, or of the creation */
+	public long getLastRecordTime()
+	{
+		return lastRecordTime;
+	}
+
+	public synchronized long getTotalPackets()
+	{
+		return totalPackets;
+	}
+
+	public synchronized long getTotalErrors()
+	{
+		return totalErrors;
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		roll(System.nanoTime());
+		return String.format(Locale.US, "%s: %d pkt/s, %.1f KB/s, parse %.1f ms/s, %d errors", source,
+				packetsPerSecond, bytesPerSecond / 1024f, parseMsPerSecond, totalErrors);
+	}
+}
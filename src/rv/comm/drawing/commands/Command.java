@@ -20,7 +20,7 @@ import java.nio.ByteBuffer;
 import java.util.Locale;
 import js.io.ByteUtil;
 import js.math.vector.Vec3f;
-import rv.Viewer;
+import rv.comm.drawing.Drawings;
 import rv.ui.DebugInfo;
 import rv.world.Team;
 import rv.world.WorldModel;
@@ -126,19 +126,26 @@ public abstract class Command
 		return new String(stringBytes);
 	}
 
-	/** Converts a sequence of bytes into a command */
-	public static Command parse(ByteBuffer buf, Viewer viewer)
+	/**
+	 * Converts a sequence of bytes into a command
+	 *
+	 * @param drawings
+	 *            - drawings that the command adds to
+	 * @param world
+	 *            - world model with the agents that the command refers to
+	 */
+	public static Command parse(ByteBuffer buf, Drawings drawings, WorldModel world)
 	{
 		int type = ByteUtil.uValue(buf.get());
 		switch (type) {
 		case Command.DRAW_OPTION:
-			return new DrawOption(buf, viewer);
+			return new DrawOption(buf, drawings);
 		case Command.DRAW_SHAPE:
-			return new DrawShape(buf, viewer);
+			return new DrawShape(buf, drawings);
 		case Command.DRAW_ANNOTATION:
-			return new DrawAnnotation(buf, viewer);
+			return new DrawAnnotation(buf, drawings, world);
 		case Command.CONTROL:
-			return new Control(buf, viewer);
+			return new Control(buf, world);
 		default:
 			return null;
 		}
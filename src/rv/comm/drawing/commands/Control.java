@@ -2,26 +2,26 @@ package rv.comm.drawing.commands;
 
 import java.nio.ByteBuffer;
 import js.io.ByteUtil;
-import rv.Viewer;
+import rv.world.WorldModel;
 import rv.world.objects.Agent;
 
 public class Control extends Command
 {
 	public static final int AGENT_SELECT = 0;
 
-	private final Viewer viewer;
+	private final WorldModel world;
 	private final Agent agent;
 
-	public Control(ByteBuffer buf, Viewer viewer)
+	public Control(ByteBuffer buf, WorldModel world)
 	{
 		super();
-		this.viewer = viewer;
+		this.world = world;
 
 		int type = ByteUtil.uValue(buf.get());
 
 		switch (type) {
 		case AGENT_SELECT:
-			agent = Command.readAgent(buf, viewer.getWorldModel());
+			agent = Command.readAgent(buf, world);
 			break;
 		default:
 			System.err.println("Unknown control : " + type);
@@ -33,7 +33,7 @@ public class Control extends Command
 	public void execute()
 	{
 		if (agent != null) {
-			viewer.getWorldModel().setSelectedObject(agent);
+			world.setSelectedObject(agent);
 		}
 	}
 }
@@ -18,11 +18,11 @@ package rv.comm.drawing.commands;
 
 import java.nio.ByteBuffer;
 import js.io.ByteUtil;
-import rv.Viewer;
 import rv.comm.drawing.Drawings;
 import rv.comm.drawing.annotations.AgentAnnotation;
 import rv.comm.drawing.annotations.Annotation;
 import rv.comm.drawing.annotations.StandardAnnotation;
+import rv.world.WorldModel;
 import rv.world.objects.Agent;
 
 /**
@@ -39,9 +39,9 @@ public class DrawAnnotation extends Command
 	private final Drawings drawings;
 	private Annotation annotation;
 
-	public DrawAnnotation(ByteBuffer buf, Viewer viewer)
+	public DrawAnnotation(ByteBuffer buf, Drawings drawings, WorldModel world)
 	{
-		this.drawings = viewer.getDrawings();
+		this.drawings = drawings;
 
 		int type = ByteUtil.uValue(buf.get());
 
@@ -50,10 +50,10 @@ public class DrawAnnotation extends Command
 			annotation = StandardAnnotation.parse(buf);
 			break;
 		case AGENT_ADD:
-			annotation = AgentAnnotation.parse(buf, viewer.getWorldModel());
+			annotation = AgentAnnotation.parse(buf, world);
 			break;
 		case AGENT_CLEAR:
-			Agent agent = Command.readAgent(buf, viewer.getWorldModel());
+			Agent agent = Command.readAgent(buf, world);
 			if (agent != null)
 				agent.setAnnotation(null);
 			break;
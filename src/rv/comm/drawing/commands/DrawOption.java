@@ -18,7 +18,6 @@ package rv.comm.drawing.commands;
 
 import java.nio.ByteBuffer;
 import js.io.ByteUtil;
-import rv.Viewer;
 import rv.comm.drawing.Drawings;
 
 /**
@@ -33,9 +32,9 @@ public class DrawOption extends Command
 	private final String setName;
 	private final Drawings drawings;
 
-	public DrawOption(ByteBuffer buf, Viewer viewer)
+	public DrawOption(ByteBuffer buf, Drawings drawings)
 	{
-		this.drawings = viewer.getDrawings();
+		this.drawings = drawings;
 
 		int type = ByteUtil.uValue(buf.get());
 
@@ -18,7 +18,6 @@ package rv.comm.drawing.commands;
 
 import java.nio.ByteBuffer;
 import js.io.ByteUtil;
-import rv.Viewer;
 import rv.comm.drawing.Drawings;
 import rv.comm.drawing.shapes.Circle;
 import rv.comm.drawing.shapes.Line;
@@ -44,9 +43,9 @@ public class DrawShape extends Command
 	private final Shape shape;
 	private final Drawings drawings;
 
-	public DrawShape(ByteBuffer buf, Viewer viewer)
+	public DrawShape(ByteBuffer buf, Drawings drawings)
 	{
-		this.drawings = viewer.getDrawings();
+		this.drawings = drawings;
 
 		int type = ByteUtil.uValue(buf.get());
 
@@ -44,6 +44,8 @@ public class Circle extends Shape
 			pts[i][2] = Math.sin(angleInc * i) * radius + pos[2];
 		}
 		this.thickness = thickness;
+		for (double[] pt : pts)
+			includeInBounds((float) pt[0], (float) pt[1], (float) pt[2], 0);
 	}
 
 	@Override
@@ -37,6 +37,8 @@ public class Line extends Shape
 		this.end = end;
 		this.color = color;
 		this.thickness = thickness;
+		includeInBounds(start[0], start[1], start[2], 0);
+		includeInBounds(end[0], end[1], end[2], 0);
 	}
 
 	@Override
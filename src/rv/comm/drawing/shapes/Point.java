@@ -34,6 +34,7 @@ public class Point extends Shape
 		super(set, color);
 		this.position = position;
 		this.size = size;
+		includeInBounds(position[0], position[1], position[2], 0);
 	}
 
 	@Override
@@ -29,6 +29,8 @@ public class Polygon extends Shape
 	{
 		super(set, color);
 		this.v = verts;
+		for (float[] vert : verts)
+			includeInBounds(vert[0], vert[1], vert[2], 0);
 	}
 
 	@Override
@@ -25,11 +25,32 @@ public abstract class Shape
 	protected float[] color;
 	protected final String set;
 
+	/** axis-aligned bounds in RoboViz coordinates: min x, y, z followed by max x, y, z */
+	protected final float[] bounds = {
+			Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY,
+			Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+
 	public String getSetName()
 	{
 		return set;
 	}
 
+	public float[] getBounds()
+	{
+		return bounds;
+	}
+
+	/** Grows the bounds to include a sphere around a point (radius 0 for the point itself) */
+	protected void includeInBounds(float x, float y, float z, float radius)
+	{
+		bounds[0] = Math.min(bounds[0], x - radius);
+		bounds[1] = Math.min(bounds[1], y - radius);
+		bounds[2] = Math.min(bounds[2], z - radius);
+		bounds[3] = Math.max(bounds[3], x + radius);
+		bounds[4] = Math.max(bounds[4], y + radius);
+		bounds[5] = Math.max(bounds[5], z + radius);
+	}
+
 	public Shape(String set, float[] color)
 	{
 		this.set = set;
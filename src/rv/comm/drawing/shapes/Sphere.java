@@ -38,6 +38,7 @@ public class Sphere extends Shape
 		this.color = color;
 		mat.setDiffAmbient(color[0], color[1], color[2], 1);
 		model = new GeodesicSphere(radius, 1);
+		includeInBounds(position[0], position[1], position[2], radius);
 	}
 
 	@Override
@@ -41,7 +41,9 @@ public interface ISceneGraphItem {
 	/**
 	 * When called, the object implementing this interface can pull data from the scene graph and
 	 * store it in its internal state. It is expected that the implementing object will keep a
-	 * reference to its node in the scene graph through the findNode method.
+	 * reference to its node in the scene graph through the findNode method. This is called on the
+	 * world model's update stage while the previous frame is presented, so state read by the GL
+	 * thread should be replaced rather than modified in place.
 	 */
 	void update(SceneGraph sg);
 }
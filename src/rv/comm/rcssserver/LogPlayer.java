@@ -29,6 +29,7 @@ import rv.Viewer;
 import rv.comm.rcssserver.ILogfileReader.LogfileListener;
 import rv.comm.rcssserver.LogAnalyzerThread.Goal;
 import rv.util.StringUtil;
+import rv.util.metrics.TraceEvent;
 import rv.util.swing.FileChooser;
 import rv.world.WorldModel;
 
@@ -52,6 +53,11 @@ public class LogPlayer implements LogfileListener
 	public static final int GOAL_WINDOW_SECONDS = 12;
 	/** time within which to jump over goals for nicer stepping during playback */
 	private static final float GOAL_STEP_THRESHOLD_SECONDS = 3f;
+	private static final TraceEvent SEEK_EVENT = new TraceEvent("rv.LogSeek", "Log Seek",
+			"Jumping to a frame of the logfile that doesn't follow the current one",
+			new TraceEvent.Field(int.class, "fromFrame", "From Frame"),
+			new TraceEvent.Field(int.class, "toFrame", "To Frame"), new TraceEvent.Field(int.class, "distance", "Distance"),
+			new TraceEvent.Field(int.class, "parsedFrames", "Parsed Frames"));
 
 	private final Configuration config;
 	private ILogfileReader logfile;
@@ -193,6 +199,12 @@ public class LogPlayer implements LogfileListener
 		return playbackSpeed;
 	}
 
+	/** Game time between two frames of the logfile */
+	public float getSecondsPerFrame()
+	{
+		return SECONDS_PER_FRAME;
+	}
+
 	private void parseFrame() throws ParseException
 	{
 		String msg = logfile.getCurrentFrameMessage();
@@ -510,6 +522,8 @@ public class LogPlayer implements LogfileListener
 		private void stepAnywhere(int frame) throws ParseException, IOException
 		{
 			// when jumping forwards we have to make sure not to jump over a full frame
+			Object event = SEEK_EVENT.begin();
+			int fromFrame = getFrame();
 			int currentFrame = frame;
 			boolean needHeader = true;
 			do {
@@ -524,6 +538,8 @@ public class LogPlayer implements LogfileListener
 				}
 				currentFrame--;
 			} while (needHeader && currentFrame >= 0);
+			if (event != null)
+				SEEK_EVENT.commit(event, fromFrame, frame, Math.abs(frame - fromFrame), frame - currentFrame);
 		}
 	}
 
@@ -23,7 +23,10 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import rv.Viewer;
+import rv.comm.drawing.Drawings;
+import rv.comm.drawing.TrafficStats;
 import rv.comm.drawing.commands.Command;
+import rv.world.WorldModel;
 
 /**
  * Abstraction for a log that can be viewed frame by frame. Supports unpacked, single file zipped
@@ -51,6 +54,10 @@ public class Logfile implements ILogfileReader
 	/** viewer needed for parsing draw commands */
 	private final Viewer viewer;
 
+	/** drawings and world model of the draw commands if they don't go to the viewer */
+	private final Drawings drawings;
+	private final WorldModel world;
+
 	/** if we should execute draw commands */
 	private final boolean execDrawCmds;
 
@@ -72,11 +79,35 @@ public class Logfile implements ILogfileReader
 	{
 		this.logsrc = file;
 		this.viewer = viewer;
+		this.drawings = null;
+		this.world = null;
 		this.execDrawCmds = execDrawCmds;
 		numFrames = 1700;
 		open();
 	}
 
+	/**
+	 * Opens a logfile whose draw commands are executed on drawings other than the ones of the
+	 * viewer
+	 *
+	 * @param drawings
+	 *            the drawings that the draw commands add to
+	 * @param world
+	 *            the world model with the agents that the draw commands refer to
+	 * @throws Exception
+	 *             if the logfile can not be opened
+	 */
+	public Logfile(File file, Drawings drawings, WorldModel world) throws Exception
+	{
+		this.logsrc = file;
+		this.viewer = null;
+		this.drawings = drawings;
+		this.world = world;
+		this.execDrawCmds = true;
+		numFrames = 1700;
+		open();
+	}
+
 	/**
 	 * Opens the file for buffered reading
 	 *
@@ -257,18 +288,24 @@ public class Logfile implements ILogfileReader
 					}
 				}
 				ByteBuffer buf = ByteBuffer.wrap(drawCmdBytes);
+				long startTime = System.nanoTime();
+				Drawings drawings = viewer != null ? viewer.getDrawings() : this.drawings;
+				WorldModel world = viewer != null ? viewer.getWorldModel() : this.world;
+				TrafficStats stats = drawings.getTrafficStats("logfile");
 
 				while (buf.hasRemaining()) {
 					Command cmd = null;
 					try {
-						cmd = Command.parse(buf, viewer);
+						cmd = Command.parse(buf, drawings, world);
 						if (cmd != null) {
 							cmd.execute();
 						}
 					} catch (Exception e) {
+						stats.recordError();
 						System.out.println(e);
 					}
 				}
+				stats.record(drawCmdBytes.length, System.nanoTime() - startTime);
 			}
 			line = line.substring(endIndex + 1);
 		}
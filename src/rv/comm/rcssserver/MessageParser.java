@@ -18,8 +18,13 @@ package rv.comm.rcssserver;
 
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.List;
+import rv.comm.rcssserver.scenegraph.Node;
 import rv.comm.rcssserver.scenegraph.SceneGraph;
 import rv.comm.rcssserver.scenegraph.SceneGraphHeader;
+import rv.util.metrics.Histogram;
+import rv.util.metrics.Metrics;
+import rv.util.metrics.TraceEvent;
 import rv.world.WorldModel;
 
 /**
@@ -30,6 +35,16 @@ import rv.world.WorldModel;
  */
 public class MessageParser
 {
+	private static final Histogram PARSE_TIME = Metrics.histogram("server.parse");
+	private static final TraceEvent PARSE_EVENT = new TraceEvent("rv.MessageParse", "Message Parse",
+			"Parsing a server message and applying it to the world", new TraceEvent.Field(int.class, "size", "Size"),
+			new TraceEvent.Field(String.class, "type", "Scene Graph Type"));
+	private static final TraceEvent SCENE_GRAPH_EVENT = new TraceEvent("rv.SceneGraphRebuild",
+			"Scene Graph Rebuild", "Reconciling the scene graph with a full (RSG) scene graph message",
+			new TraceEvent.Field(boolean.class, "replaced", "Replaced"),
+			new TraceEvent.Field(int.class, "added", "Added Nodes"),
+			new TraceEvent.Field(int.class, "removed", "Removed Nodes"));
+
 	private WorldModel world;
 
 	public MessageParser(WorldModel world)
@@ -44,19 +59,41 @@ public class MessageParser
 
 	public void parse(String message) throws ParseException
 	{
+		long startTime = System.nanoTime();
+		Object event = PARSE_EVENT.begin();
 		ArrayList<SExp> expressions = SExp.parse(message);
-
-		world.getGameState().parse(expressions.get(0), world);
 		SceneGraphHeader header = SceneGraphHeader.parse(expressions.get(1));
-		if (header.getType().equals(SceneGraphHeader.FULL)) {
-			// scene graph structure has changed, so replace the old one and
-			// tell
-			// any objects that rely on the scene graph to update their
-			// references
-			SceneGraph sg = new SceneGraph(expressions.get(2));
-			world.setSceneGraph(sg);
-		} else {
-			world.getSceneGraph().update(expressions.get(2));
+
+		// the render thread samples transforms under the same lock, see WorldModel#getFrameLock
+		synchronized (world.getFrameLock()) {
+			world.getGameState().parse(expressions.get(0), world);
+			SceneGraph current = world.getSceneGraph();
+			if (current != null)
+				current.getTimeline().beginFrame();
+			if (header.getType().equals(SceneGraphHeader.FULL)) {
+				// scene graph structure may have changed, so reconcile the current
+				// one with it (or replace it if there is none) and tell any objects
+				// that rely on the scene graph to update their references
+				Object rebuildEvent = SCENE_GRAPH_EVENT.begin();
+				if (current != null) {
+					List<Node> added = new ArrayList<>();
+					List<Node> removed = new ArrayList<>();
+					current.reconcile(expressions.get(2), added, removed);
+					world.sceneGraphReconciled(added, removed);
+					if (rebuildEvent != null)
+						SCENE_GRAPH_EVENT.commit(rebuildEvent, false, added.size(), removed.size());
+				} else {
+					world.setSceneGraph(new SceneGraph(expressions.get(2)));
+					if (rebuildEvent != null)
+						SCENE_GRAPH_EVENT.commit(rebuildEvent, true, 0, 0);
+				}
+			} else {
+				current.update(expressions.get(2));
+			}
+			world.publishSnapshot();
 		}
+		PARSE_TIME.recordSince(startTime);
+		if (event != null)
+			PARSE_EVENT.commit(event, message.length(), header.getType());
 	}
 }
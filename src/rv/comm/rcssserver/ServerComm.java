@@ -37,6 +37,9 @@ import rv.Configuration;
 import rv.Viewer;
 import rv.comm.drawing.DrawComm.DrawCommListener;
 import rv.ui.DebugInfo;
+import rv.util.metrics.Counter;
+import rv.util.metrics.Histogram;
+import rv.util.metrics.Metrics;
 import rv.world.WorldModel;
 
 /**
@@ -54,6 +57,7 @@ public class ServerComm implements DrawCommListener
 	private class MessageReceiver extends Thread
 	{
 		private final MessageParser parser = new MessageParser(world);
+		private long lastMessageTime;
 
 		@Override
 		public void run()
@@ -63,6 +67,12 @@ public class ServerComm implements DrawCommListener
 				do {
 					message = readMessage();
 					if (message != null) {
+						long now = System.nanoTime();
+						if (lastMessageTime != 0)
+							MESSAGE_INTERVAL.record((now - lastMessageTime) / 1000);
+						lastMessageTime = now;
+						MESSAGES.increment();
+						MESSAGE_BYTES.add(message.length());
 						try {
 							parser.parse(message);
 							if (logfileOutput != null)
@@ -107,6 +117,10 @@ public class ServerComm implements DrawCommListener
 		void connectionChanged(ServerComm server);
 	}
 
+	private static final Histogram MESSAGE_INTERVAL = Metrics.histogram("server.interval");
+	private static final Counter MESSAGES = Metrics.counter("server.messages");
+	private static final Counter MESSAGE_BYTES = Metrics.counter("server.bytes");
+
 	private final List<ServerChangeListener> changeListeners = new CopyOnWriteArrayList<>();
 	private Timer autoConnectTimer;
 
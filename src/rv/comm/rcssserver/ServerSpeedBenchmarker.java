@@ -16,8 +16,6 @@
 
 package rv.comm.rcssserver;
 
-import java.util.SortedMap;
-import java.util.TreeMap;
 import rv.comm.rcssserver.GameState.ServerMessageReceivedListener;
 import rv.comm.rcssserver.ServerComm.ServerChangeListener;
 
@@ -33,7 +31,14 @@ public class ServerSpeedBenchmarker implements ServerMessageReceivedListener, Se
 	private float lastGameTime;
 
 	private float serverSpeed = -1;
-	private TreeMap<Long, Float> serverMsgDeltas = new TreeMap<>();
+	/**
+	 * receive times and game time deltas of the messages in the time window, as a ring buffer in
+	 * order of time so that no objects are allocated per message
+	 */
+	private long[] msgTimes = new long[256];
+	private float[] serverMsgDeltas = new float[256];
+	private int first;
+	private int size;
 	private float accumulatedServerTime;
 
 	public String getServerSpeed()
@@ -57,12 +62,12 @@ public class ServerSpeedBenchmarker implements ServerMessageReceivedListener, Se
 
 		float time = gs.getTime();
 
-		// Add message time info to map
-		if (serverMsgDeltas.isEmpty()) {
-			serverMsgDeltas.put(msgTime, -1.0f);
+		// Add message time info to the window
+		if (size == 0) {
+			add(msgTime, -1.0f);
 			accumulatedServerTime = 0;
 		} else {
-			long lastMsgTime = serverMsgDeltas.lastKey();
+			long lastMsgTime = msgTimes[index(size - 1)];
 
 			float serverTimeDelta;
 			if (time - lastGameTime > 0) {
@@ -74,7 +79,7 @@ public class ServerSpeedBenchmarker implements ServerMessageReceivedListener, Se
 			}
 
 			if (msgTime - lastMsgTime > 0) {
-				serverMsgDeltas.put(msgTime, serverTimeDelta + accumulatedServerTime);
+				add(msgTime, serverTimeDelta + accumulatedServerTime);
 				accumulatedServerTime = 0;
 			} else {
 				// Messages are coming in so fast that they have the same time stamp so just save
@@ -83,23 +88,25 @@ public class ServerSpeedBenchmarker implements ServerMessageReceivedListener, Se
 			}
 		}
 
-		// Remove map entries outside of time window
-		SortedMap<Long, Float> oldEntries = serverMsgDeltas.headMap(msgTime - TIME_WINDOW);
-		while (!oldEntries.isEmpty()) {
-			serverMsgDeltas.remove(oldEntries.firstKey());
+		// Remove entries outside of time window
+		while (size > 0 && msgTimes[first] < msgTime - TIME_WINDOW) {
+			first = index(1);
+			size--;
+		}
+		if (size == 0) {
+			serverSpeed = -1;
+			return;
 		}
 
 		float sumDeltas = 0;
-
-		Float[] deltas = serverMsgDeltas.values().toArray(new Float[serverMsgDeltas.size()]);
-		for (int i = 1; i < deltas.length; i++) {
-			float delta = deltas[i];
+		for (int i = 1; i < size; i++) {
+			float delta = serverMsgDeltas[index(i)];
 			if (delta > 0) {
 				sumDeltas += delta;
 			}
 		}
 
-		long timePassed = serverMsgDeltas.lastKey() - serverMsgDeltas.firstKey();
+		long timePassed = msgTimes[index(size - 1)] - msgTimes[first];
 
 		if (timePassed > 0) {
 			if (USE_NANOS) {
@@ -112,6 +119,31 @@ public class ServerSpeedBenchmarker implements ServerMessageReceivedListener, Se
 		}
 	}
 
+	/** Position of the i-th entry of the window in the ring buffer */
+	private int index(int i)
+	{
+		return (first + i) % msgTimes.length;
+	}
+
+	private void add(long time, float delta)
+	{
+		if (size == msgTimes.length) {
+			// only happens until the buffer holds a full time window
+			long[] times = new long[size * 2];
+			float[] deltas = new float[size * 2];
+			for (int i = 0; i < size; i++) {
+				times[i] = msgTimes[index(i)];
+				deltas[i] = serverMsgDeltas[index(i)];
+			}
+			msgTimes = times;
+			serverMsgDeltas = deltas;
+			first = 0;
+		}
+		int i = index(size++);
+		msgTimes[i] = time;
+		serverMsgDeltas[i] = delta;
+	}
+
 	@Override
 	public void gsServerMessageReceived(GameState gs)
 	{
@@ -133,7 +165,8 @@ public class ServerSpeedBenchmarker implements ServerMessageReceivedListener, Se
 	public void connectionChanged(ServerComm server)
 	{
 		if (server.isConnected()) {
-			serverMsgDeltas.clear();
+			size = 0;
+			first = 0;
 		}
 	}
 }
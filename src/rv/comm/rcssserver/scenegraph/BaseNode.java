@@ -26,12 +26,44 @@ public class BaseNode extends Node
 	/** Abbreviation declaring this node type in an s-expression */
 	private static final String EXP_ABRV = "BN";
 
+	private final Timeline timeline;
+	/** Notified when a mesh node below this root is renamed, e.g. to update lookup tables */
+	public interface MeshRenameListener {
+		void meshRenamed(StaticMeshNode node, String oldName);
+	}
+
+	private volatile MeshRenameListener meshRenameListener;
+
 	public BaseNode()
+	{
+		this(new Timeline());
+	}
+
+	public BaseNode(Timeline timeline)
 	{
 		super(null);
+		this.timeline = timeline;
 		// (nd BN <contents>)
 	}
 
+	public Timeline getTimeline()
+	{
+		return timeline;
+	}
+
+	public void setMeshRenameListener(MeshRenameListener listener)
+	{
+		this.meshRenameListener = listener;
+	}
+
+	/** Called by a mesh node below this root after its name changed */
+	void meshRenamed(StaticMeshNode node, String oldName)
+	{
+		MeshRenameListener listener = meshRenameListener;
+		if (listener != null)
+			listener.meshRenamed(node, oldName);
+	}
+
 	@Override
 	public String toString()
 	{
@@ -31,8 +31,11 @@ public abstract class GeometryNode extends Node
 	protected boolean transparent = false;
 	protected boolean visible = false;
 	protected Matrix scale = Matrix.createIdentity();
-	protected String name;
-	protected String[] materials;
+	/** symbols of the name and of the mesh as declared by the load operation, see {@link Symbols} */
+	protected int nameSymbol = Symbols.NONE;
+	private int declaredMeshSymbol = Symbols.NONE;
+	protected Symbols.MaterialList materials;
+	private float[] scaleFactors;
 
 	public boolean isVisible()
 	{
@@ -49,17 +52,30 @@ public abstract class GeometryNode extends Node
 		return scale;
 	}
 
+	/** Gets the interned name of the node */
 	public String getName()
 	{
-		return name;
+		return nameSymbol == Symbols.NONE ? null : Symbols.name(nameSymbol);
+	}
+
+	public int getNameSymbol()
+	{
+		return nameSymbol;
 	}
 
 	public void setName(String name)
 	{
-		this.name = name;
+		this.nameSymbol = Symbols.symbol(name);
 	}
 
+	/** Gets the materials of the node; the array is shared by all nodes and must not be modified */
 	public String[] getMaterials()
+	{
+		return materials == null ? null : materials.getNames();
+	}
+
+	/** Gets the shared material list of the node, or null if its materials weren't reset */
+	public Symbols.MaterialList getMaterialList()
 	{
 		return materials;
 	}
@@ -76,6 +92,7 @@ public abstract class GeometryNode extends Node
 			String operation = e.getAtoms()[0];
 			switch (operation) {
 			case "load":
+				declaredMeshSymbol = Symbols.symbol(e.getAtoms()[1]);
 				load(e);
 				break;
 			case "sSc":
@@ -85,8 +102,7 @@ public abstract class GeometryNode extends Node
 				visible = e.getAtoms()[1].equals("1");
 				break;
 			case "resetMaterials":
-				materials = new String[e.getAtoms().length - 1];
-				System.arraycopy(e.getAtoms(), 1, materials, 0, materials.length);
+				materials = Symbols.materials(e.getAtoms(), 1);
 				break;
 			case "setTransparent":
 				transparent = true;
@@ -102,19 +118,74 @@ public abstract class GeometryNode extends Node
 		float[] xyz = new float[3];
 		for (int i = 0; i < 3; i++)
 			xyz[i] = Float.parseFloat(exp.getAtoms()[i + 1]);
+		scaleFactors = xyz;
 		scale = Matrix.createScale(new Vec3f(xyz));
 		if (localTransform != null)
-			localTransform = localTransform.times(scale);
+			setLocalTransform(localTransform.times(scale));
 		else
-			localTransform = scale;
+			setLocalTransform(scale);
+	}
+
+	/**
+	 * Checks whether a declaration loads the same mesh with the same scale, materials and
+	 * transparency as this node, and if so applies its visibility
+	 */
+	protected boolean reuseGeometry(SExp exp)
+	{
+		boolean declaredTransparent = false;
+		boolean declaredVisible = false;
+		boolean loaded = false;
+		boolean scaled = false;
+		boolean materialsReset = false;
+
+		for (SExp e : exp.getChildren()) {
+			String[] atoms = e.getAtoms();
+			switch (atoms[0]) {
+			case "load":
+				if (Symbols.lookup(atoms[1]) != declaredMeshSymbol)
+					return false;
+				loaded = true;
+				break;
+			case "sSc":
+				if (scaleFactors == null)
+					return false;
+				for (int i = 0; i < 3; i++) {
+					if (Float.parseFloat(atoms[i + 1]) != scaleFactors[i])
+						return false;
+				}
+				scaled = true;
+				break;
+			case "setVisible":
+				declaredVisible = atoms[1].equals("1");
+				break;
+			case "resetMaterials":
+				if (Symbols.materials(atoms, 1) != materials)
+					return false;
+				materialsReset = true;
+				break;
+			case "setTransparent":
+				declaredTransparent = true;
+				break;
+			}
+		}
+
+		if (loaded != (declaredMeshSymbol != Symbols.NONE) || scaled != (scaleFactors != null) ||
+				materialsReset != (materials != null) || declaredTransparent != transparent)
+			return false;
+
+		visible = declaredVisible;
+		return true;
 	}
 
 	public boolean containsMaterial(String name)
 	{
-		for (String material : materials)
-			if (material.equals(name))
-				return true;
-		return false;
+		return containsMaterial(Symbols.lookup(name));
+	}
+
+	/** Checks for a material by its symbol, which avoids looking up the name */
+	public boolean containsMaterial(int symbol)
+	{
+		return symbol != Symbols.NONE && materials != null && materials.contains(symbol);
 	}
 
 	@Override
@@ -129,6 +200,6 @@ public abstract class GeometryNode extends Node
 	@Override
 	public String toString()
 	{
-		return String.format("%s (%s)", getClass().getName(), name);
+		return String.format("%s (%s)", getClass().getName(), getName());
 	}
 }
@@ -16,6 +16,7 @@
 
 package rv.comm.rcssserver.scenegraph;
 
+import java.util.Arrays;
 import rv.comm.rcssserver.SExp;
 
 /**
@@ -36,6 +37,11 @@ public class LightNode extends Node
 		super(parent);
 		// (nd Light (setDiffuse x y z w) (setAmbient x y z w)
 		// (setSpecular x y z w))
+		readValues(exp, diffuse, ambient, specular);
+	}
+
+	private static void readValues(SExp exp, float[] diffuse, float[] ambient, float[] specular)
+	{
 		for (SExp e : exp.getChildren()) {
 			String operation = e.getAtoms()[0];
 			switch (operation) {
@@ -52,8 +58,22 @@ public class LightNode extends Node
 		}
 	}
 
+	/** Lights are kept if a full scene graph declares them with the same colors */
+	@Override
+	protected boolean reuse(SExp exp)
+	{
+		if (!exp.getAtoms()[1].equals(EXP_ABRV))
+			return false;
+		float[] declaredDiffuse = new float[4];
+		float[] declaredAmbient = new float[4];
+		float[] declaredSpecular = new float[4];
+		readValues(exp, declaredDiffuse, declaredAmbient, declaredSpecular);
+		return Arrays.equals(diffuse, declaredDiffuse) && Arrays.equals(ambient, declaredAmbient) &&
+				Arrays.equals(specular, declaredSpecular);
+	}
+
 	/** Copies values to diffuse, ambient, or specular from expression */
-	private void copyValues(SExp exp, float[] array)
+	private static void copyValues(SExp exp, float[] array)
 	{
 		String[] atoms = exp.getAtoms();
 		for (int i = 0; i < 4; i++)
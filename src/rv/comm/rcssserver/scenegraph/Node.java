@@ -38,8 +38,11 @@ public abstract class Node
 	// to other classes
 	protected Matrix localTransform;
 
+	// incremented whenever the local transformation is replaced
+	private int localTransformVersion;
+
 	// initially, the node has no children and is therefore a leaf node
-	protected ArrayList<Node> children;
+	protected volatile ArrayList<Node> children;
 
 	// if the node has no parent, it is assumed to be a root of the graph
 	protected final Node parent;
@@ -70,22 +73,63 @@ public abstract class Node
 	 */
 	public Matrix getWorldTransform()
 	{
+		Matrix local = getLocalTransform();
 		if (parent == null) {
-			if (localTransform == null)
+			if (local == null)
 				return Matrix.createIdentity();
-			return localTransform;
+			return local;
 		} else {
-			if (localTransform == null)
+			if (local == null)
 				return parent.getWorldTransform();
-			return parent.getWorldTransform().times(localTransform);
+			return parent.getWorldTransform().times(local);
 		}
 	}
 
+	/** The local transformation as seen by the renderer, null for identity */
+	protected Matrix getLocalTransform()
+	{
+		return localTransform;
+	}
+
+	/**
+	 * Sum of the local transformation versions of this node and all nodes above it. The versions only
+	 * ever increase, so the sum changes whenever the world transform of this node may have changed.
+	 */
+	public int getTransformVersion()
+	{
+		int version = 0;
+		for (Node node = this; node != null; node = node.parent)
+			version += node.getLocalTransformVersion();
+		return version;
+	}
+
+	/** Version of the local transformation as seen by the renderer, it only ever increases */
+	protected int getLocalTransformVersion()
+	{
+		return localTransformVersion;
+	}
+
+	protected void setLocalTransform(Matrix localTransform)
+	{
+		this.localTransform = localTransform;
+		localTransformVersion++;
+	}
+
 	public Node(Node parent)
 	{
 		this.parent = parent;
 	}
 
+	/**
+	 * Checks whether this node can be kept for a declaration in a full scene graph that replaces the
+	 * one it was created from, and if so applies the declaration's properties. Nodes that can't be
+	 * updated in place are replaced.
+	 */
+	protected boolean reuse(SExp exp)
+	{
+		return false;
+	}
+
 	protected void update(SExp exp)
 	{
 		if (exp.getChildren() == null || children == null)
@@ -17,7 +17,11 @@
 package rv.comm.rcssserver.scenegraph;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import rv.comm.rcssserver.SExp;
 
 /**
@@ -31,15 +35,122 @@ public class SceneGraph
 		void newSceneGraph(SceneGraph sg);
 
 		void updatedSceneGraph(SceneGraph sg);
+
+		/** A subtree was added when a full scene graph was reconciled with this one */
+		void nodeAdded(SceneGraph sg, Node node);
+
+		/** A subtree was removed when a full scene graph was reconciled with this one */
+		void nodeRemoved(SceneGraph sg, Node node);
 	}
 
-	private final Node root;
+	private static final int MAT_LEFT = Symbols.symbol("matLeft");
+	private static final int MAT_RIGHT = Symbols.symbol("matRight");
+
+	/**
+	 * Lookup tables of the mesh nodes, rebuilt whenever the structure of the graph changes. Renamed
+	 * nodes are moved in the mesh name table, whose lists are replaced instead of modified.
+	 */
+	private static class Index
+	{
+		/** mesh nodes in depth-first order by each of their materials */
+		private final Map<String, List<StaticMeshNode>> nodesByMaterial = new HashMap<>();
+		/** mesh nodes in depth-first order by each suffix of their mesh name that starts a path segment */
+		private final Map<String, List<StaticMeshNode>> nodesByMeshSuffix = new ConcurrentHashMap<>();
+		/** depth-first position of each mesh node, to keep the order when a node is renamed */
+		private final Map<StaticMeshNode, Integer> ordinals = new HashMap<>();
+		/** agent root nodes by team material (matLeft / matRight) and number material (matNum1 etc.) */
+		private final Map<String, Node> agentRoots = new HashMap<>();
+
+		private void add(StaticMeshNode node)
+		{
+			String[] materials = node.getMaterials();
+			if (materials != null) {
+				for (String material : materials)
+					nodesByMaterial.computeIfAbsent(material, m -> new ArrayList<>(2)).add(node);
+				addAgent(node, materials, MAT_LEFT, "matLeft");
+				addAgent(node, materials, MAT_RIGHT, "matRight");
+			}
+
+			// nodes are added in depth-first order
+			ordinals.put(node, ordinals.size());
+			forEachSuffix(node.getName(),
+					suffix -> nodesByMeshSuffix.computeIfAbsent(suffix, n -> new ArrayList<>(2)).add(node));
+		}
+
+		/** Moves a renamed node from the entries of its old mesh name to the ones of its new name */
+		private void rename(StaticMeshNode node, String oldName)
+		{
+			// nodes that aren't indexed yet are added with their new name
+			if (!ordinals.containsKey(node))
+				return;
+			forEachSuffix(oldName, suffix -> nodesByMeshSuffix.computeIfPresent(suffix, (s, nodes) -> {
+				List<StaticMeshNode> result = new ArrayList<>(nodes);
+				result.remove(node);
+				return result.isEmpty() ? null : result;
+			}));
+			forEachSuffix(node.getName(),
+					suffix -> nodesByMeshSuffix.compute(suffix, (s, nodes) -> with(nodes, node)));
+		}
+
+		/** Copy of a list of nodes with a node inserted at its depth-first position */
+		private List<StaticMeshNode> with(List<StaticMeshNode> nodes, StaticMeshNode node)
+		{
+			if (nodes == null) {
+				List<StaticMeshNode> result = new ArrayList<>(2);
+				result.add(node);
+				return result;
+			}
+			int ordinal = ordinals.get(node);
+			int i = 0;
+			while (i < nodes.size() && ordinals.get(nodes.get(i)) < ordinal)
+				i++;
+			List<StaticMeshNode> result = new ArrayList<>(nodes.size() + 1);
+			result.addAll(nodes);
+			result.add(i, node);
+			return result;
+		}
+
+		/** Passes the mesh name and each suffix of it that starts a path segment */
+		private static void forEachSuffix(String name, Consumer<String> action)
+		{
+			if (name == null)
+				return;
+			action.accept(name);
+			for (int i = name.indexOf('/'); i != -1; i = name.indexOf('/', i + 1))
+				action.accept(name.substring(i + 1));
+		}
+
+		private void addAgent(StaticMeshNode node, String[] materials, int teamSymbol, String teamMaterial)
+		{
+			if (!node.containsMaterial(teamSymbol))
+				return;
+
+			// root of the agent node is one level lower than root of entire scene graph
+			Node agentRoot = node;
+			while (agentRoot.getParent() != null && agentRoot.getParent().getParent() != null)
+				agentRoot = agentRoot.getParent();
+
+			for (String material : materials) {
+				if (material.startsWith("matNum"))
+					agentRoots.putIfAbsent(teamMaterial + " " + material, agentRoot);
+			}
+		}
+	}
+
+	private final BaseNode root;
+	private volatile Index index = new Index();
 
 	public Node getRoot()
 	{
 		return root;
 	}
 
+	/** Frame and display times used to interpolate the transforms of this graph */
+	public Timeline getTimeline()
+	{
+		return root.getTimeline();
+	}
+
 	public void print()
 	{
 		print(root, 0, 0);
@@ -72,6 +183,11 @@ public class SceneGraph
 	/** Finds the first instance of a StaticMeshNode with a specified name */
 	public StaticMeshNode findStaticMeshNode(String name)
 	{
+		// only suffixes starting a path segment are indexed, others (like "ball.obj" for
+		// "models/soccerball.obj") still need a search
+		List<StaticMeshNode> nodes = index.nodesByMeshSuffix.get(name);
+		if (nodes != null)
+			return nodes.get(0);
 		return findStaticMeshNode(root, name);
 	}
 
@@ -81,33 +197,32 @@ public class SceneGraph
 	 */
 	public StaticMeshNode findStaticMeshNode(Node node, String[] materials)
 	{
-		// check if current node is the node we're looking for
-		if (node instanceof StaticMeshNode) {
-			StaticMeshNode smn = (StaticMeshNode) node;
-			String[] nodeMats = smn.getMaterials();
-
-			// make sure each material in the list is in the node's materials
-			int numMatsContained = 0;
-			for (String material : materials) {
-				boolean containsMaterial = false;
-
-				// see if node contains current material and stop when it is
-				// found
-				for (String nodeMat : nodeMats) {
-					if (nodeMat.equals(material)) {
-						containsMaterial = true;
-						numMatsContained++;
-						break;
-					}
-				}
+		int[] symbols = new int[materials.length];
+		for (int i = 0; i < materials.length; i++) {
+			symbols[i] = Symbols.lookup(materials[i]);
+			if (symbols[i] == Symbols.NONE)
+				return null; // no node has a material that was never declared
+		}
 
-				// if current material in list wasn't found, don't bother
-				// checking for the others
-				if (!containsMaterial)
-					break;
+		if (node == root && materials.length > 0) {
+			List<StaticMeshNode> candidates = index.nodesByMaterial.get(materials[0]);
+			if (candidates == null)
+				return null;
+			for (StaticMeshNode candidate : candidates) {
+				if (containsAllMaterials(candidate, symbols))
+					return candidate;
 			}
+			return null;
+		}
+		return findStaticMeshNode(node, symbols);
+	}
 
-			if (numMatsContained == materials.length)
+	private static StaticMeshNode findStaticMeshNode(Node node, int[] materials)
+	{
+		// check if current node is the node we're looking for
+		if (node instanceof StaticMeshNode) {
+			StaticMeshNode smn = (StaticMeshNode) node;
+			if (containsAllMaterials(smn, materials))
 				return smn;
 		}
 
@@ -126,12 +241,32 @@ public class SceneGraph
 		return null;
 	}
 
+	private static boolean containsAllMaterials(StaticMeshNode node, int[] materials)
+	{
+		for (int material : materials) {
+			if (!node.containsMaterial(material))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Finds the root node of an agent, which is the child of the scene graph root containing the
+	 * first mesh node that has both the team material (matLeft or matRight) and the number material
+	 * (matNum1, matNum2, ...) of the agent. Returns null if there is no such agent.
+	 */
+	public Node findAgentRoot(String teamMaterial, String numberMaterial)
+	{
+		return index.agentRoots.get(teamMaterial + " " + numberMaterial);
+	}
+
 	private StaticMeshNode findStaticMeshNode(Node parent, String name)
 	{
 		// check if current node is the node we're looking for
 		if (parent instanceof StaticMeshNode) {
 			StaticMeshNode smn = (StaticMeshNode) parent;
-			if (smn.name.endsWith(name))
+			String meshName = smn.getName();
+			if (meshName != null && meshName.endsWith(name))
 				return smn;
 		}
 
@@ -173,9 +308,10 @@ public class SceneGraph
 		if (node instanceof StaticMeshNode)
 			list.add((StaticMeshNode) node);
 
-		if (node.getChildren() != null) {
-			for (int i = 0; i < node.getChildren().size(); i++)
-				appendMeshNode(list, node.getChildren().get(i));
+		ArrayList<Node> children = node.getChildren();
+		if (children != null) {
+			for (int i = 0; i < children.size(); i++)
+				appendMeshNode(list, children.get(i));
 		}
 	}
 
@@ -185,7 +321,8 @@ public class SceneGraph
 	public SceneGraph(SExp exp)
 	{
 		root = new BaseNode();
-		readNodes(root, exp);
+		root.setMeshRenameListener((node, oldName) -> index.rename(node, oldName));
+		readNodes(root, exp, index);
 	}
 
 	/**
@@ -196,10 +333,95 @@ public class SceneGraph
 		root.update(exp);
 	}
 
+	/**
+	 * Reconciles the graph with a full scene graph expression instead of replacing it. Nodes are
+	 * paired with the declarations at the same position below the same parent; nodes that match
+	 * their declaration are kept (including everything cached on them) and only have their
+	 * transformation updated, all other subtrees are replaced by new ones. The roots of the added and
+	 * removed subtrees are appended to the given lists.
+	 */
+	public void reconcile(SExp exp, List<Node> added, List<Node> removed)
+	{
+		Index newIndex = new Index();
+		reconcileNodes(root, exp, newIndex, added, removed);
+		index = newIndex;
+	}
+
+	private void reconcileNodes(Node parent, SExp exp, Index index, List<Node> added, List<Node> removed)
+	{
+		ArrayList<Node> oldChildren = parent.children;
+		ArrayList<Node> children = new ArrayList<>();
+		int oldIndex = 0;
+
+		ArrayList<SExp> subExpressions = exp.getChildren();
+		if (subExpressions != null) {
+			for (SExp e : subExpressions) {
+				String[] atoms = e.getAtoms();
+				if (!atoms[0].equals(Node.DECL_ABRV) || !isKnownType(atoms[1]))
+					continue;
+
+				Node oldNode = oldChildren != null && oldIndex < oldChildren.size() ? oldChildren.get(oldIndex++) : null;
+				if (oldNode != null && oldNode.reuse(e)) {
+					children.add(oldNode);
+					if (oldNode instanceof StaticMeshNode)
+						index.add((StaticMeshNode) oldNode);
+					reconcileNodes(oldNode, e, index, added, removed);
+				} else {
+					if (oldNode != null)
+						removed.add(oldNode);
+					Node node = createNode(parent, e, index);
+					children.add(node);
+					added.add(node);
+					readNodes(node, e, index);
+				}
+			}
+		}
+
+		if (oldChildren != null) {
+			for (int i = oldIndex; i < oldChildren.size(); i++)
+				removed.add(oldChildren.get(i));
+		}
+
+		// the children are replaced at once, so concurrent readers see either the old or new list
+		parent.children = children.isEmpty() ? null : children;
+	}
+
+	private static boolean isKnownType(String type)
+	{
+		switch (type) {
+		case TransformNode.EXP_ABRV:
+		case LightNode.EXP_ABRV:
+		case StaticMeshNode.EXP_ABRV:
+		case StandardMeshNode.EXP_ABRV:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/** Creates the node declared by expression e */
+	private static Node createNode(Node parent, SExp e, Index index)
+	{
+		switch (e.getAtoms()[1]) {
+		case TransformNode.EXP_ABRV:
+			return new TransformNode(parent, e);
+		case LightNode.EXP_ABRV:
+			return new LightNode(parent, e);
+		case StaticMeshNode.EXP_ABRV:
+			StaticMeshNode meshNode = new StaticMeshNode(parent, e);
+			index.add(meshNode);
+			return meshNode;
+		case StandardMeshNode.EXP_ABRV:
+			return new StandardMeshNode(parent, e);
+		default:
+			return null;
+		}
+	}
+
 	/**
 	 * Recursive method that reads nodes from expression and adds them to parent
 	 */
-	private void readNodes(Node parent, SExp exp)
+	private void readNodes(Node parent, SExp exp, Index index)
 	{
 		// if there are no children expressions, the parent node must be a leaf
 		ArrayList<SExp> subExpressions = exp.getChildren();
@@ -211,30 +433,14 @@ public class SceneGraph
 			// each node declaration starts with "nd" followed by its type
 			String[] atoms = e.getAtoms();
 			if (atoms[0].equals(Node.DECL_ABRV)) {
-				String type = atoms[1];
-				Node node = null;
-				switch (type) {
-				case TransformNode.EXP_ABRV:
-					node = new TransformNode(parent, e);
-					break;
-				case LightNode.EXP_ABRV:
-					node = new LightNode(parent, e);
-					break;
-				case StaticMeshNode.EXP_ABRV:
-					node = new StaticMeshNode(parent, e);
-					break;
-				case StandardMeshNode.EXP_ABRV:
-					node = new StandardMeshNode(parent, exp);
-					break;
-				}
-
+				Node node = createNode(parent, e, index);
 				if (node != null) {
 					if (parent.children == null)
 						parent.children = new ArrayList<>();
 					parent.children.add(node);
 
 					// keep reading child's branch of nodes recursively
-					readNodes(node, e);
+					readNodes(node, e, index);
 				}
 			}
 		}
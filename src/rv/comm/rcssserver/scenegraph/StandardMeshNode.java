@@ -39,10 +39,16 @@ public class StandardMeshNode extends GeometryNode
 		// matDarkGrey))
 	}
 
+	@Override
+	protected boolean reuse(SExp exp)
+	{
+		return exp.getAtoms()[1].equals(EXP_ABRV) && reuseGeometry(exp);
+	}
+
 	@Override
 	protected void load(SExp exp)
 	{
 		// TODO Auto-generated method stub
-		name = exp.getAtoms()[1];
+		nameSymbol = Symbols.symbol(exp.getAtoms()[1]);
 	}
 }
@@ -16,7 +16,10 @@
 
 package rv.comm.rcssserver.scenegraph;
 
+import java.util.Arrays;
 import rv.comm.rcssserver.SExp;
+import rv.content.ContentManager;
+import rv.content.Model;
 
 /**
  * Mesh loaded from an .obj file
@@ -28,12 +31,45 @@ public class StaticMeshNode extends GeometryNode
 	/** Abbreviation declaring this node type in an s-expression */
 	public static final String EXP_ABRV = "StaticMesh";
 
-	final String s;
+	/** Material variant that has not been resolved yet */
+	public static final int VARIANT_UNKNOWN = Integer.MIN_VALUE;
+
+	/** model resolved by a content manager, published together with the manager */
+	private static final class CachedModel
+	{
+		final ContentManager owner;
+		final Model model;
+
+		CachedModel(ContentManager owner, Model model)
+		{
+			this.owner = owner;
+			this.model = model;
+		}
+	}
+
+	/** material variant resolved by a content manager for the materials it was computed from */
+	private static final class CachedVariant
+	{
+		final ContentManager owner;
+		final Symbols.MaterialList materials;
+		final int variant;
+
+		CachedVariant(ContentManager owner, Symbols.MaterialList materials, int variant)
+		{
+			this.owner = owner;
+			this.materials = materials;
+			this.variant = variant;
+		}
+	}
+
+	// cached to avoid looking them up by name every frame; each cache is replaced as a whole, so
+	// readers on other threads never see the value of one manager with another manager
+	private volatile CachedModel cachedModel;
+	private volatile CachedVariant cachedVariant;
 
 	public StaticMeshNode(Node parent, SExp exp)
 	{
 		super(parent, exp);
-		s = exp.toString();
 		// (nd StaticMesh (load <model>) (sSc <x> <y> <z>) (setVisible 1)
 		// (setTransparent) (resetMaterials <material-list>))
 	}
@@ -41,12 +77,67 @@ public class StaticMeshNode extends GeometryNode
 	@Override
 	protected void load(SExp exp)
 	{
-		name = exp.getAtoms()[1];
+		// mesh names are shared by many nodes and used as keys for model lookups
+		nameSymbol = Symbols.symbol(exp.getAtoms()[1]);
+		cachedModel = null;
+	}
+
+	@Override
+	public void setName(String name)
+	{
+		String oldName = getName();
+		if (name.equals(oldName))
+			return;
+		super.setName(name);
+		cachedModel = null;
+
+		Node root = this;
+		while (root.getParent() != null)
+			root = root.getParent();
+		if (root instanceof BaseNode)
+			((BaseNode) root).meshRenamed(this, oldName);
+	}
+
+	@Override
+	protected boolean reuse(SExp exp)
+	{
+		return exp.getAtoms()[1].equals(EXP_ABRV) && reuseGeometry(exp);
+	}
+
+	/** Gets the model cached for the given content manager, or null if there is none */
+	public Model getCachedModel(ContentManager owner)
+	{
+		CachedModel cached = cachedModel;
+		return cached != null && cached.owner == owner ? cached.model : null;
+	}
+
+	public void cacheModel(ContentManager owner, Model model)
+	{
+		cachedModel = new CachedModel(owner, model);
+	}
+
+	/**
+	 * Gets the material variant cached for the given content manager, or {@link #VARIANT_UNKNOWN}
+	 * if there is none or the node's materials have been reset since
+	 */
+	public int getCachedMaterialVariant(ContentManager owner)
+	{
+		CachedVariant cached = cachedVariant;
+		if (cached == null || cached.owner != owner || cached.materials != materials)
+			return VARIANT_UNKNOWN;
+		return cached.variant;
+	}
+
+	/** Caches a variant computed from the given materials, which are compared when it is read */
+	public void cacheMaterialVariant(ContentManager owner, Symbols.MaterialList materials, int variant)
+	{
+		cachedVariant = new CachedVariant(owner, materials, variant);
 	}
 
 	@Override
 	public String toString()
 	{
-		return StaticMeshNode.class.getName() + ": " + s;
+		return StaticMeshNode.class.getName() + ": " + getName() +
+				(materials == null ? "" : " " + Arrays.toString(materials.getNames()));
 	}
 }
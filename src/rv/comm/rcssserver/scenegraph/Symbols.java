@@ -0,0 +1,177 @@
+/*
+ *  Copyright 2011 RoboViz
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package rv.comm.rcssserver.scenegraph;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Intern table for the mesh names and materials of scene graph nodes. Every distinct name gets a
+ * small integer symbol and every distinct material list a single shared instance, so that the many
+ * nodes of a scene graph (and of the scene graphs that replace it) don't keep their own copies and
+ * can be compared by identity. The symbols are never released; the set of names used by a server
+ * is small.
+ */
+public final class Symbols
+{
+	/** Symbol of strings that are not in the table */
+	public static final int NONE = -1;
+
+	/** Shared, immutable list of the materials of a node */
+	public static final class MaterialList
+	{
+		private final String[] names;
+		private final int[] symbols;
+
+		private MaterialList(String[] names)
+		{
+			this.names = names;
+			symbols = new int[names.length];
+			for (int i = 0; i < names.length; i++)
+				symbols[i] = symbol(names[i]);
+		}
+
+		/** The material names; the array is shared and must not be modified */
+		public String[] getNames()
+		{
+			return names;
+		}
+
+		public int size()
+		{
+			return symbols.length;
+		}
+
+		/** The symbol of the i-th material */
+		public int getSymbol(int i)
+		{
+			return symbols[i];
+		}
+
+		public boolean contains(int symbol)
+		{
+			for (int s : symbols)
+				if (s == symbol)
+					return true;
+			return false;
+		}
+	}
+
+	/** Key for looking up material lists by the atoms of an expression without copying them */
+	private static final class Key
+	{
+		private final String[] atoms;
+		private final int from;
+		private final int hash;
+
+		private Key(String[] atoms, int from)
+		{
+			this.atoms = atoms;
+			this.from = from;
+			int h = 1;
+			for (int i = from; i < atoms.length; i++)
+				h = 31 * h + atoms[i].hashCode();
+			hash = h;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			int length = atoms.length - from;
+			if (other.atoms.length - other.from != length)
+				return false;
+			for (int i = 0; i < length; i++) {
+				if (!atoms[from + i].equals(other.atoms[other.from + i]))
+					return false;
+			}
+			return true;
+		}
+	}
+
+	private static final ConcurrentHashMap<String, Integer> symbols = new ConcurrentHashMap<>();
+	private static volatile String[] names = new String[64];
+	private static int numSymbols = 0;
+
+	private static final ConcurrentHashMap<Key, MaterialList> materialLists = new ConcurrentHashMap<>();
+
+	private Symbols()
+	{
+	}
+
+	/** Gets the symbol of a name, adding it to the table if necessary */
+	public static int symbol(String name)
+	{
+		Integer symbol = symbols.get(name);
+		if (symbol != null)
+			return symbol;
+		return add(name);
+	}
+
+	private static synchronized int add(String name)
+	{
+		Integer symbol = symbols.get(name);
+		if (symbol != null)
+			return symbol;
+
+		// the names are published before the symbol, so name(symbol) never sees a stale array
+		String[] table = names;
+		if (numSymbols == table.length)
+			table = Arrays.copyOf(table, table.length * 2);
+		table[numSymbols] = name.intern();
+		names = table;
+		symbols.put(table[numSymbols], numSymbols);
+		return numSymbols++;
+	}
+
+	/** Gets the symbol of a name without adding it, or {@link #NONE} if it isn't in the table */
+	public static int lookup(String name)
+	{
+		Integer symbol = symbols.get(name);
+		return symbol == null ? NONE : symbol;
+	}
+
+	/** Gets the canonical (interned) name of a symbol */
+	public static String name(int symbol)
+	{
+		return names[symbol];
+	}
+
+	/** Gets the shared material list for the atoms of an expression starting at index from */
+	public static MaterialList materials(String[] atoms, int from)
+	{
+		Key key = new Key(atoms, from);
+		MaterialList list = materialLists.get(key);
+		if (list != null)
+			return list;
+
+		String[] names = new String[atoms.length - from];
+		for (int i = 0; i < names.length; i++)
+			names[i] = name(symbol(atoms[from + i]));
+		list = new MaterialList(names);
+		MaterialList existing = materialLists.putIfAbsent(new Key(names, 0), list);
+		return existing == null ? list : existing;
+	}
+}
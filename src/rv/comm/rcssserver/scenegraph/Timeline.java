@@ -0,0 +1,117 @@
+/*
+ *  Copyright 2011 RoboViz
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package rv.comm.rcssserver.scenegraph;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Receive times of the server frames applied to a scene graph and the display time at which the
+ * renderer samples it. Transform nodes keep their two most recent states and interpolate between
+ * them at the display time, which trails the latest frame by the average frame interval so that
+ * there usually is a newer state to move towards.
+ */
+public class Timeline
+{
+	/** weight of a new frame interval in the running average */
+	private static final double INTERVAL_SMOOTHING = 0.1;
+	/** longer intervals are pauses (or seeking in logs) and don't count towards the average */
+	private static final long MAX_INTERVAL_NS = 200000000L;
+
+	private volatile boolean enabled = false;
+	private LongSupplier clock = System::nanoTime;
+	private boolean fixedDelay = false;
+
+	// written by the thread applying server frames
+	private volatile long frameTime = System.nanoTime();
+	private volatile long delay;
+	private double averageInterval;
+
+	// written by the render thread
+	private volatile long displayTime;
+	private int displayFrame;
+
+	public boolean isEnabled()
+	{
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled)
+	{
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Takes the frame times from another clock that advances by a fixed interval per frame, instead
+	 * of the receive times of the frames. The display time then trails the clock by that interval.
+	 * Used for rendering logs at exact game times.
+	 */
+	public void setClock(LongSupplier clock, long frameInterval)
+	{
+		this.clock = clock;
+		frameTime = clock.getAsLong();
+		delay = frameInterval;
+		fixedDelay = true;
+	}
+
+	/** Called before a server frame is applied to the scene graph */
+	public void beginFrame()
+	{
+		long now = clock.getAsLong();
+		long interval = now - frameTime;
+		if (!fixedDelay && interval < MAX_INTERVAL_NS) {
+			if (averageInterval == 0)
+				averageInterval = interval;
+			else
+				averageInterval += INTERVAL_SMOOTHING * (interval - averageInterval);
+			delay = (long) averageInterval;
+		}
+		frameTime = now;
+	}
+
+	/** Receive time of the frame that is currently or was last applied */
+	public long getFrameTime()
+	{
+		return frameTime;
+	}
+
+	/** Called by the render thread once per rendered frame */
+	public void setDisplayTime(long now)
+	{
+		displayTime = now - delay;
+		displayFrame++;
+	}
+
+	public long getDisplayTime()
+	{
+		return displayTime;
+	}
+
+	/** Counts the calls of {@link #setDisplayTime(long)}, for caching per rendered frame */
+	public int getDisplayFrame()
+	{
+		return displayFrame;
+	}
+
+	/**
+	 * Whether transforms may currently be in between two states. If not, all nodes are at their most
+	 * recent state.
+	 */
+	public boolean isBlending()
+	{
+		return enabled && displayTime < frameTime;
+	}
+}
@@ -16,8 +16,11 @@
 
 package rv.comm.rcssserver.scenegraph;
 
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
 import js.math.vector.Matrix;
 import rv.comm.rcssserver.SExp;
+import rv.util.TransformUtil;
 
 /**
  * Describes a local transformation (translation, rotation, scale) applied to current node and all
@@ -30,9 +33,41 @@ public class TransformNode extends Node
 	/** Abbreviation declaring this node type in an s-expression */
 	public static final String EXP_ABRV = "TRF";
 
+	/**
+	 * The two most recent states, numbered from 1: the latest state n is at index n % 2 and the
+	 * previous one at (n - 1) % 2. The network thread writes them under {@link #lock}, the render
+	 * thread reads them optimistically and validates the stamp afterwards, which also fences the
+	 * reads.
+	 */
+	private final double[][] states = new double[2][16];
+	private final long[] stateTimes = new long[2];
+	private int written = 0;
+	private final StampedLock lock = new StampedLock();
+
+	private final Timeline timeline;
+
+	// confined to the "World Update" stage, which uses them under WorldModel#getFrameLock(); not
+	// safe to use from the GL thread
+	private final double[] previous = new double[16];
+	private final double[] latest = new double[16];
+	private final double[] blendedValues = new double[16];
+	private final double[] previousRotation = new double[4];
+	private final double[] latestRotation = new double[4];
+	private final Matrix blended = new Matrix(blendedValues);
+	private long previousStateTime;
+	private long latestStateTime;
+	private int blendedFrame = -1;
+	private boolean isBlended;
+	/** incremented whenever the blended transformation moves */
+	private int blendVersion;
+
 	public TransformNode(Node parent, SExp exp)
 	{
 		super(parent);
+		Node root = parent;
+		while (root.getParent() != null)
+			root = root.getParent();
+		timeline = root instanceof BaseNode ? ((BaseNode) root).getTimeline() : new Timeline();
 		// (nd TRF (SLT nx ny nz 0 ox oy oz 0 ax ay az 0 Px Py Pz 1 ))
 
 		// [nx ox ax Px]
@@ -54,10 +89,92 @@ public class TransformNode extends Node
 					// ignore nan values from a server bug (see https://gitlab.com/robocup-sim/SimSpark/issues/5)
 				}
 			}
-			localTransform = new Matrix(a);
+			setLocalTransform(new Matrix(a));
+
+			long stamp = lock.writeLock();
+			try {
+				int n = written + 1;
+				System.arraycopy(a, 0, states[n & 1], 0, 16);
+				stateTimes[n & 1] = timeline.getFrameTime();
+				written = n;
+			} finally {
+				lock.unlockWrite(stamp);
+			}
 		}
 	}
 
+	@Override
+	protected Matrix getLocalTransform()
+	{
+		if (!timeline.isBlending())
+			return localTransform;
+
+		int frame = timeline.getDisplayFrame();
+		if (frame != blendedFrame) {
+			blendedFrame = frame;
+			boolean wasBlended = isBlended;
+			isBlended = blend(timeline.getDisplayTime());
+			if (isBlended || wasBlended)
+				blendVersion++;
+		}
+		return isBlended ? blended : localTransform;
+	}
+
+	@Override
+	protected int getLocalTransformVersion()
+	{
+		if (timeline.isBlending())
+			getLocalTransform();
+		return super.getLocalTransformVersion() + blendVersion;
+	}
+
+	/** Interpolates the two most recent states at the given time, returns false if not needed */
+	private boolean blend(long time)
+	{
+		long stamp = lock.tryOptimisticRead();
+		boolean available = readStates();
+		if (!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			try {
+				available = readStates();
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+		if (!available || Arrays.equals(previous, latest))
+			return false;
+
+		long previousTime = previousStateTime;
+		long latestTime = latestStateTime;
+		if (time >= latestTime || latestTime <= previousTime)
+			return false;
+		double t = Math.max(0, (double) (time - previousTime) / (latestTime - previousTime));
+		TransformUtil.interpolate(previous, latest, t, blendedValues, previousRotation, latestRotation);
+		return true;
+	}
+
+	/** Copies the two most recent states, the result is only valid if the lock stamp is */
+	private boolean readStates()
+	{
+		int n = written;
+		if (n < 2)
+			return false;
+		System.arraycopy(states[(n - 1) & 1], 0, previous, 0, 16);
+		System.arraycopy(states[n & 1], 0, latest, 0, 16);
+		previousStateTime = stateTimes[(n - 1) & 1];
+		latestStateTime = stateTimes[n & 1];
+		return true;
+	}
+
+	@Override
+	protected boolean reuse(SExp exp)
+	{
+		if (!exp.getAtoms()[1].equals(EXP_ABRV))
+			return false;
+		setMatrix(exp.getChildren().get(0).getAtoms());
+		return true;
+	}
+
 	@Override
 	public void update(SExp exp)
 	{
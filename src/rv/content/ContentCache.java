@@ -0,0 +1,574 @@
+/*
+ *  Copyright 2011 RoboViz
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package rv.content;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import javax.media.opengl.GL;
+import js.jogl.Texture2D;
+import js.jogl.model.Mesh;
+import js.jogl.model.MeshFace;
+import js.jogl.model.MeshPart;
+import js.jogl.model.MeshVertex;
+import js.jogl.model.ObjMaterial;
+import js.jogl.model.ObjMaterialLibrary;
+import js.math.BoundingBox;
+import js.math.vector.Vec3f;
+import rv.ui.DebugInfo;
+
+/**
+ * Cache of preprocessed content in the user's RoboViz directory, so that the textual .obj files
+ * don't have to be parsed and the textures don't have to be decoded on every start (and every time
+ * the content manager is recreated). Meshes are stored as flat vertex and index arrays with their
+ * bounds and material names, textures as raw pixel rows in the order OpenGL expects them. Entries
+ * are validated by a hash of their source, so changed resources are simply processed again. Files
+ * are read completely rather than memory-mapped, so they can be replaced while textures are in use.
+ * Files that haven't been used for a while are removed, as are the oldest ones once the cache
+ * grows too large.
+ */
+public class ContentCache
+{
+	private static final int MESH_MAGIC = 0x52564D48; // RVMH
+	private static final int TEXTURE_MAGIC = 0x52565458; // RVTX
+	/** increment when the format of the files changes */
+	private static final int VERSION = 1;
+	private static final int HASH_LENGTH = 20;
+	private static final long MAX_SIZE = 256L * 1024 * 1024;
+	private static final long MAX_AGE_MS = TimeUnit.DAYS.toMillis(30);
+	/** files are only touched when used if they are older than this, to avoid a write per read */
+	private static final long TOUCH_INTERVAL_MS = TimeUnit.DAYS.toMillis(1);
+	/** temporary files of this age are left over from writes that didn't complete */
+	private static final long MAX_TMP_AGE_MS = TimeUnit.HOURS.toMillis(1);
+
+	/** Decoded texture pixels, bottom row first */
+	public static class TextureData
+	{
+		public final int width;
+		public final int height;
+		public final boolean alpha;
+		public final ByteBuffer pixels;
+
+		private TextureData(int width, int height, boolean alpha, ByteBuffer pixels)
+		{
+			this.width = width;
+			this.height = height;
+			this.alpha = alpha;
+			this.pixels = pixels;
+		}
+
+		/** Creates a texture from the pixels like {@link Texture2D#loadTex(GL, BufferedImage)} */
+		public Texture2D createTexture(GL gl)
+		{
+			Texture2D texture = Texture2D.generate(gl);
+			gl.glPixelStorei(GL.GL_UNPACK_ALIGNMENT, 1);
+			texture.bind(gl);
+			Texture2D.setParameter(gl, GL.GL_TEXTURE_MAG_FILTER, GL.GL_LINEAR);
+			Texture2D.setParameter(gl, GL.GL_TEXTURE_MIN_FILTER, GL.GL_LINEAR);
+			int format = alpha ? GL.GL_RGBA : GL.GL_RGB;
+			texture.texImage(gl, 0, format, width, height, 0, format, GL.GL_UNSIGNED_BYTE, pixels);
+			Texture2D.unbind(gl);
+			return texture;
+		}
+	}
+
+	/** directory of the cache files, or null if the cache is disabled */
+	private final File directory;
+
+	public ContentCache(File directory)
+	{
+		if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+			DebugInfo.println(getClass(), "Content cache disabled, can't create " + directory);
+			directory = null;
+		}
+		this.directory = directory;
+		if (directory != null)
+			prune(directory, System.currentTimeMillis());
+	}
+
+	/**
+	 * Removes files that haven't been used for {@link #MAX_AGE_MS}, then the least recently used
+	 * ones until the cache is no larger than {@link #MAX_SIZE}
+	 */
+	private static void prune(File directory, long now)
+	{
+		File[] files = directory.listFiles(File::isFile);
+		if (files == null)
+			return;
+
+		List<File> kept = new ArrayList<>();
+		long size = 0;
+		for (File file : files) {
+			long age = now - file.lastModified();
+			boolean tmp = file.getName().endsWith(".tmp");
+			if (age > (tmp ? MAX_TMP_AGE_MS : MAX_AGE_MS)) {
+				delete(file);
+			} else if (!tmp) {
+				kept.add(file);
+				size += file.length();
+			}
+		}
+
+		kept.sort(Comparator.comparingLong(File::lastModified));
+		for (int i = 0; i < kept.size() && size > MAX_SIZE; i++) {
+			size -= kept.get(i).length();
+			delete(kept.get(i));
+		}
+	}
+
+	private static void delete(File file)
+	{
+		if (!file.delete())
+			DebugInfo.println(ContentCache.class, "Could not delete " + file);
+	}
+
+	/** Marks a cache file as used, which keeps it from being pruned */
+	private static void touch(File file)
+	{
+		long now = System.currentTimeMillis();
+		if (now - file.lastModified() > TOUCH_INTERVAL_MS)
+			file.setLastModified(now);
+	}
+
+	/** The default cache directory in the user's RoboViz directory */
+	public static File getDefaultDirectory()
+	{
+		return new File(System.getProperty("user.home") + "/.roboviz/cache");
+	}
+
+	public static byte[] readFully(InputStream is) throws IOException
+	{
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(is.available(), 4096));
+			byte[] buffer = new byte[16384];
+			int n;
+			while ((n = is.read(buffer)) != -1)
+				out.write(buffer, 0, n);
+			return out.toByteArray();
+		} finally {
+			is.close();
+		}
+	}
+
+	private static byte[] hash(byte[] data)
+	{
+		try {
+			return MessageDigest.getInstance("SHA-1").digest(data);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String toHex(byte[] bytes)
+	{
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes)
+			sb.append(String.format("%02x", b));
+		return sb.toString();
+	}
+
+	/**
+	 * Gets a mesh from its .obj source, from the cache if possible. The materials are loaded from
+	 * the material libraries the source refers to, like {@link js.jogl.model.ObjMeshImporter} does.
+	 *
+	 * @param name
+	 *            - path of the mesh within the content root, for naming the cache file
+	 * @param source
+	 *            - contents of the .obj file
+	 * @param importer
+	 *            - parses the mesh if it isn't cached
+	 */
+	public Mesh getMesh(String name, byte[] source, MeshImporter importer, ClassLoader cl) throws IOException
+	{
+		byte[] hash = hash(source);
+		File file = directory == null ? null : new File(directory, name.replaceAll("[^A-Za-z0-9._-]", "_") + ".mesh");
+
+		if (file != null && file.isFile()) {
+			try {
+				Mesh mesh = readMesh(file, hash, cl);
+				if (mesh != null) {
+					touch(file);
+					return mesh;
+				}
+			} catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+				DebugInfo.println(getClass(), "Ignoring invalid cache file " + file);
+			}
+		}
+
+		Mesh mesh = importer.load(source);
+		if (file != null && mesh != null) {
+			try {
+				writeMesh(file, hash, materialLibraries(source), mesh);
+			} catch (IOException e) {
+				DebugInfo.println(getClass(), "Could not write " + file + ": " + e.getMessage());
+			}
+		}
+		return mesh;
+	}
+
+	/** Parses mesh sources that aren't cached */
+	public interface MeshImporter
+	{
+		Mesh load(byte[] source) throws IOException;
+	}
+
+	/**
+	 * Gets the decoded pixels of an image file, from the cache if possible. Returns null if the
+	 * image can't be decoded.
+	 */
+	public TextureData getTexture(byte[] source)
+	{
+		byte[] hash = hash(source);
+		File file = directory == null ? null : new File(directory, toHex(hash) + ".tex");
+
+		if (file != null && file.isFile()) {
+			try {
+				TextureData texture = readTexture(file, hash);
+				if (texture != null) {
+					touch(file);
+					return texture;
+				}
+			} catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+				DebugInfo.println(getClass(), "Ignoring invalid cache file " + file);
+			}
+		}
+
+		TextureData texture;
+		try {
+			BufferedImage img = ImageIO.read(new ByteArrayInputStream(source));
+			if (img == null)
+				return null;
+			texture = decode(img);
+		} catch (IOException e) {
+			return null;
+		}
+		if (file != null) {
+			try {
+				writeTexture(file, hash, texture);
+			} catch (IOException e) {
+				DebugInfo.println(getClass(), "Could not write " + file + ": " + e.getMessage());
+			}
+		}
+		return texture;
+	}
+
+	/** Converts an image to pixel rows like {@link Texture2D#readPixels(BufferedImage, boolean)} */
+	private static TextureData decode(BufferedImage img)
+	{
+		int w = img.getWidth();
+		int h = img.getHeight();
+		boolean alpha = img.getColorModel().hasAlpha();
+		int channels = alpha ? 4 : 3;
+		ByteBuffer pixels = ByteBuffer.allocateDirect(w * h * channels);
+		int[] row = new int[w];
+		for (int y = 0; y < h; y++) {
+			img.getRGB(0, h - y - 1, w, 1, row, 0, w);
+			for (int x = 0; x < w; x++) {
+				int pixel = row[x];
+				pixels.put((byte) (pixel >> 16));
+				pixels.put((byte) (pixel >> 8));
+				pixels.put((byte) pixel);
+				if (alpha)
+					pixels.put((byte) (pixel >> 24));
+			}
+		}
+		pixels.rewind();
+		return new TextureData(w, h, alpha, pixels);
+	}
+
+	private static List<String> materialLibraries(byte[] source) throws IOException
+	{
+		List<String> libraries = new ArrayList<>();
+		BufferedReader br = new BufferedReader(
+				new InputStreamReader(new ByteArrayInputStream(source), StandardCharsets.UTF_8));
+		String line;
+		while ((line = br.readLine()) != null) {
+			if (line.startsWith("mtllib "))
+				libraries.add(line.split("\\s+")[1]);
+		}
+		return libraries;
+	}
+
+	/**
+	 * Reads a whole file into a buffer. Direct buffers can be passed to OpenGL as they are, heap
+	 * buffers are cheaper for data that is copied anyway.
+	 */
+	private static ByteBuffer read(File file, boolean direct) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("File too large");
+			ByteBuffer buffer = direct ? ByteBuffer.allocateDirect((int) size) : ByteBuffer.allocate((int) size);
+			while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+				// read until the buffer is full
+			}
+			buffer.flip();
+			return buffer;
+		}
+	}
+
+	/**
+	 * Reads the number of elements that follow, which can't be more than the remaining bytes allow.
+	 * A corrupt length is treated like any other invalid cache file.
+	 */
+	private static int readLength(ByteBuffer in, int elementSize)
+	{
+		int length = in.getInt();
+		if (length < 0 || (elementSize > 0 && length > in.remaining() / elementSize))
+			throw new IllegalArgumentException("Invalid length " + length);
+		return length;
+	}
+
+	/** Reads the header of a cache file, returns false if it doesn't match */
+	private static boolean readHeader(ByteBuffer in, int magic, byte[] hash)
+	{
+		if (in.getInt() != magic || in.getInt() != VERSION)
+			return false;
+		byte[] fileHash = new byte[HASH_LENGTH];
+		in.get(fileHash);
+		return Arrays.equals(fileHash, hash);
+	}
+
+	private static void writeHeader(DataOutputStream out, int magic, byte[] hash) throws IOException
+	{
+		out.writeInt(magic);
+		out.writeInt(VERSION);
+		out.write(hash);
+	}
+
+	private static String readString(ByteBuffer in)
+	{
+		byte[] bytes = new byte[readLength(in, 1)];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException
+	{
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static Mesh readMesh(File file, byte[] hash, ClassLoader cl) throws IOException
+	{
+		ByteBuffer in = read(file, false);
+		if (!readHeader(in, MESH_MAGIC, hash))
+			return null;
+
+		List<ObjMaterial> materials = new ArrayList<>();
+		int numLibraries = readLength(in, 4);
+		for (int i = 0; i < numLibraries; i++) {
+			String library = readString(in);
+			InputStream is = cl.getResourceAsStream(ContentManager.MATERIAL_ROOT + library);
+			if (is == null)
+				continue;
+			ObjMaterialLibrary lib = new ObjMaterialLibrary();
+			lib.load(new BufferedReader(new InputStreamReader(is)), ContentManager.TEXTURE_ROOT, cl);
+			materials.addAll(lib.getMaterials());
+		}
+
+		int positionLength = readLength(in, 0);
+		int normalLength = readLength(in, 0);
+		int texCoordLength = readLength(in, 0);
+		if (positionLength == 0 || positionLength > 4 || normalLength > 4 || texCoordLength > 4)
+			return null;
+		int numVertices = readLength(in, (positionLength + normalLength + texCoordLength) * 4);
+		ArrayList<MeshVertex> vertices = new ArrayList<>(numVertices);
+		for (int i = 0; i < numVertices; i++) {
+			float[] position = readFloats(in, positionLength);
+			float[] normal = normalLength == 0 ? null : readFloats(in, normalLength);
+			float[] texCoords = texCoordLength == 0 ? null : readFloats(in, texCoordLength);
+			vertices.add(new MeshVertex(position, normal, texCoords));
+		}
+		Mesh mesh = new Mesh(vertices);
+		mesh.setBounds(new BoundingBox(new Vec3f(in.getFloat(), in.getFloat(), in.getFloat()),
+				new Vec3f(in.getFloat(), in.getFloat(), in.getFloat())));
+
+		int numParts = readLength(in, 8);
+		for (int p = 0; p < numParts; p++) {
+			String materialName = readString(in);
+			ObjMaterial material = null;
+			for (ObjMaterial m : materials) {
+				if (m.getName().equals(materialName)) {
+					material = m;
+					break;
+				}
+			}
+			if (material == null)
+				material = new ObjMaterial(materialName);
+
+			int numFaces = readLength(in, 4);
+			ArrayList<MeshFace> faces = new ArrayList<>(numFaces);
+			for (int f = 0; f < numFaces; f++) {
+				int[] indices = new int[readLength(in, 4)];
+				in.asIntBuffer().get(indices);
+				in.position(in.position() + indices.length * 4);
+				for (int index : indices) {
+					if (index < 0 || index >= numVertices)
+						return null;
+				}
+				faces.add(new MeshFace(indices));
+			}
+			MeshPart part = new MeshPart(faces);
+			part.setMaterial(material);
+			mesh.addPart(part);
+		}
+		return mesh;
+	}
+
+	private static float[] readFloats(ByteBuffer in, int n)
+	{
+		float[] values = new float[n];
+		in.asFloatBuffer().get(values);
+		in.position(in.position() + n * 4);
+		return values;
+	}
+
+	private void writeMesh(File file, byte[] hash, List<String> libraries, Mesh mesh) throws IOException
+	{
+		List<MeshVertex> vertices = mesh.getVertices();
+		if (vertices.isEmpty())
+			return;
+		MeshVertex first = vertices.get(0);
+		int positionLength = first.getPosition().length;
+		int normalLength = first.getNormal() == null ? 0 : first.getNormal().length;
+		int texCoordLength = first.getTexCoords() == null ? 0 : first.getTexCoords().length;
+		for (MeshVertex v : vertices) {
+			// the format stores all vertices with the same layout
+			if (v.getPosition().length != positionLength
+					|| (v.getNormal() == null ? 0 : v.getNormal().length) != normalLength
+					|| (v.getTexCoords() == null ? 0 : v.getTexCoords().length) != texCoordLength)
+				return;
+		}
+
+		File tmp = File.createTempFile("mesh", ".tmp", directory);
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+			writeHeader(out, MESH_MAGIC, hash);
+			out.writeInt(libraries.size());
+			for (String library : libraries)
+				writeString(out, library);
+
+			out.writeInt(positionLength);
+			out.writeInt(normalLength);
+			out.writeInt(texCoordLength);
+			out.writeInt(vertices.size());
+			for (MeshVertex v : vertices) {
+				writeFloats(out, v.getPosition());
+				writeFloats(out, v.getNormal());
+				writeFloats(out, v.getTexCoords());
+			}
+			Vec3f min = mesh.getBounds().getMin();
+			Vec3f max = mesh.getBounds().getMax();
+			writeFloats(out, new float[] {min.x, min.y, min.z, max.x, max.y, max.z});
+
+			out.writeInt(mesh.getParts().size());
+			for (MeshPart part : mesh.getParts()) {
+				writeString(out, part.getMaterial().getName());
+				out.writeInt(part.getFaces().size());
+				for (MeshFace face : part.getFaces()) {
+					int[] indices = face.getVertIndices();
+					out.writeInt(indices.length);
+					for (int index : indices)
+						out.writeInt(index);
+				}
+			}
+		}
+		replace(tmp, file);
+	}
+
+	private static void writeFloats(DataOutputStream out, float[] values) throws IOException
+	{
+		if (values == null)
+			return;
+		for (float value : values)
+			out.writeFloat(value);
+	}
+
+	private static TextureData readTexture(File file, byte[] hash) throws IOException
+	{
+		ByteBuffer in = read(file, true);
+		if (!readHeader(in, TEXTURE_MAGIC, hash))
+			return null;
+		int width = in.getInt();
+		int height = in.getInt();
+		boolean alpha = in.get() != 0;
+		long size = (long) width * height * (alpha ? 4 : 3);
+		if (width <= 0 || height <= 0 || in.remaining() != size)
+			return null;
+		return new TextureData(width, height, alpha, in.slice());
+	}
+
+	private void writeTexture(File file, byte[] hash, TextureData texture) throws IOException
+	{
+		File tmp = File.createTempFile("texture", ".tmp", directory);
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+			writeHeader(out, TEXTURE_MAGIC, hash);
+			out.writeInt(texture.width);
+			out.writeInt(texture.height);
+			out.writeByte(texture.alpha ? 1 : 0);
+			ByteBuffer pixels = texture.pixels.duplicate();
+			pixels.rewind();
+			byte[] chunk = new byte[16384];
+			while (pixels.hasRemaining()) {
+				int n = Math.min(chunk.length, pixels.remaining());
+				pixels.get(chunk, 0, n);
+				out.write(chunk, 0, n);
+			}
+		}
+		replace(tmp, file);
+	}
+
+	/** Moves a completely written file into place, so that readers never see partial files */
+	private static void replace(File tmp, File file) throws IOException
+	{
+		try {
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			Files.deleteIfExists(tmp.toPath());
+			throw e;
+		}
+	}
+}
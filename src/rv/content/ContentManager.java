@@ -17,14 +17,22 @@
 package rv.content;
 
 import java.awt.Color;
-import java.awt.image.BufferedImage;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
-import java.util.List;
-import javax.imageio.ImageIO;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.media.opengl.GL;
 import javax.media.opengl.GL2;
 import javax.media.opengl.GLAutoDrawable;
@@ -44,6 +52,8 @@ import rv.comm.rcssserver.scenegraph.Node;
 import rv.comm.rcssserver.scenegraph.SceneGraph;
 import rv.comm.rcssserver.scenegraph.SceneGraph.SceneGraphListener;
 import rv.comm.rcssserver.scenegraph.StaticMeshNode;
+import rv.comm.rcssserver.scenegraph.Symbols;
+import rv.ui.DebugInfo;
 import rv.util.jogl.MaterialUtil;
 
 /**
@@ -58,23 +68,75 @@ public class ContentManager implements SceneGraphListener, GameState.GameStateCh
 	public static final String TEXTURE_ROOT = CONTENT_ROOT + "textures/";
 	public static final String MATERIAL_ROOT = CONTENT_ROOT + "materials/";
 
-	private class ModelLoader extends Thread
+	/** agent body parts and the ball are loaded before all other meshes */
+	private static final String[] PRIORITY_MESHES = {"naobody", "naohead", "upperarm", "lowerarm", "thigh",
+			"shank", "foot", "soccerball"};
+	private static final int PRIORITY_HIGH = 0;
+	private static final int PRIORITY_NORMAL = 1;
+
+	/** maximum time per frame spent initializing loaded models on the GL thread */
+	private static final long INIT_TIME_SLICE = 4000000;
+
+	/**
+	 * Reads the mesh data of a model on a loader thread. Queued loaders run by priority and then in
+	 * the order they were requested.
+	 */
+	private class ModelLoader implements Runnable, Comparable<ModelLoader>
 	{
 		private final Model model;
+		private final int priority;
+		private final long sequence;
 
-		public ModelLoader(Model model)
+		public ModelLoader(Model model, long sequence)
 		{
 			this.model = model;
+			this.priority = getLoadPriority(model.getName());
+			this.sequence = sequence;
 		}
 
+		@Override
 		public void run()
 		{
-			model.readMeshData(ContentManager.this);
-			synchronized (ContentManager.this)
-			{
-				modelsToInitialize.add(model);
+			long start = System.nanoTime();
+			try {
+				model.readMeshData(ContentManager.this);
+			} catch (RuntimeException e) {
+				DebugInfo.printErr(getClass(), "Failed to load " + model.getName() + ": " + e);
 			}
+			readTime.addAndGet(System.nanoTime() - start);
+			modelsToInitialize.add(this);
+		}
+
+		@Override
+		public int compareTo(ModelLoader o)
+		{
+			if (priority != o.priority)
+				return Integer.compare(priority, o.priority);
+			return Long.compare(sequence, o.sequence);
+		}
+	}
+
+	private static int getLoadPriority(String name)
+	{
+		for (String mesh : PRIORITY_MESHES) {
+			if (name.contains(mesh))
+				return PRIORITY_HIGH;
 		}
+		return PRIORITY_NORMAL;
+	}
+
+	private static ThreadPoolExecutor createLoaderPool()
+	{
+		int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+		AtomicInteger threadCount = new AtomicInteger();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 5, TimeUnit.SECONDS,
+				new PriorityBlockingQueue<Runnable>(), r -> {
+					Thread t = new Thread(r, "Model Loader " + threadCount.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
 	}
 
 	private final Configuration.TeamColors config;
@@ -83,15 +145,39 @@ public class ContentManager implements SceneGraphListener, GameState.GameStateCh
 	private Texture2D whiteTexture;
 	public static Texture2D selectionTexture;
 	public static Texture2D selectionTextureThin;
-	private final List<Model> modelsToInitialize = new ArrayList<>();
-	private final List<Model> models = new ArrayList<>();
+	private final ThreadPoolExecutor loaderPool = createLoaderPool();
+	private final AtomicLong loadSequence = new AtomicLong();
+	private final Queue<ModelLoader> modelsToInitialize = new ConcurrentLinkedQueue<>();
+	private final ConcurrentHashMap<String, ModelLoader> models = new ConcurrentHashMap<>();
+
+	// load progress and timings of the current batch, i.e. since no models were pending
+	private final AtomicInteger pendingModels = new AtomicInteger();
+	private final AtomicLong readTime = new AtomicLong();
+	private volatile long batchStart;
+	private int batchModels;
+	private long batchInitTime;
+	private final AtomicInteger initializedModels = new AtomicInteger();
 	private ObjMaterialLibrary naoMaterialLib;
+	private final Map<String, ObjMaterial> naoMaterials = new HashMap<>();
+	private final ContentCache cache = new ContentCache(ContentCache.getDefaultDirectory());
+	/** highest jersey number that has a matNum material */
+	private int maxJerseyNumber;
+	/** symbols of the matNum materials by jersey number, from 1 to {@link #maxJerseyNumber} */
+	private int[] jerseySymbols = new int[0];
+	private static final int MAT_LEFT = Symbols.symbol("matLeft");
+	private static final int MAT_RIGHT = Symbols.symbol("matRight");
 
 	public Texture2D getWhiteTexture()
 	{
 		return whiteTexture;
 	}
 
+	/** Cache of preprocessed meshes and textures, safe to use from the loader threads */
+	public ContentCache getCache()
+	{
+		return cache;
+	}
+
 	public Mesh.RenderMode getMeshRenderMode()
 	{
 		return meshRenderMode;
@@ -99,30 +185,135 @@ public class ContentManager implements SceneGraphListener, GameState.GameStateCh
 
 	public ObjMaterial getMaterial(String name)
 	{
-		for (ObjMaterial mat : naoMaterialLib.getMaterials())
-			if (mat.getName().equals(name))
-				return mat;
-		return null;
+		return naoMaterials.get(name);
+	}
+
+	/** Number of material variants, one per team side and jersey number (including none) */
+	public int getNumMaterialVariants()
+	{
+		return 2 * (maxJerseyNumber + 1);
 	}
 
 	/**
-	 * Retrieves model from content manager. If model is not found in set of loaded models, it is
-	 * added to a queue and loaded.
+	 * Gets the material variant of a mesh node: {@link Model#NO_VARIANT} for meshes that don't belong
+	 * to an agent, otherwise an index that encodes the team side and jersey number. The variant is
+	 * cached by the node until its materials are reset.
 	 */
-	public synchronized Model getModel(String name)
+	public int getMaterialVariant(StaticMeshNode node)
 	{
-		for (Model model : models) {
-			if (model.getName().equals(name)) {
-				return model;
+		int variant = node.getCachedMaterialVariant(this);
+		if (variant == StaticMeshNode.VARIANT_UNKNOWN) {
+			Symbols.MaterialList materials = node.getMaterialList();
+			variant = computeMaterialVariant(materials);
+			node.cacheMaterialVariant(this, materials, variant);
+		}
+		return variant;
+	}
+
+	private int computeMaterialVariant(Symbols.MaterialList materials)
+	{
+		// NOTE: team colors are a hack. The materials should be explicitly listed by the
+		// scene graph, but the material being replaced (matTeam) is not mentioned anywhere
+		// in it, so the agent's side is derived from the presence of matLeft / matRight.
+		if (materials == null)
+			return Model.NO_VARIANT;
+
+		// materials are interned, so they are compared by their symbols
+		int[] jerseySymbols = this.jerseySymbols;
+		int side = -1;
+		int number = 0;
+		for (int i = 0; i < materials.size(); i++) {
+			int material = materials.getSymbol(i);
+			if (material == MAT_LEFT)
+				side = 0;
+			else if (material == MAT_RIGHT)
+				side = 1;
+			else if (number == 0) {
+				for (int n = 1; n < jerseySymbols.length; n++) {
+					if (jerseySymbols[n] == material) {
+						number = n;
+						break;
+					}
+				}
 			}
 		}
+		return side == -1 ? Model.NO_VARIANT : side * (maxJerseyNumber + 1) + number;
+	}
 
-		// The requested mesh was not found, so we create a new one and start
-		// loading it in a thread.
-		Model model = new Model(name);
-		models.add(model);
-		new ModelLoader(model).start();
+	/**
+	 * Gets the material that replaces a placeholder material of the Nao meshes in a variant, or null
+	 * if the mesh's own material is used.
+	 */
+	ObjMaterial getVariantMaterial(int variant, String placeholder)
+	{
+		String side = variant / (maxJerseyNumber + 1) == 0 ? "matLeft" : "matRight";
+		int number = variant % (maxJerseyNumber + 1);
+		switch (placeholder) {
+		case "matTeam":
+			return getMaterial(side);
+		case "matTeamGoalie":
+			return getMaterial(side + "Goalie");
+		case "matTeamNumGoalie":
+			return getMaterial(side + "NumGoalie");
+		case "matNum":
+			return number == 0 ? null : getMaterial("matNum" + number);
+		default:
+			return null;
+		}
+	}
 
+	/**
+	 * Retrieves model from content manager. If model is not found in set of loaded models, it is
+	 * queued for loading. Doesn't lock, so it may be called from any thread.
+	 */
+	public Model getModel(String name)
+	{
+		return getLoader(name).model;
+	}
+
+	private ModelLoader getLoader(String name)
+	{
+		ModelLoader loader = models.get(name);
+		if (loader != null)
+			return loader;
+
+		ModelLoader newLoader = new ModelLoader(new Model(name), loadSequence.getAndIncrement());
+		loader = models.putIfAbsent(name, newLoader);
+		if (loader != null)
+			return loader;
+
+		if (pendingModels.getAndIncrement() == 0)
+			batchStart = System.nanoTime();
+		// loaders handed to a new thread directly would skip the queue and its priorities, so the
+		// threads (which time out when idle) are started first
+		loaderPool.prestartAllCoreThreads();
+		loaderPool.execute(newLoader);
+		return newLoader;
+	}
+
+	/** Number of models that were requested but aren't initialized yet */
+	public int getPendingModelCount()
+	{
+		return pendingModels.get();
+	}
+
+	/** Number of models that finished loading, including those that failed */
+	public int getInitializedModelCount()
+	{
+		return initializedModels.get();
+	}
+
+	/**
+	 * Retrieves the model of a mesh node. The model is cached by the node after the first lookup, so
+	 * this is the preferred method for per-frame rendering and updates.
+	 */
+	public Model getModel(StaticMeshNode node)
+	{
+		Model model = node.getCachedModel(this);
+		if (model == null) {
+			model = getModel(node.getName());
+			node.cacheModel(this, model);
+		}
 		return model;
 	}
 
@@ -131,19 +322,39 @@ public class ContentManager implements SceneGraphListener, GameState.GameStateCh
 		this.config = config;
 	}
 
-	public synchronized void update(GL2 gl)
+	public void update(GL2 gl)
 	{
 		// meshes need a current OpenGL context to finish initializing, so this
-		// update pass checks all models that are waiting to initialize and then
-		// clears the list
-
-		if (modelsToInitialize.size() == 0)
-			return;
-
-		for (Model m : modelsToInitialize)
-			m.init(gl, meshRenderMode);
+		// update pass initializes the models that are waiting for it, but
+		// leaves the rest for later frames once its time slice is used up
+
+		long start = System.nanoTime();
+		long now = start;
+		ModelLoader loader;
+		while (now - start < INIT_TIME_SLICE && (loader = modelsToInitialize.poll()) != null) {
+			loader.model.init(gl, meshRenderMode);
+			initializedModels.incrementAndGet();
+			batchModels++;
+			long end = System.nanoTime();
+			batchInitTime += end - now;
+			now = end;
+			if (pendingModels.decrementAndGet() == 0) {
+				// contexts that share this one (e.g. of a log export) see the new buffers once
+				// they are flushed
+				gl.glFlush();
+				reportBatch(now);
+			}
+		}
+	}
 
-		modelsToInitialize.clear();
+	private void reportBatch(long end)
+	{
+		DebugInfo.println(getClass(), String.format(Locale.US,
+				"Loaded %d models in %d ms (%d ms reading on %d threads, %d ms initializing)", batchModels,
+				(end - batchStart) / 1000000, readTime.getAndSet(0) / 1000000, loaderPool.getMaximumPoolSize(),
+				batchInitTime / 1000000));
+		batchModels = 0;
+		batchInitTime = 0;
 	}
 
 	public static void renderSelection(GL2 gl, Vec3f p, float r, float[] color, float alpha, boolean thin)
@@ -200,21 +411,41 @@ public class ContentManager implements SceneGraphListener, GameState.GameStateCh
 			e.printStackTrace();
 		}
 
-		for (ObjMaterial m : naoMaterialLib.getMaterials())
+		naoMaterials.clear();
+		maxJerseyNumber = 0;
+		for (ObjMaterial m : naoMaterialLib.getMaterials()) {
+			// team materials without a texture keep the texture of the mesh part they replace in
+			// material variants (see VariantMaterial), so they don't get the white texture
 			m.init(drawable.getGL().getGL2());
+			naoMaterials.put(m.getName(), m);
+			String name = m.getName();
+			if (name.startsWith("matNum") && name.length() > "matNum".length()) {
+				try {
+					maxJerseyNumber = Math.max(maxJerseyNumber, Integer.parseInt(name.substring("matNum".length())));
+				} catch (NumberFormatException e) {
+					// not a jersey number
+				}
+			}
+		}
+		int[] symbols = new int[maxJerseyNumber + 1];
+		for (int n = 1; n <= maxJerseyNumber; n++)
+			symbols[n] = Symbols.symbol("matNum" + n);
+		jerseySymbols = symbols;
 
 		return true;
 	}
 
 	public Texture2D loadTexture(GL gl, String name)
 	{
-		BufferedImage img;
+		InputStream is = getClass().getClassLoader().getResourceAsStream(TEXTURE_ROOT + name);
 		try {
-			img = ImageIO.read(getClass().getClassLoader().getResourceAsStream("resources/textures/" + name));
-			return Texture2D.loadTex(gl, img);
-		} catch (IOException | IllegalArgumentException e) {
-			System.err.println("Error loading texture: " + name);
+			ContentCache.TextureData texture = is == null ? null : cache.getTexture(ContentCache.readFully(is));
+			if (texture != null)
+				return texture.createTexture(gl);
+		} catch (IOException e) {
+			// reported below
 		}
+		System.err.println("Error loading texture: " + name);
 		return null;
 	}
 
@@ -256,8 +487,9 @@ public class ContentManager implements SceneGraphListener, GameState.GameStateCh
 			whiteTexture.dispose(gl);
 		if (selectionTexture != null)
 			selectionTexture.dispose(gl);
-		for (Model model : models)
-			model.dispose(gl);
+		loaderPool.shutdownNow();
+		for (ModelLoader loader : models.values())
+			loader.model.dispose(gl);
 	}
 
 	public ShaderProgram loadShader(GL2 gl, String name)
@@ -281,9 +513,10 @@ public class ContentManager implements SceneGraphListener, GameState.GameStateCh
 			getModel(meshNode.getName());
 		}
 
-		if (node.getChildren() != null) {
-			for (int i = 0; i < node.getChildren().size(); i++)
-				checkForMeshes(node.getChildren().get(i));
+		ArrayList<Node> children = node.getChildren();
+		if (children != null) {
+			for (int i = 0; i < children.size(); i++)
+				checkForMeshes(children.get(i));
 		}
 	}
 
@@ -292,6 +525,18 @@ public class ContentManager implements SceneGraphListener, GameState.GameStateCh
 	{
 	}
 
+	@Override
+	public void nodeAdded(SceneGraph sg, Node node)
+	{
+		checkForMeshes(node);
+	}
+
+	@Override
+	public void nodeRemoved(SceneGraph sg, Node node)
+	{
+		// models stay loaded, they are likely to be used again by agents rejoining
+	}
+
 	private String teamNameLeft;
 	private String teamNameRight;
 
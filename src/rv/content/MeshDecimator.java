@@ -0,0 +1,147 @@
+/*
+ *  Copyright 2011 RoboViz
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package rv.content;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import js.jogl.model.Mesh;
+import js.jogl.model.MeshFace;
+import js.jogl.model.MeshPart;
+import js.jogl.model.MeshVertex;
+import js.math.BoundingBox;
+import js.math.vector.Vec3f;
+
+/**
+ * Creates reduced-detail versions of meshes by vertex clustering: the bounding box is divided into a
+ * grid, the vertices in each cell are merged into one and triangles that collapse are dropped. This
+ * is crude, but fast enough to run for every mesh at load time and good enough for meshes that only
+ * cover a few pixels.
+ */
+public class MeshDecimator
+{
+	/** meshes with fewer vertices aren't worth a second version */
+	private static final int MIN_VERTICES = 200;
+	/** the reduced mesh must have at most this fraction of the triangles */
+	private static final float MAX_TRIANGLE_RATIO = 0.75f;
+
+	/**
+	 * Creates a reduced version of a loaded (but not initialized) mesh, with a grid of the given
+	 * number of cells along the longest side of its bounds. The parts of the reduced mesh correspond
+	 * to the parts of the mesh in the same order, but have no materials. Returns null if the mesh is
+	 * too simple or can't be reduced enough.
+	 */
+	public static Mesh decimate(Mesh mesh, int resolution)
+	{
+		List<MeshVertex> vertices = mesh.getVertices();
+		BoundingBox bounds = mesh.getBounds();
+		if (vertices.size() < MIN_VERTICES || bounds == null)
+			return null;
+
+		Vec3f min = bounds.getMin();
+		Vec3f max = bounds.getMax();
+		float extent = Math.max(max.x - min.x, Math.max(max.y - min.y, max.z - min.z));
+		if (!(extent > 0))
+			return null;
+		float cellSize = extent / resolution;
+		long cells = resolution + 1;
+
+		// cluster the vertices, averaging positions and normals
+		Map<Long, Integer> clusters = new HashMap<>();
+		int[] remap = new int[vertices.size()];
+		List<float[]> sums = new ArrayList<>();
+		List<MeshVertex> representatives = new ArrayList<>();
+		for (int i = 0; i < vertices.size(); i++) {
+			MeshVertex v = vertices.get(i);
+			float[] p = v.getPosition();
+			long x = (long) ((p[0] - min.x) / cellSize);
+			long y = (long) ((p[1] - min.y) / cellSize);
+			long z = (long) ((p[2] - min.z) / cellSize);
+			Long key = (x * cells + y) * cells + z;
+
+			Integer cluster = clusters.get(key);
+			if (cluster == null) {
+				cluster = representatives.size();
+				clusters.put(key, cluster);
+				representatives.add(v);
+				sums.add(new float[7]);
+			}
+			remap[i] = cluster;
+
+			float[] sum = sums.get(cluster);
+			sum[0] += p[0];
+			sum[1] += p[1];
+			sum[2] += p[2];
+			float[] n = v.getNormal();
+			if (n != null) {
+				sum[3] += n[0];
+				sum[4] += n[1];
+				sum[5] += n[2];
+			}
+			sum[6]++;
+		}
+
+		// keep the triangles that still span three clusters
+		int triangles = 0;
+		int reducedTriangles = 0;
+		List<MeshPart> parts = new ArrayList<>();
+		for (MeshPart part : mesh.getParts()) {
+			MeshPart reduced = new MeshPart();
+			for (MeshFace face : part.getFaces()) {
+				int[] indices = face.getVertIndices();
+				for (int i = 1; i + 1 < indices.length; i++) {
+					triangles++;
+					int a = remap[indices[0]];
+					int b = remap[indices[i]];
+					int c = remap[indices[i + 1]];
+					if (a != b && b != c && a != c) {
+						reduced.addFace(new MeshFace(new int[] {a, b, c}));
+						reducedTriangles++;
+					}
+				}
+			}
+			// every part must keep its material slot, so parts can't disappear
+			if (reduced.getFaces().isEmpty())
+				return null;
+			parts.add(reduced);
+		}
+		if (reducedTriangles > triangles * MAX_TRIANGLE_RATIO)
+			return null;
+
+		ArrayList<MeshVertex> reducedVertices = new ArrayList<>(representatives.size());
+		for (int i = 0; i < representatives.size(); i++) {
+			MeshVertex v = representatives.get(i);
+			float[] sum = sums.get(i);
+			float[] position = {sum[0] / sum[6], sum[1] / sum[6], sum[2] / sum[6]};
+			float[] normal = null;
+			if (v.getNormal() != null) {
+				float length = (float) Math.sqrt(sum[3] * sum[3] + sum[4] * sum[4] + sum[5] * sum[5]);
+				normal = length > 0 ? new float[] {sum[3] / length, sum[4] / length, sum[5] / length}
+									: v.getNormal().clone();
+			}
+			float[] texCoords = v.getTexCoords() == null ? null : v.getTexCoords().clone();
+			reducedVertices.add(new MeshVertex(position, normal, texCoords));
+		}
+
+		Mesh reducedMesh = new Mesh(reducedVertices);
+		for (MeshPart part : parts)
+			reducedMesh.addPart(part);
+		reducedMesh.setBounds(bounds);
+		return reducedMesh;
+	}
+}
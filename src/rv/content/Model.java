@@ -17,12 +17,21 @@
 package rv.content;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.media.opengl.GL;
 import javax.media.opengl.GL2;
 import js.jogl.model.Mesh;
+import js.jogl.model.MeshMaterial;
 import js.jogl.model.MeshPart;
 import js.jogl.model.ObjMaterial;
 import js.jogl.model.ObjMeshImporter;
@@ -35,25 +44,67 @@ import rv.ui.DebugInfo;
  */
 public class Model
 {
+	/** Variant of meshes that are rendered with their own materials */
+	public static final int NO_VARIANT = -1;
+
+	private static final AtomicInteger nextID = new AtomicInteger();
+	/** grid cells along the longest side of a mesh when creating its low detail version */
+	private static final int LOW_DETAIL_RESOLUTION = 12;
+
 	private Mesh mesh;
-	private boolean loaded = false;
+	private Mesh lowDetailMesh;
+	/** set on the GL thread once the mesh is initialized, read by the world update stage */
+	private volatile boolean loaded = false;
 	private final String name;
+	private final int id = nextID.getAndIncrement() & 0x3FFFFFFF;
+
+	/** materials of the mesh parts as loaded, and per variant (created on first use) */
+	private MeshMaterial[] baseMaterials;
+	private MeshMaterial[][] variants;
+	private MeshMaterial[] boundMaterials;
+	/** textures decoded by the loader thread, uploaded when the mesh is initialized */
+	private Map<ObjMaterial, ContentCache.TextureData> textures;
 
 	public Mesh getMesh()
 	{
 		return mesh;
 	}
 
+	/**
+	 * Reduced version of the mesh for drawing it at a distance, or the mesh itself if it is too
+	 * simple to be reduced. It is drawn with the same materials.
+	 */
+	public Mesh getLowDetailMesh()
+	{
+		return lowDetailMesh == null ? mesh : lowDetailMesh;
+	}
+
 	public String getName()
 	{
 		return name;
 	}
 
+	/** Small number identifying the model, for sorting draws by mesh */
+	public int getID()
+	{
+		return id;
+	}
+
 	public boolean isLoaded()
 	{
 		return loaded;
 	}
 
+	/**
+	 * Marks a model whose mesh has been read as loaded without creating any GL resources, for code
+	 * that only needs the mesh data (e.g. benchmarks)
+	 */
+	void markLoaded()
+	{
+		if (mesh != null)
+			loaded = true;
+	}
+
 	/**
 	 * Creates a new content managed model
 	 *
@@ -69,7 +120,7 @@ public class Model
 
 	public void readMeshData(ContentManager cm)
 	{
-		ObjMeshImporter importer = new ObjMeshImporter(
+		final ObjMeshImporter importer = new ObjMeshImporter(
 				ContentManager.MODEL_ROOT, ContentManager.MATERIAL_ROOT, ContentManager.TEXTURE_ROOT);
 		ClassLoader cl = this.getClass().getClassLoader();
 		importer.setClassLoader(cl);
@@ -81,7 +132,14 @@ public class Model
 		}
 		mesh = null;
 		try {
-			mesh = importer.loadMesh(new BufferedReader(new InputStreamReader(is)));
+			mesh = cm.getCache().getMesh(name, ContentCache.readFully(is), new ContentCache.MeshImporter() {
+				@Override
+				public Mesh load(byte[] source) throws IOException
+				{
+					return importer.loadMesh(
+							new BufferedReader(new InputStreamReader(new ByteArrayInputStream(source))));
+				}
+			}, cl);
 		} catch (IOException e) {
 			failureMessage();
 		}
@@ -96,6 +154,55 @@ public class Model
 				}
 			}
 		}
+
+		decodeTextures(cm.getCache());
+		lowDetailMesh = MeshDecimator.decimate(mesh, LOW_DETAIL_RESOLUTION);
+	}
+
+	/**
+	 * Decodes the textures of the materials here instead of when the mesh is initialized on the GL
+	 * thread, so that only the upload is left for {@link #init(GL2, Mesh.RenderMode)}. Parts with
+	 * transparent textures are moved to the end, which initializing the mesh would otherwise do.
+	 */
+	private void decodeTextures(ContentCache cache)
+	{
+		textures = new HashMap<>();
+		for (MeshPart p : mesh.getParts()) {
+			if (!(p.getMaterial() instanceof ObjMaterial))
+				continue;
+			ObjMaterial mat = (ObjMaterial) p.getMaterial();
+			InputStream source = mat.getTextureSource();
+			if (source == null || mat.isUseMipMaps() || textures.containsKey(mat))
+				continue;
+
+			try {
+				byte[] bytes = ContentCache.readFully(source);
+				ContentCache.TextureData texture = cache.getTexture(bytes);
+				if (texture != null) {
+					textures.put(mat, texture);
+					mat.readTextureMap(null);
+				} else {
+					mat.readTextureMap(new ByteArrayInputStream(bytes));
+				}
+			} catch (IOException e) {
+				DebugInfo.println(getClass(), "Failed to read texture of " + mat.getName());
+			}
+		}
+
+		Collections.sort(mesh.getParts(), new Comparator<MeshPart>()
+		{
+			@Override
+			public int compare(MeshPart a, MeshPart b)
+			{
+				return Boolean.compare(hasAlphaTexture(a), hasAlphaTexture(b));
+			}
+		});
+	}
+
+	private boolean hasAlphaTexture(MeshPart part)
+	{
+		ContentCache.TextureData texture = textures.get(part.getMaterial());
+		return texture != null && texture.alpha;
 	}
 
 	private void failureMessage()
@@ -104,35 +211,130 @@ public class Model
 	}
 
 	/**
-	 * Copies material information from src material to target material
+	 * Binds the materials of a variant to the mesh parts, see
+	 * {@link ContentManager#getMaterialVariant(rv.comm.rcssserver.scenegraph.StaticMeshNode)}. The
+	 * variants only reference the shared team materials, so binding one just exchanges the material
+	 * references of the parts if it differs from the variant bound last. Must be called on the GL
+	 * thread after the model is loaded.
 	 */
-	public void replaceMaterial(String target, ObjMaterial src)
-	{
-		for (MeshPart part : mesh.getParts()) {
-			ObjMaterial mat = (ObjMaterial) part.getMaterial();
-			if (mat.getName().equals(target)) {
-				if (src.getTexture() != null)
-					mat.setTexture(src.getTexture(), false);
-				mat.setAmbient(src.getAmbient());
-				mat.setDiffuse(src.getDiffuse());
-				mat.setSpecular(src.getSpecular());
-				mat.setShininess(src.getShininess());
-				return;
+	public void bindMaterials(ContentManager cm, int variant)
+	{
+		MeshMaterial[] materials = getMaterials(cm, variant);
+		if (materials == boundMaterials)
+			return;
+
+		setMaterials(mesh, materials);
+		if (lowDetailMesh != null)
+			setMaterials(lowDetailMesh, materials);
+		boundMaterials = materials;
+	}
+
+	/**
+	 * Gets the materials of a variant without binding them, one per part of the initialized mesh and
+	 * of the low detail mesh. Must be called on the GL thread after the model is loaded.
+	 */
+	public MeshMaterial[] getMaterials(ContentManager cm, int variant)
+	{
+		return variant == NO_VARIANT ? baseMaterials : getVariant(cm, variant);
+	}
+
+	private static void setMaterials(Mesh mesh, MeshMaterial[] materials)
+	{
+		List<MeshPart> parts = mesh.getParts();
+		for (int i = 0; i < materials.length; i++)
+			parts.get(i).setMaterial(materials[i]);
+	}
+
+	/**
+	 * Sets a material without texture on all parts of the low detail mesh, so that it doesn't
+	 * initialize or dispose the materials it shares with the mesh
+	 */
+	private void detachLowDetailMaterials()
+	{
+		ObjMaterial placeholder = new ObjMaterial(name);
+		for (MeshPart part : lowDetailMesh.getParts())
+			part.setMaterial(placeholder);
+	}
+
+	private MeshMaterial[] getVariant(ContentManager cm, int variant)
+	{
+		if (variants == null)
+			variants = new MeshMaterial[cm.getNumMaterialVariants()][];
+		if (variant < 0 || variant >= variants.length)
+			return baseMaterials;
+
+		MeshMaterial[] materials = variants[variant];
+		if (materials == null) {
+			materials = baseMaterials.clone();
+			for (int i = 0; i < materials.length; i++) {
+				ObjMaterial replacement = cm.getVariantMaterial(variant, materials[i].getName());
+				if (replacement == null)
+					continue;
+				// team materials without a texture only replace the colors of the part
+				if (replacement.getTexture() == null)
+					materials[i] = new VariantMaterial(replacement, baseMaterials[i]);
+				else
+					materials[i] = replacement;
+				assert keepsTexture(baseMaterials[i], materials[i], replacement);
 			}
+			variants[variant] = materials;
 		}
+		return materials;
+	}
+
+	/**
+	 * Whether the material of a part in a variant binds the texture of the part, unless the team
+	 * material replaces it with its own (e.g. the number of the goalie's shirt)
+	 */
+	private static boolean keepsTexture(MeshMaterial base, MeshMaterial variant, ObjMaterial replacement)
+	{
+		if (!(base instanceof ObjMaterial) || replacement.getTexture() != null)
+			return true;
+		return ((ObjMaterial) variant).getTexture() == ((ObjMaterial) base).getTexture();
 	}
 
 	public void init(GL2 gl, Mesh.RenderMode mode)
 	{
 		if (!loaded && mesh != null) {
+			for (Map.Entry<ObjMaterial, ContentCache.TextureData> texture : textures.entrySet())
+				texture.getKey().setTexture(texture.getValue().createTexture(gl), true);
+			textures = null;
+
+			List<MeshPart> loadOrder = new ArrayList<>(mesh.getParts());
 			mesh.init(gl, mode);
+
+			// initializing sorts the parts, so the materials are recorded afterwards
+			List<MeshPart> parts = mesh.getParts();
+			baseMaterials = new MeshMaterial[parts.size()];
+			for (int i = 0; i < baseMaterials.length; i++)
+				baseMaterials[i] = parts.get(i).getMaterial();
+			boundMaterials = baseMaterials;
+
+			if (lowDetailMesh != null) {
+				// sort the parts of the low detail mesh like the parts of the mesh
+				List<MeshPart> lowDetailParts = new ArrayList<>(lowDetailMesh.getParts());
+				lowDetailMesh.getParts().clear();
+				for (MeshPart part : parts)
+					lowDetailMesh.getParts().add(lowDetailParts.get(loadOrder.indexOf(part)));
+				detachLowDetailMaterials();
+				lowDetailMesh.init(gl, mode);
+				setMaterials(lowDetailMesh, baseMaterials);
+			}
 			loaded = true;
 		}
 	}
 
 	public void dispose(GL gl)
 	{
-		if (mesh != null)
+		if (mesh != null) {
+			// the shared team materials must not be disposed with the mesh
+			if (baseMaterials != null)
+				bindMaterials(null, NO_VARIANT);
 			mesh.dispose(gl);
+		}
+		if (lowDetailMesh != null) {
+			detachLowDetailMaterials();
+			lowDetailMesh.dispose(gl);
+		}
 	}
 }
\ No newline at end of file
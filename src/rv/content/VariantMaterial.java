@@ -0,0 +1,55 @@
+/*
+ *  Copyright 2011 RoboViz
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package rv.content;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+import js.jogl.model.MeshMaterial;
+import js.jogl.model.ObjMaterial;
+
+/**
+ * Material of a mesh part in a material variant that has the colors of a team material, which are
+ * recolored when the team changes, and keeps the texture of the mesh part (e.g. the number on the
+ * goalie's shirt) because the team material has none
+ */
+class VariantMaterial extends ObjMaterial
+{
+	private final ObjMaterial colors;
+
+	VariantMaterial(ObjMaterial colors, MeshMaterial base)
+	{
+		super(base.getName());
+		this.colors = colors;
+		if (base instanceof ObjMaterial)
+			setTexture(((ObjMaterial) base).getTexture(), false);
+	}
+
+	@Override
+	public void init(GL2 gl)
+	{
+		// the texture belongs to the mesh part
+	}
+
+	@Override
+	public void apply(GL2 gl)
+	{
+		colors.apply(gl);
+		if (getTexture() != null)
+			gl.glBindTexture(GL.GL_TEXTURE_2D, getTexture().getID());
+	}
+}
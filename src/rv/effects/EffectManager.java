@@ -53,12 +53,6 @@ public class EffectManager implements GLDisposable
 
 	public void init(GL2 gl, Viewer viewer, Viewport screen, Configuration.Graphics config, ContentManager cm)
 	{
-		// configure sun
-		Vec3f lightPos = new Vec3f(-11, 10, 9);
-		Vec3f lightDir = lightPos.times(-1).normalize();
-		DirLight light = new DirLight(lightDir);
-		LightShadowVolume sun = new LightShadowVolume(light, lightPos, new Vec3f(0, 0, 0), Vec3f.unitY(), 40, 40, 40);
-
 		if (config.useBloom) {
 			bloom = new Bloom();
 			boolean success = bloom.init(gl, screen, cm, config);
@@ -68,11 +62,24 @@ public class EffectManager implements GLDisposable
 				viewer.addWindowResizeListener(bloom);
 		}
 
-		if (config.useShadows) {
-			shadowRenderer = new ShadowMapRenderer(sun);
-			if (!shadowRenderer.init(gl, config, cm))
-				shadowRenderer = null;
-		}
+		initShadows(gl, config, cm, viewer.isInstancingEnabled());
+	}
+
+	/** Creates the shadow map renderer, without the post-processing effects of the viewer */
+	public void initShadows(GL2 gl, Configuration.Graphics config, ContentManager cm, boolean useInstancing)
+	{
+		if (!config.useShadows)
+			return;
+
+		// configure sun
+		Vec3f lightPos = new Vec3f(-11, 10, 9);
+		Vec3f lightDir = lightPos.times(-1).normalize();
+		DirLight light = new DirLight(lightDir);
+		LightShadowVolume sun = new LightShadowVolume(light, lightPos, new Vec3f(0, 0, 0), Vec3f.unitY(), 40, 40, 40);
+
+		shadowRenderer = new ShadowMapRenderer(sun, useInstancing);
+		if (!shadowRenderer.init(gl, config, cm))
+			shadowRenderer = null;
 	}
 
 	/**
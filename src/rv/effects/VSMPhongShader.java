@@ -16,12 +16,14 @@
 
 package rv.effects;
 
+import java.nio.FloatBuffer;
 import javax.media.opengl.GL;
 import javax.media.opengl.GL2;
 import js.jogl.ShaderProgram;
 import js.jogl.Texture2D;
 import js.jogl.Uniform;
 import js.math.vector.Matrix;
+import rv.world.rendering.MeshInstancer;
 
 /**
  * Variance shadow mapping w/ Phong illumination shader. Wraps underlying ShaderProgram and gives
@@ -39,6 +41,7 @@ public class VSMPhongShader
 	private final ShaderProgram prog;
 	private Uniform.Mat4 modelMatrix;
 	private Uniform.Mat4 lvpbMatrix;
+	private final FloatBuffer modelMatrixValues = FloatBuffer.allocate(16);
 
 	/** Uploads modelMatrix of geometry to be rendered */
 	public void setModelMatrix(GL2 gl, Matrix m)
@@ -46,19 +49,29 @@ public class VSMPhongShader
 		modelMatrix.setValue(gl, m);
 	}
 
+	/** Uploads modelMatrix of geometry to be rendered from 16 values starting at offset */
+	public void setModelMatrix(GL2 gl, float[] m, int offset)
+	{
+		modelMatrixValues.clear();
+		modelMatrixValues.put(m, offset, 16).flip();
+		modelMatrix.setValue(gl, modelMatrixValues);
+	}
+
 	/** Uploads viewProjection matrix used by light */
 	public void setLightViewProjection(GL2 gl, Matrix m)
 	{
 		lvpbMatrix.setValue(gl, BIAS_MATRIX.times(m));
 	}
 
-	/** Uploads shadow map texture (assumes shader is enabled!) */
-	public void setShadowMap(GL2 gl, Texture2D shadowMap)
+	/** Binds the static and dynamic shadow map textures (assumes shader is enabled!) */
+	public void setShadowMaps(GL2 gl, Texture2D staticShadowMap, Texture2D dynamicShadowMap)
 	{
-		if (shadowMap == null)
+		if (staticShadowMap == null || dynamicShadowMap == null)
 			return;
 		gl.glActiveTexture(GL.GL_TEXTURE1);
-		shadowMap.bind(gl);
+		staticShadowMap.bind(gl);
+		gl.glActiveTexture(GL.GL_TEXTURE2);
+		dynamicShadowMap.bind(gl);
 		gl.glActiveTexture(GL.GL_TEXTURE0);
 	}
 
@@ -69,11 +82,30 @@ public class VSMPhongShader
 
 	public static VSMPhongShader create(GL2 gl)
 	{
-		ShaderProgram prog = ShaderProgram.create(
-				gl, "shaders/vsm_phong.vert", "shaders/vsm_phong.frag", VSMPhongShader.class.getClassLoader());
+		return create(gl, "shaders/vsm_phong.vert", -1);
+	}
+
+	/**
+	 * Creates the shader for {@link MeshInstancer}, with the per-instance model matrix bound to the
+	 * given attribute location. The model matrix uniform must be the identity while drawing
+	 * instances.
+	 */
+	public static VSMPhongShader createInstanced(GL2 gl, int matrixAttribute)
+	{
+		return create(gl, "shaders/vsm_phong_instanced.vert", matrixAttribute);
+	}
+
+	private static VSMPhongShader create(GL2 gl, String vertexShader, int matrixAttribute)
+	{
+		ShaderProgram prog =
+				ShaderProgram.create(gl, vertexShader, "shaders/vsm_phong.frag", VSMPhongShader.class.getClassLoader());
 
 		if (prog == null)
 			return null;
+		if (matrixAttribute >= 0 && !MeshInstancer.bindMatrixAttribute(gl, prog, "instanceMatrix", matrixAttribute)) {
+			prog.dispose(gl);
+			return null;
+		}
 
 		VSMPhongShader shader = new VSMPhongShader(prog);
 
@@ -83,6 +115,7 @@ public class VSMPhongShader
 		shader.lvpbMatrix = new Uniform.Mat4(gl, prog, "lightViewProjectionBias", i);
 		gl.glUniform1i(prog.getUniform(gl, "diffuseTexture"), 0);
 		gl.glUniform1i(prog.getUniform(gl, "shadowTexture"), 1);
+		gl.glUniform1i(prog.getUniform(gl, "dynamicShadowTexture"), 2);
 		prog.disable(gl);
 
 		return shader;
@@ -27,22 +27,26 @@ import java.awt.event.KeyListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 import javax.swing.DefaultListModel;
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
 import javax.swing.JList;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
 import javax.swing.JTextField;
 import javax.swing.ListCellRenderer;
 import javax.swing.ListSelectionModel;
+import javax.swing.Timer;
 import rv.comm.drawing.BufferedSet;
 import rv.comm.drawing.Drawings;
 import rv.comm.drawing.Drawings.SetListChangeEvent;
 import rv.comm.drawing.Drawings.ShapeListListener;
-import rv.comm.drawing.VisibleNamedObject;
+import rv.comm.drawing.ShapeSet;
+import rv.comm.drawing.TrafficStats;
 import rv.comm.drawing.annotations.Annotation;
-import rv.comm.drawing.shapes.Shape;
 
 /**
  * TODO: lots of work on this class; should use a JTree instead of JList
@@ -70,11 +74,10 @@ public class DrawingListPanel extends FramePanelBase implements ShapeListListene
 
 	static class CheckListItem
 	{
-		private final VisibleNamedObject item;
+		private final BufferedSet<?> item;
 		private final String label;
-		private boolean isSelected = false;
 
-		public CheckListItem(VisibleNamedObject item)
+		public CheckListItem(BufferedSet<?> item)
 		{
 			this.item = item;
 			this.label = item.getName();
@@ -82,25 +85,32 @@ public class DrawingListPanel extends FramePanelBase implements ShapeListListene
 
 		public boolean isSelected()
 		{
-			return isSelected;
+			return item.isVisible();
 		}
 
 		public void setSelected(boolean isSelected)
 		{
-			this.isSelected = isSelected;
 			item.setVisible(isSelected);
 		}
 
 		@Override
 		public String toString()
 		{
-			return label;
+			int dropped = item.getLastSwapDropped();
+			if (dropped > 0)
+				return String.format("%s (%d, %d dropped)", label, item.getLastSwapSize(), dropped);
+			return String.format("%s (%d)", label, item.getLastSwapSize());
 		}
 	}
 
+	/** interval in which the per-set and per-source statistics are refreshed */
+	private static final int STATS_REFRESH_MS = 1000;
+
 	private Drawings drawings;
 	private final JTextField regexField;
 	private final JList<CheckListItem> list;
+	private final JTextArea sourcesArea;
+	private volatile Pattern filter;
 	final DefaultListModel<CheckListItem> model = new DefaultListModel<>();
 
 	public DrawingListPanel(Drawings drawings, String drawingFilter)
@@ -124,8 +134,15 @@ public class DrawingListPanel extends FramePanelBase implements ShapeListListene
 					JList list = (JList) event.getSource();
 					int index = list.locationToIndex(event.getPoint());
 					CheckListItem item = (CheckListItem) list.getModel().getElementAt(index);
-					item.setSelected(!item.isSelected());
-					list.repaint(list.getCellBounds(index, index));
+					boolean selected = !item.isSelected();
+					item.setSelected(selected);
+					if (event.isShiftDown()) {
+						// also toggle all sets further down in the name hierarchy
+						drawings.setVisible(item.label + ".", selected);
+						list.repaint();
+					} else {
+						list.repaint(list.getCellBounds(index, index));
+					}
 				} catch (Exception e) {
 				}
 			}
@@ -134,9 +151,19 @@ public class DrawingListPanel extends FramePanelBase implements ShapeListListene
 		frame.setLayout(new BorderLayout());
 
 		frame.add(new JScrollPane(list), BorderLayout.CENTER);
+
+		sourcesArea = new JTextArea(4, 0);
+		sourcesArea.setEditable(false);
+		sourcesArea.setFont(list.getFont());
+		frame.add(new JScrollPane(sourcesArea), BorderLayout.NORTH);
+		Timer statsTimer = new Timer(STATS_REFRESH_MS, e -> refreshStats());
+		statsTimer.setRepeats(true);
+		statsTimer.start();
+
 		JPanel p = new JPanel();
 		p.setLayout(new GridLayout(1, 3));
 		regexField = new JTextField(drawingFilter);
+		filter = compileFilter(drawingFilter);
 
 		p.add(regexField);
 		JButton regexSearch = new JButton("Regex");
@@ -175,11 +202,45 @@ public class DrawingListPanel extends FramePanelBase implements ShapeListListene
 		drawings.clearAllShapeSets();
 	}
 
+	private void refreshStats()
+	{
+		if (!frame.isVisible())
+			return;
+
+		StringBuilder sb = new StringBuilder();
+		for (TrafficStats stats : drawings.getTrafficStats()) {
+			if (sb.length() > 0)
+				sb.append('\n');
+			sb.append(stats);
+		}
+		sourcesArea.setText(sb.toString());
+		list.repaint();
+	}
+
+	private Pattern compileFilter(String regex)
+	{
+		if (regex == null)
+			return null;
+		try {
+			return Pattern.compile(regex);
+		} catch (PatternSyntaxException e) {
+			DebugInfo.println(getClass(), "Invalid drawing filter '" + regex + "'");
+			return filter;
+		}
+	}
+
+	private boolean matchesFilter(String name)
+	{
+		Pattern filter = this.filter;
+		return filter == null || filter.matcher(name).matches();
+	}
+
 	private void regexList(String s)
 	{
+		filter = compileFilter(s);
 		for (int i = 0; i < model.getSize(); i++) {
 			CheckListItem cli = (model.getElementAt(i));
-			cli.setSelected(cli.item.getName().matches(s));
+			cli.setSelected(matchesFilter(cli.item.getName()));
 		}
 		list.repaint();
 	}
@@ -187,15 +248,13 @@ public class DrawingListPanel extends FramePanelBase implements ShapeListListene
 	@Override
 	public void setListChanged(SetListChangeEvent evt)
 	{
-		String regex = regexField.getText();
-
 		model.clear();
-		List<BufferedSet<Shape>> shapeSets = evt.getShapeSets();
-		for (BufferedSet<Shape> shapeSet : shapeSets) {
+		List<ShapeSet> shapeSets = evt.getShapeSets();
+		for (ShapeSet shapeSet : shapeSets) {
 			if (shapeSet != null) {
 				CheckListItem item = new CheckListItem(shapeSet);
 				boolean visible = shapeSet.isVisible();
-				boolean matchRegex = regex == null || shapeSet.getName().matches(regex);
+				boolean matchRegex = matchesFilter(shapeSet.getName());
 				item.setSelected(visible && matchRegex);
 				model.addElement(item);
 			}
@@ -206,7 +265,7 @@ public class DrawingListPanel extends FramePanelBase implements ShapeListListene
 			if (annotationSet != null) {
 				CheckListItem item = new CheckListItem(annotationSet);
 				boolean visible = annotationSet.isVisible();
-				boolean matchRegex = regex == null || annotationSet.getName().matches(regex);
+				boolean matchRegex = matchesFilter(annotationSet.getName());
 				item.setSelected(visible && matchRegex);
 				model.addElement(item);
 			}
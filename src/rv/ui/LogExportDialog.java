@@ -0,0 +1,156 @@
+/*
+ *  Copyright 2011 RoboViz
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package rv.ui;
+
+import java.awt.GridLayout;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.JCheckBox;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
+import rv.LogExporter;
+import rv.Viewer;
+import rv.comm.rcssserver.LogPlayer;
+
+/**
+ * Asks for the range, frame rate, resolution and output of a log export and starts it
+ */
+public class LogExportDialog
+{
+	/** default length of an export, e.g. for a goal */
+	private static final float DEFAULT_SECONDS = 20;
+
+	public static void show(Viewer viewer)
+	{
+		LogPlayer player = viewer.getLogPlayer();
+		if (player == null || !player.isValid())
+			return;
+
+		int lastFrame = Math.max(0, player.getNumFrames() - 1);
+		int start = player.getFrame();
+		int end = Math.min(lastFrame, start + Math.round(DEFAULT_SECONDS / player.getSecondsPerFrame()));
+
+		JTextField startField = new JTextField(Integer.toString(start));
+		JTextField endField = new JTextField(Integer.toString(end));
+		JTextField fpsField = new JTextField("30");
+		JTextField sizeField = new JTextField("1920x1080");
+		JTextField dirField = new JTextField("screenshots/export_" + Viewer.getTimestamp());
+		JTextField pipeField = new JTextField();
+		pipeField.setToolTipText(
+				"e.g. ffmpeg -f rawvideo -pix_fmt rgb24 -s {width}x{height} -r {fps} -i - \"my export.mp4\"");
+		JCheckBox interpolateBox = new JCheckBox("Interpolate between log frames", true);
+
+		JPanel panel = new JPanel(new GridLayout(0, 2, 5, 5));
+		panel.add(new JLabel("First frame (0 - " + lastFrame + ")"));
+		panel.add(startField);
+		panel.add(new JLabel("Last frame"));
+		panel.add(endField);
+		panel.add(new JLabel("Frames per second"));
+		panel.add(fpsField);
+		panel.add(new JLabel("Resolution"));
+		panel.add(sizeField);
+		panel.add(new JLabel("Image directory"));
+		panel.add(dirField);
+		panel.add(new JLabel("or raw video command"));
+		panel.add(pipeField);
+		panel.add(interpolateBox);
+
+		int result = JOptionPane.showConfirmDialog(viewer.getFrame(), panel, "Export Frames",
+				JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+		if (result != JOptionPane.OK_OPTION)
+			return;
+
+		LogExporter.Settings settings = new LogExporter.Settings();
+		try {
+			settings.logfile = new File(player.getFilePath());
+			settings.startFrame = Math.max(0, Integer.parseInt(startField.getText().trim()));
+			settings.endFrame = Math.min(lastFrame, Integer.parseInt(endField.getText().trim()));
+			settings.fps = Float.parseFloat(fpsField.getText().trim());
+			String[] size = sizeField.getText().trim().split("x");
+			settings.width = Integer.parseInt(size[0].trim());
+			settings.height = Integer.parseInt(size[1].trim());
+		} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+			showInvalidSettings(viewer);
+			return;
+		}
+		if (settings.endFrame < settings.startFrame || settings.fps <= 0 || settings.width <= 0
+				|| settings.height <= 0) {
+			showInvalidSettings(viewer);
+			return;
+		}
+		settings.interpolate = interpolateBox.isSelected();
+		String pipe = pipeField.getText().trim();
+		if (pipe.isEmpty())
+			settings.outputDir = new File(dirField.getText().trim());
+		else
+			settings.pipeCommand = splitCommand(pipe);
+
+		viewer.startExport(settings);
+	}
+
+	/**
+	 * Splits a command line into its arguments at whitespace, except in double or single quotes,
+	 * so that paths with spaces can be quoted
+	 */
+	static List<String> splitCommand(String command)
+	{
+		List<String> args = new ArrayList<>();
+		StringBuilder arg = new StringBuilder();
+		boolean inArg = false;
+		char quote = 0;
+		for (int i = 0; i < command.length(); i++) {
+			char c = command.charAt(i);
+			if (quote != 0) {
+				if (c == quote)
+					quote = 0;
+				else
+					arg.append(c);
+			} else if (c == '"' || c == '\'') {
+				quote = c;
+				inArg = true;
+			} else if (Character.isWhitespace(c)) {
+				if (inArg)
+					args.add(arg.toString());
+				arg.setLength(0);
+				inArg = false;
+			} else {
+				arg.append(c);
+				inArg = true;
+			}
+		}
+		if (inArg)
+			args.add(arg.toString());
+		return args;
+	}
+
+	/** Tells that an export failed, from any thread */
+	public static void showFailed(Viewer viewer, String message)
+	{
+		SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(viewer.getFrame(),
+				"Export failed: " + message, "Export Frames", JOptionPane.ERROR_MESSAGE));
+	}
+
+	private static void showInvalidSettings(Viewer viewer)
+	{
+		JOptionPane.showMessageDialog(
+				viewer.getFrame(), "Invalid export settings", "Export Frames", JOptionPane.ERROR_MESSAGE);
+	}
+}
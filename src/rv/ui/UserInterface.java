@@ -32,6 +32,7 @@ import rv.Globals;
 import rv.Viewer;
 import rv.ui.screens.LiveGameScreen;
 import rv.ui.screens.LogfileModeScreen;
+import rv.ui.screens.PerformanceOverlay;
 import rv.ui.screens.Screen;
 import rv.ui.view.CameraController;
 import rv.ui.view.SimsparkController;
@@ -54,6 +55,7 @@ public class UserInterface implements KeyListener
 	private Screen overlay;
 	private KeyListener[] tempListeners;
 	private Screen activeScreen;
+	private final PerformanceOverlay performanceOverlay = new PerformanceOverlay();
 	private TargetTrackerCamera trackerCamera;
 
 	public TargetTrackerCamera getTrackerCamera()
@@ -150,6 +152,12 @@ public class UserInterface implements KeyListener
 		trackerCamera.update(viewer.getScreen());
 	}
 
+	/** Whether the 2D interface changes over time even if the world doesn't */
+	public boolean isAnimating()
+	{
+		return activeScreen.isAnimating();
+	}
+
 	public void render(GL2 gl, GLU glu, GLUT glut)
 	{
 		gl.glDisable(GL.GL_DEPTH_TEST);
@@ -162,6 +170,8 @@ public class UserInterface implements KeyListener
 		gl.glLoadIdentity();
 
 		activeScreen.render(gl, glu, glut, viewer.getScreen());
+		if (performanceOverlay.isVisible())
+			performanceOverlay.render(gl, glu, glut, viewer.getScreen());
 
 		gl.glDisable(GL.GL_BLEND);
 	}
@@ -171,7 +181,18 @@ public class UserInterface implements KeyListener
 	{
 		switch (e.getKeyCode()) {
 		case KeyEvent.VK_F12:
-			viewer.takeScreenShot();
+			if (e.isShiftDown())
+				viewer.toggleFrameCapture();
+			else
+				viewer.takeScreenShot();
+			break;
+		case KeyEvent.VK_F3:
+			if (e.isControlDown())
+				break;
+			if (e.isShiftDown())
+				viewer.dumpMetrics();
+			else
+				performanceOverlay.toggleVisible();
 			break;
 		default:
 			break;
@@ -130,6 +130,18 @@ public class FoulListOverlay extends ScreenBase
 		tr.endRendering();
 	}
 
+	@Override
+	public boolean isAnimating()
+	{
+		if (!isVisible())
+			return false;
+		long currentTimeMillis = System.currentTimeMillis();
+		for (GameState.Foul f : viewer.getWorldModel().getGameState().getFouls())
+			if (shouldDisplayFoul(f, currentTimeMillis))
+				return true;
+		return false;
+	}
+
 	public static boolean shouldDisplayFoul(GameState.Foul f, long currentTimeMillis)
 	{
 		float dt = (currentTimeMillis - f.receivedTime) / 1000.0f;
@@ -26,6 +26,7 @@ import js.jogl.view.Viewport;
 import rv.Viewer;
 import rv.comm.rcssserver.GameState;
 import rv.comm.rcssserver.ServerSpeedBenchmarker;
+import rv.world.WorldSnapshot;
 
 public class GameStateOverlay extends ScreenBase
 {
@@ -66,15 +67,15 @@ public class GameStateOverlay extends ScreenBase
 			this.showServerSpeed = showServerSpeed;
 		}
 
-		void render(GL2 gl, GameState gs, int screenW, int screenH)
+		void render(GL2 gl, GameState gs, WorldSnapshot ws, int screenW, int screenH)
 		{
-			String teamL = gs.getUIStringTeamLeft();
-			String teamR = gs.getUIStringTeamRight();
+			String teamL = ws.getUIStringTeamLeft();
+			String teamR = ws.getUIStringTeamRight();
 
-			String scoreText = gs.getScoreLeft() + ":" + gs.getScoreRight();
+			String scoreText = ws.getScoreLeft() + ":" + ws.getScoreRight();
 
-			int minutes = (int) Math.floor(gs.getTime() / 60.0);
-			int seconds = (int) (gs.getTime() - minutes * 60);
+			int minutes = (int) Math.floor(ws.getTime() / 60.0);
+			int seconds = (int) (ws.getTime() - minutes * 60);
 			String timeText = String.format(Locale.US, "%02d:%02d", minutes, seconds);
 
 			// truncate team names that are too long to fit within bounds
@@ -116,7 +117,7 @@ public class GameStateOverlay extends ScreenBase
 
 			tr2.setColor(0.9f, 0.9f, 0.9f, 1);
 			tr2.beginRendering(screenW, screenH);
-			tr2.draw("Playmode: " + gs.getPlayMode(), x, y - 20);
+			tr2.draw("Playmode: " + ws.getPlayMode(), x, y - 20);
 			if (showServerSpeed && ssb != null) {
 				tr2.draw("Server Speed: " + ssb.getServerSpeed(), x + NAME_WIDTH + SCORE_BOX_WIDTH, y - 20);
 			}
@@ -131,7 +132,7 @@ public class GameStateOverlay extends ScreenBase
 				}
 			}
 			if (timeOfLastPassEnd != null) {
-				float timePassed = gs.getTime() - timeOfLastPassEnd;
+				float timePassed = ws.getTime() - timeOfLastPassEnd;
 				if (timePassed > 0) {
 					final float COOLDOWN = 10;
 					float cooldownLeft = COOLDOWN - timePassed;
@@ -206,7 +207,8 @@ public class GameStateOverlay extends ScreenBase
 	public void render(GL2 gl, GLU glu, GLUT glut, Viewport vp)
 	{
 		gsBar.y = vp.h - GameStateBar.BAR_HEIGHT - 20;
-		gsBar.render(gl, viewer.getWorldModel().getGameState(), vp.w, vp.h);
+		gsBar.render(gl, viewer.getWorldModel().getGameState(), viewer.getWorldModel().getFrameSnapshot(), vp.w,
+				vp.h);
 	}
 
 	public void toggleShowServerSpeed()
@@ -22,6 +22,8 @@ import rv.Viewer;
 import rv.comm.rcssserver.GameState;
 import rv.comm.rcssserver.LogAnalyzerThread.Goal;
 import rv.comm.rcssserver.LogPlayer;
+import rv.ui.LogExportDialog;
+import rv.ui.menus.Menu;
 
 public class LogfileModeScreen extends ViewerScreenBase
 {
@@ -64,6 +66,13 @@ public class LogfileModeScreen extends ViewerScreenBase
 		}
 	}
 
+	@Override
+	public void createViewMenu(Menu menu)
+	{
+		super.createViewMenu(menu);
+		menu.addItem("Export Frames...", "control E", () -> LogExportDialog.show(viewer));
+	}
+
 	@Override
 	public void keyPressed(KeyEvent e)
 	{
@@ -98,6 +107,10 @@ public class LogfileModeScreen extends ViewerScreenBase
 		case KeyEvent.VK_H:
 			player.stepForwardGoal();
 			break;
+		case KeyEvent.VK_E:
+			if (e.isControlDown())
+				LogExportDialog.show(viewer);
+			break;
 		}
 	}
 
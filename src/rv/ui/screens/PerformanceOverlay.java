@@ -0,0 +1,132 @@
+/*
+ *  Copyright 2011 RoboViz
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package rv.ui.screens;
+
+import java.awt.Font;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import javax.media.opengl.GL2;
+import javax.media.opengl.glu.GLU;
+import com.jogamp.opengl.util.awt.TextRenderer;
+import com.jogamp.opengl.util.gl2.GLUT;
+import js.jogl.view.Viewport;
+import rv.util.metrics.Counter;
+import rv.util.metrics.Histogram;
+import rv.util.metrics.Metrics;
+
+/**
+ * Shows the median and 99th percentile of each histogram and the rate of each counter in the
+ * {@link Metrics} registry, computed over the last second
+ */
+public class PerformanceOverlay extends ScreenBase
+{
+	private static final long UPDATE_INTERVAL_NANOS = 1000000000L;
+	private static final int MARGIN = 20;
+	private static final int PADDING = 6;
+	private static final int LINE_HEIGHT = 16;
+
+	private final TextRenderer tr = new TextRenderer(new Font("Monospaced", Font.PLAIN, 13), true, false);
+
+	/** bucket counts of each histogram at the last update */
+	private final List<long[]> previousCounts = new ArrayList<>();
+	private final List<long[]> previousValues = new ArrayList<>();
+	private final long[] counts = new long[Histogram.BUCKETS];
+	private long lastUpdate;
+	private List<String> lines = new ArrayList<>();
+	private int width;
+
+	public PerformanceOverlay()
+	{
+		visible = false;
+	}
+
+	public void toggleVisible()
+	{
+		setVisible(!visible);
+		lastUpdate = 0;
+	}
+
+	@Override
+	public void render(GL2 gl, GLU glu, GLUT glut, Viewport vp)
+	{
+		long now = System.nanoTime();
+		if (lastUpdate == 0 || now - lastUpdate >= UPDATE_INTERVAL_NANOS) {
+			update(lastUpdate == 0 ? 0 : (now - lastUpdate) / 1e9);
+			lastUpdate = now;
+		}
+
+		int h = lines.size() * LINE_HEIGHT + 2 * PADDING;
+		gl.glBegin(GL2.GL_QUADS);
+		gl.glColor4f(0, 0, 0, 0.6f);
+		GameStateOverlay.drawBox(gl, MARGIN, MARGIN, width + 2 * PADDING, h);
+		gl.glEnd();
+
+		tr.beginRendering(vp.w, vp.h);
+		tr.setColor(0.9f, 0.9f, 0.9f, 1);
+		int y = MARGIN + h - PADDING - LINE_HEIGHT + 4;
+		for (String line : lines) {
+			tr.draw(line, MARGIN + PADDING, y);
+			y -= LINE_HEIGHT;
+		}
+		tr.endRendering();
+	}
+
+	/** Computes the lines of the overlay from the changes since the last update */
+	private void update(double seconds)
+	{
+		List<String> result = new ArrayList<>();
+		result.add(String.format(Locale.US, "%-16s %7s %9s %9s", "(last second)", "count", "p50 ms", "p99 ms"));
+
+		List<Histogram> histograms = Metrics.getHistograms();
+		for (int i = 0; i < histograms.size(); i++) {
+			if (previousCounts.size() <= i)
+				previousCounts.add(new long[Histogram.BUCKETS]);
+			long[] previous = previousCounts.get(i);
+			histograms.get(i).getCounts(counts);
+
+			long n = 0;
+			for (int b = 0; b < counts.length; b++) {
+				long c = counts[b];
+				counts[b] -= previous[b];
+				previous[b] = c;
+				n += counts[b];
+			}
+			if (seconds > 0 && n > 0)
+				result.add(String.format(Locale.US, "%-16s %7d %9.2f %9.2f", histograms.get(i).getName(), n,
+						Histogram.getValueAtPercentile(counts, 50) / 1000.0,
+						Histogram.getValueAtPercentile(counts, 99) / 1000.0));
+		}
+
+		List<Counter> counters = Metrics.getCounters();
+		for (int i = 0; i < counters.size(); i++) {
+			if (previousValues.size() <= i)
+				previousValues.add(new long[1]);
+			long[] previous = previousValues.get(i);
+			long value = counters.get(i).get();
+			if (seconds > 0)
+				result.add(String.format(Locale.US, "%-16s %7.0f /s", counters.get(i).getName(),
+						(value - previous[0]) / seconds));
+			previous[0] = value;
+		}
+
+		lines = result;
+		width = 0;
+		for (String line : lines)
+			width = Math.max(width, (int) tr.getBounds(line).getWidth());
+	}
+}
@@ -40,4 +40,10 @@ public interface Screen extends Viewer.WindowResizeListener {
 	void setVisible(boolean visible);
 
 	void createViewMenu(Menu menu);
+
+	/** Whether the screen changes over time even if nothing else does, e.g. while fading */
+	default boolean isAnimating()
+	{
+		return false;
+	}
 }
\ No newline at end of file
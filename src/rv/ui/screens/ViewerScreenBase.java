@@ -164,7 +164,7 @@ public abstract class ViewerScreenBase
 			if (!set.isVisible())
 				continue;
 
-			ArrayList<Annotation> annotations = set.getFrontSet();
+			List<Annotation> annotations = set.getFrontSet();
 			for (Annotation a : annotations)
 				if (a != null)
 					renderBillboardText(a.getText(), new Vec3f(a.getPos()), a.getColor());
@@ -207,6 +207,17 @@ public abstract class ViewerScreenBase
 				overlay.render(gl, glu, glut, vp);
 	}
 
+	@Override
+	public boolean isAnimating()
+	{
+		if (!textOverlays.isEmpty())
+			return true;
+		for (Screen overlay : overlays)
+			if (overlay.isVisible() && overlay.isAnimating())
+				return true;
+		return false;
+	}
+
 	private String formatNumTeamPlayers(Team team)
 	{
 		return String.format("%s : %d", team.getName(), team.getAgents().size());
@@ -331,7 +342,8 @@ public abstract class ViewerScreenBase
 			setRobotVantage(RobotVantageType.FIRST_PERSON);
 			break;
 		case KeyEvent.VK_E:
-			setRobotVantage(RobotVantageType.THIRD_PERSON);
+			if (!e.isControlDown())
+				setRobotVantage(RobotVantageType.THIRD_PERSON);
 			break;
 		case KeyEvent.VK_I:
 			toggleOverheadType();
@@ -0,0 +1,133 @@
+/*
+ *  Copyright 2011 RoboViz
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package rv.util;
+
+/**
+ * Primitive math on 4x4 rigid transformation matrices in column-major order, as used by
+ * {@link js.math.vector.Matrix}
+ */
+public class TransformUtil
+{
+	/**
+	 * Interpolates between two rigid transformations: the translation linearly and the rotation by
+	 * spherical linear interpolation of its quaternion.
+	 *
+	 * @param a
+	 *            - transformation at t = 0
+	 * @param b
+	 *            - transformation at t = 1
+	 * @param t
+	 *            - interpolation factor in [0, 1]
+	 * @param out
+	 *            - 16 elements receiving the result, may not be a or b
+	 */
+	public static void interpolate(double[] a, double[] b, double t, double[] out)
+	{
+		interpolate(a, b, t, out, new double[4], new double[4]);
+	}
+
+	/**
+	 * Like {@link #interpolate(double[], double[], double, double[])}, but with caller owned scratch
+	 * arrays of 4 elements for the two quaternions, so nothing is allocated
+	 */
+	public static void interpolate(double[] a, double[] b, double t, double[] out, double[] qa, double[] qb)
+	{
+		toQuaternion(a, qa);
+		toQuaternion(b, qb);
+
+		// take the shorter way around
+		double cos = qa[0] * qb[0] + qa[1] * qb[1] + qa[2] * qb[2] + qa[3] * qb[3];
+		double sign = 1;
+		if (cos < 0) {
+			cos = -cos;
+			sign = -1;
+		}
+
+		double wa;
+		double wb;
+		if (cos > 0.9995) {
+			// nearly identical rotations, where slerp is numerically unstable
+			wa = 1 - t;
+			wb = t;
+		} else {
+			double angle = Math.acos(cos);
+			double sin = Math.sin(angle);
+			wa = Math.sin((1 - t) * angle) / sin;
+			wb = Math.sin(t * angle) / sin;
+		}
+		wb *= sign;
+
+		double x = wa * qa[0] + wb * qb[0];
+		double y = wa * qa[1] + wb * qb[1];
+		double z = wa * qa[2] + wb * qb[2];
+		double w = wa * qa[3] + wb * qb[3];
+		double length = Math.sqrt(x * x + y * y + z * z + w * w);
+		x /= length;
+		y /= length;
+		z /= length;
+		w /= length;
+
+		out[0] = 1 - 2 * (y * y + z * z);
+		out[1] = 2 * (x * y + z * w);
+		out[2] = 2 * (x * z - y * w);
+		out[3] = 0;
+		out[4] = 2 * (x * y - z * w);
+		out[5] = 1 - 2 * (x * x + z * z);
+		out[6] = 2 * (y * z + x * w);
+		out[7] = 0;
+		out[8] = 2 * (x * z + y * w);
+		out[9] = 2 * (y * z - x * w);
+		out[10] = 1 - 2 * (x * x + y * y);
+		out[11] = 0;
+		out[12] = a[12] + (b[12] - a[12]) * t;
+		out[13] = a[13] + (b[13] - a[13]) * t;
+		out[14] = a[14] + (b[14] - a[14]) * t;
+		out[15] = 1;
+	}
+
+	/** Extracts the rotation of a transformation as quaternion (x, y, z, w) */
+	public static void toQuaternion(double[] m, double[] q)
+	{
+		double m00 = m[0], m11 = m[5], m22 = m[10];
+		double trace = m00 + m11 + m22;
+		if (trace > 0) {
+			double s = Math.sqrt(trace + 1) * 2;
+			q[3] = 0.25 * s;
+			q[0] = (m[6] - m[9]) / s;
+			q[1] = (m[8] - m[2]) / s;
+			q[2] = (m[1] - m[4]) / s;
+		} else if (m00 > m11 && m00 > m22) {
+			double s = Math.sqrt(1 + m00 - m11 - m22) * 2;
+			q[3] = (m[6] - m[9]) / s;
+			q[0] = 0.25 * s;
+			q[1] = (m[4] + m[1]) / s;
+			q[2] = (m[8] + m[2]) / s;
+		} else if (m11 > m22) {
+			double s = Math.sqrt(1 + m11 - m00 - m22) * 2;
+			q[3] = (m[8] - m[2]) / s;
+			q[0] = (m[4] + m[1]) / s;
+			q[1] = 0.25 * s;
+			q[2] = (m[9] + m[6]) / s;
+		} else {
+			double s = Math.sqrt(1 + m22 - m00 - m11) * 2;
+			q[3] = (m[1] - m[4]) / s;
+			q[0] = (m[8] + m[2]) / s;
+			q[1] = (m[9] + m[6]) / s;
+			q[2] = 0.25 * s;
+		}
+	}
+}
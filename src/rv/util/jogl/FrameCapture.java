@@ -0,0 +1,305 @@
+/*
+ *  Copyright 2011 RoboViz
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package rv.util.jogl;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+import com.jogamp.common.nio.Buffers;
+
+/**
+ * Captures frames to image files without stalling the GL thread. The pixels of a frame are read
+ * into a pixel buffer object, which the driver fills asynchronously, and only mapped one frame
+ * later when the transfer is done. The mapped pixels are copied to an image that is encoded by a
+ * pool of worker threads.
+ * <p>
+ * No frames are dropped: if the encoders fall behind, capturing blocks until an image buffer is
+ * free again, which slows down rendering instead. Without pixel buffer objects, the pixels are read
+ * synchronously, but still encoded in the background.
+ * <p>
+ * Besides image files, frames can be handed to a {@link FrameWriter}, e.g. to stream them to a
+ * video encoder.
+ */
+public class FrameCapture
+{
+	/** Receives captured frames as top-down rows of pixels in 0xRRGGBB format (alpha is undefined) */
+	public interface FrameWriter {
+		void write(int[] pixels, int width, int height) throws IOException;
+	}
+
+	/** frames whose readback is in flight, which is enough to map each one a frame later */
+	private static final int READBACK_BUFFERS = 3;
+	private static final DirectColorModel COLOR_MODEL = new DirectColorModel(24, 0xff0000, 0xff00, 0xff);
+
+	/** pixel buffer object with the readback of a frame */
+	private static class Readback
+	{
+		final int buffer;
+		int size;
+		int width;
+		int height;
+		FrameWriter writer;
+		boolean ordered;
+
+		Readback(int buffer)
+		{
+			this.buffer = buffer;
+		}
+	}
+
+	private final boolean usePBOs;
+	private final Readback[] readbacks = new Readback[READBACK_BUFFERS];
+	private final Queue<Readback> pending = new ArrayDeque<>();
+	private final ThreadPoolExecutor encoders;
+	/** writes the frames that must arrive in capture order, one at a time */
+	private final ExecutorService orderedWriter = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "Frame Writer");
+		t.setDaemon(true);
+		return t;
+	});
+	/** permits for images in flight, i.e. copied from the GL but not yet encoded */
+	private final Semaphore freeImages;
+	private final Queue<int[]> imagePool = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger encodingFrames = new AtomicInteger();
+	private IntBuffer syncPixels;
+
+	/**
+	 * @param maxImages
+	 *            - maximum number of frames waiting to be encoded before capturing blocks
+	 */
+	public FrameCapture(GL2 gl, int maxImages)
+	{
+		usePBOs = gl.isExtensionAvailable("GL_VERSION_2_1") || gl.isExtensionAvailable("GL_ARB_pixel_buffer_object");
+		if (usePBOs) {
+			int[] ids = new int[READBACK_BUFFERS];
+			gl.glGenBuffers(READBACK_BUFFERS, ids, 0);
+			for (int i = 0; i < READBACK_BUFFERS; i++)
+				readbacks[i] = new Readback(ids[i]);
+		}
+		encoders = createEncoderPool();
+		freeImages = new Semaphore(maxImages);
+	}
+
+	private static ThreadPoolExecutor createEncoderPool()
+	{
+		int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+		AtomicInteger threadCount = new AtomicInteger();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 5, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), r -> {
+					Thread t = new Thread(r, "Image Encoder " + threadCount.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/** Number of captured frames that haven't been written yet */
+	public int getPendingFrames()
+	{
+		return pending.size() + encodingFrames.get();
+	}
+
+	/**
+	 * Starts reading a region of the current read buffer, which is written to a file once the
+	 * pixels arrive. The image format is chosen by the file extension.
+	 */
+	public void capture(GL2 gl, int x, int y, int width, int height, File file)
+	{
+		capture(gl, x, y, width, height, file, null);
+	}
+
+	/**
+	 * Like {@link #capture(GL2, int, int, int, int, File)}, with a callback once the file is written
+	 *
+	 * @param written
+	 *            - run by the encoder once the file is written, may be null
+	 */
+	public void capture(GL2 gl, int x, int y, int width, int height, File file, Runnable written)
+	{
+		capture(gl, x, y, width, height, (pixels, w, h) -> {
+			if (writeImage(pixels, w, h, file) && written != null)
+				written.run();
+		}, false);
+	}
+
+	/**
+	 * Starts reading a region of the current read buffer, which is passed to a writer once the
+	 * pixels arrive
+	 *
+	 * @param ordered
+	 *            - whether the writer must receive the frames one at a time and in the order they
+	 *            were captured, otherwise they are written in parallel
+	 */
+	public void capture(GL2 gl, int x, int y, int width, int height, FrameWriter writer, boolean ordered)
+	{
+		if (!usePBOs) {
+			int size = width * height;
+			if (syncPixels == null || syncPixels.capacity() < size)
+				syncPixels = Buffers.newDirectIntBuffer(size);
+			readPixels(gl, x, y, width, height, syncPixels);
+			encode(syncPixels, width, height, writer, ordered);
+			return;
+		}
+
+		Readback readback = null;
+		for (Readback r : readbacks)
+			if (!pending.contains(r)) {
+				readback = r;
+				break;
+			}
+		if (readback == null) {
+			// more captures in one frame than buffers, so the oldest one has to wait
+			readback = pending.remove();
+			complete(gl, readback);
+		}
+
+		readback.width = width;
+		readback.height = height;
+		readback.writer = writer;
+		readback.ordered = ordered;
+		gl.glBindBuffer(GL2.GL_PIXEL_PACK_BUFFER, readback.buffer);
+		int size = width * height * 4;
+		if (readback.size != size) {
+			gl.glBufferData(GL2.GL_PIXEL_PACK_BUFFER, size, null, GL2.GL_STREAM_READ);
+			readback.size = size;
+		}
+		gl.glPixelStorei(GL.GL_PACK_ALIGNMENT, 4);
+		gl.glReadPixels(x, y, width, height, GL2.GL_BGRA, GL2.GL_UNSIGNED_INT_8_8_8_8_REV, 0);
+		gl.glBindBuffer(GL2.GL_PIXEL_PACK_BUFFER, 0);
+		pending.add(readback);
+	}
+
+	/**
+	 * Hands the frames captured before the current one to the encoders. Called once per frame
+	 * before new captures, when the transfers of the previous frame are done.
+	 */
+	public void update(GL2 gl)
+	{
+		while (!pending.isEmpty())
+			complete(gl, pending.remove());
+	}
+
+	private void complete(GL2 gl, Readback readback)
+	{
+		gl.glBindBuffer(GL2.GL_PIXEL_PACK_BUFFER, readback.buffer);
+		ByteBuffer mapped = gl.glMapBuffer(GL2.GL_PIXEL_PACK_BUFFER, GL2.GL_READ_ONLY);
+		if (mapped != null) {
+			encode(mapped.order(ByteOrder.nativeOrder()).asIntBuffer(), readback.width, readback.height,
+					readback.writer, readback.ordered);
+			gl.glUnmapBuffer(GL2.GL_PIXEL_PACK_BUFFER);
+		} else {
+			System.err.println("Failed to map the pixels of a captured frame");
+		}
+		gl.glBindBuffer(GL2.GL_PIXEL_PACK_BUFFER, 0);
+		readback.writer = null;
+	}
+
+	private static void readPixels(GL2 gl, int x, int y, int width, int height, IntBuffer pixels)
+	{
+		pixels.clear();
+		gl.glPixelStorei(GL.GL_PACK_ALIGNMENT, 4);
+		gl.glReadPixels(x, y, width, height, GL2.GL_BGRA, GL2.GL_UNSIGNED_INT_8_8_8_8_REV, pixels);
+	}
+
+	/** Copies bottom-up ARGB pixels to a top-down image and queues it for encoding */
+	private void encode(IntBuffer pixels, int width, int height, FrameWriter writer, boolean ordered)
+	{
+		freeImages.acquireUninterruptibly();
+		int[] image = imagePool.poll();
+		if (image == null || image.length != width * height)
+			image = new int[width * height];
+		for (int row = 0; row < height; row++) {
+			pixels.position((height - 1 - row) * width);
+			pixels.get(image, row * width, width);
+		}
+
+		int[] data = image;
+		encodingFrames.incrementAndGet();
+		(ordered ? orderedWriter : encoders).execute(() -> {
+			try {
+				writer.write(data, width, height);
+			} catch (IOException e) {
+				e.printStackTrace();
+			} finally {
+				imagePool.add(data);
+				encodingFrames.decrementAndGet();
+				freeImages.release();
+			}
+		});
+	}
+
+	private static boolean writeImage(int[] pixels, int width, int height, File file) throws IOException
+	{
+		WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(pixels, pixels.length), width, height,
+				width, COLOR_MODEL.getMasks(), null);
+		BufferedImage image = new BufferedImage(COLOR_MODEL, raster, false, null);
+		String name = file.getName();
+		String format = name.substring(name.lastIndexOf('.') + 1);
+		File dir = file.getAbsoluteFile().getParentFile();
+		if (!dir.exists())
+			dir.mkdirs();
+		if (!ImageIO.write(image, format, file)) {
+			System.err.println("No image writer for " + file);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Writes all captured frames and waits for the encoders to finish. Must be called while the
+	 * context is current.
+	 */
+	public void dispose(GL2 gl)
+	{
+		update(gl);
+		if (usePBOs) {
+			int[] ids = new int[READBACK_BUFFERS];
+			for (int i = 0; i < READBACK_BUFFERS; i++)
+				ids[i] = readbacks[i].buffer;
+			gl.glDeleteBuffers(READBACK_BUFFERS, ids, 0);
+		}
+		encoders.shutdown();
+		orderedWriter.shutdown();
+		try {
+			encoders.awaitTermination(30, TimeUnit.SECONDS);
+			orderedWriter.awaitTermination(30, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
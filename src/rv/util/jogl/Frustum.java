@@ -0,0 +1,111 @@
+/*
+ *  Copyright 2011 RoboViz
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package rv.util.jogl;
+
+import javax.media.opengl.GL2;
+import javax.media.opengl.fixedfunc.GLMatrixFunc;
+
+/**
+ * View frustum for culling axis-aligned bounding boxes. The planes are extracted from the combined
+ * projection and modelview matrices, so the frustum always matches the camera that was last applied
+ * to the GL state (including the left / right eye in stereo mode).
+ */
+public class Frustum
+{
+	private final float[] projection = new float[16];
+	private final float[] modelView = new float[16];
+	private final float[] clip = new float[16];
+
+	/** 6 planes as (a, b, c, d) with ax + by + cz + d >= 0 for points inside */
+	private final float[] planes = new float[24];
+	private float eyeX, eyeY, eyeZ;
+
+	/** Extracts the frustum of the projection and modelview matrices currently set in GL */
+	public void update(GL2 gl)
+	{
+		gl.glGetFloatv(GLMatrixFunc.GL_PROJECTION_MATRIX, projection, 0);
+		gl.glGetFloatv(GLMatrixFunc.GL_MODELVIEW_MATRIX, modelView, 0);
+		update(projection, modelView);
+	}
+
+	/**
+	 * Extracts the frustum of a projection and view matrix, both in column-major order as used by
+	 * OpenGL.
+	 */
+	public void update(float[] projection, float[] view)
+	{
+		for (int col = 0; col < 4; col++) {
+			for (int row = 0; row < 4; row++) {
+				float sum = 0;
+				for (int k = 0; k < 4; k++)
+					sum += projection[k * 4 + row] * view[col * 4 + k];
+				clip[col * 4 + row] = sum;
+			}
+		}
+
+		// the view matrix is rigid, so the eye is the negated translation rotated back
+		eyeX = -(view[0] * view[12] + view[1] * view[13] + view[2] * view[14]);
+		eyeY = -(view[4] * view[12] + view[5] * view[13] + view[6] * view[14]);
+		eyeZ = -(view[8] * view[12] + view[9] * view[13] + view[10] * view[14]);
+
+		// left, right, bottom, top, near, far (Gribb / Hartmann)
+		for (int axis = 0; axis < 3; axis++) {
+			for (int i = 0; i < 4; i++) {
+				float w = clip[i * 4 + 3];
+				float v = clip[i * 4 + axis];
+				planes[axis * 8 + i] = w + v;
+				planes[axis * 8 + 4 + i] = w - v;
+			}
+		}
+	}
+
+	/**
+	 * Tests whether an axis-aligned box intersects the frustum. The test is conservative: boxes near
+	 * the frustum corners may be reported as intersecting although they are outside.
+	 */
+	public boolean intersects(float minX, float minY, float minZ, float maxX, float maxY, float maxZ)
+	{
+		for (int i = 0; i < planes.length; i += 4) {
+			float a = planes[i];
+			float b = planes[i + 1];
+			float c = planes[i + 2];
+			// the corner of the box farthest along the plane normal
+			float x = a >= 0 ? maxX : minX;
+			float y = b >= 0 ? maxY : minY;
+			float z = c >= 0 ? maxZ : minZ;
+			if (a * x + b * y + c * z + planes[i + 3] < 0)
+				return false;
+		}
+		return true;
+	}
+
+	/** Tests a box given as min x, y, z followed by max x, y, z starting at the given offset */
+	public boolean intersects(float[] bounds, int offset)
+	{
+		return intersects(bounds[offset], bounds[offset + 1], bounds[offset + 2], bounds[offset + 3],
+				bounds[offset + 4], bounds[offset + 5]);
+	}
+
+	/** Distance of a point from the eye, which is only meaningful for perspective projections */
+	public float distanceToEye(float x, float y, float z)
+	{
+		float dx = x - eyeX;
+		float dy = y - eyeY;
+		float dz = z - eyeZ;
+		return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ *  Copyright 2011 RoboViz
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package rv.util.jogl;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+import rv.util.metrics.Histogram;
+
+/**
+ * Measures the GPU time of the render passes of a frame with timestamp queries. The timestamps are
+ * read a few frames later, once the GPU has executed the frame, so that reading them doesn't stall
+ * the pipeline. If the timestamps of a frame still aren't available when its queries are needed
+ * again, the frame isn't measured.
+ */
+public class GPUTimer
+{
+	/** frames whose timestamps may be in flight */
+	private static final int FRAMES = 3;
+	/** timestamps per frame, one at the beginning and one at the end of each pass */
+	private static final int MAX_TIMESTAMPS = 16;
+
+	private final Histogram frameTime;
+	private final int[] queries = new int[FRAMES * MAX_TIMESTAMPS];
+	/** histogram of each pass of the frames in flight */
+	private final Histogram[][] passTimes = new Histogram[FRAMES][MAX_TIMESTAMPS / 2];
+	private final int[] timestampCounts = new int[FRAMES];
+	private final long[] timestamps = new long[MAX_TIMESTAMPS];
+	private final int[] available = new int[1];
+	private int frame;
+
+	private GPUTimer(GL2 gl, Histogram frameTime)
+	{
+		this.frameTime = frameTime;
+		gl.glGenQueries(queries.length, queries, 0);
+	}
+
+	/**
+	 * Creates a timer if the context supports timestamp queries, otherwise returns null
+	 *
+	 * @param frameTime
+	 *            - receives the GPU time from the beginning of the first to the end of the last
+	 *            pass of each frame
+	 */
+	public static GPUTimer create(GL2 gl, Histogram frameTime)
+	{
+		if (!gl.isExtensionAvailable("GL_VERSION_3_3") && !gl.isExtensionAvailable("GL_ARB_timer_query"))
+			return null;
+		return new GPUTimer(gl, frameTime);
+	}
+
+	/** Starts a new frame, recording the times of the frame that used its queries before */
+	public void beginFrame(GL2 gl)
+	{
+		frame = (frame + 1) % FRAMES;
+		collect(gl, frame);
+		timestampCounts[frame] = 0;
+	}
+
+	public void beginPass(GL2 gl)
+	{
+		int n = timestampCounts[frame];
+		if (n % 2 != 0 || n + 2 > MAX_TIMESTAMPS)
+			return;
+		gl.glQueryCounter(queries[frame * MAX_TIMESTAMPS + n], GL2.GL_TIMESTAMP);
+		timestampCounts[frame] = n + 1;
+	}
+
+	/**
+	 * @param time
+	 *            - receives the GPU time of the pass once it is available
+	 */
+	public void endPass(GL2 gl, Histogram time)
+	{
+		int n = timestampCounts[frame];
+		if (n % 2 == 0)
+			return;
+		passTimes[frame][n / 2] = time;
+		gl.glQueryCounter(queries[frame * MAX_TIMESTAMPS + n], GL2.GL_TIMESTAMP);
+		timestampCounts[frame] = n + 1;
+	}
+
+	private void collect(GL2 gl, int f)
+	{
+		int n = timestampCounts[f];
+		if (n < 2)
+			return;
+
+		// the timestamps are written in order, so all of them are available once the last one is
+		int base = f * MAX_TIMESTAMPS;
+		gl.glGetQueryObjectiv(queries[base + n - 1], GL2.GL_QUERY_RESULT_AVAILABLE, available, 0);
+		if (available[0] == 0)
+			return;
+
+		for (int i = 0; i < n; i++)
+			gl.glGetQueryObjectui64v(queries[base + i], GL2.GL_QUERY_RESULT, timestamps, i);
+		for (int i = 0; i < n / 2; i++) {
+			passTimes[f][i].record((timestamps[2 * i + 1] - timestamps[2 * i]) / 1000);
+			passTimes[f][i] = null;
+		}
+		if (frameTime != null)
+			frameTime.record((timestamps[n - 1] - timestamps[0]) / 1000);
+	}
+
+	public void dispose(GL gl)
+	{
+		gl.getGL2().glDeleteQueries(queries.length, queries, 0);
+	}
+}
@@ -0,0 +1,51 @@
+/*
+ *  Copyright 2011 RoboViz
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package rv.util.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/** Number of events, which can be incremented from any thread without contention */
+public class Counter
+{
+	private final String name;
+	private final LongAdder count = new LongAdder();
+
+	Counter(String name)
+	{
+		this.name = name;
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	public void increment()
+	{
+		count.increment();
+	}
+
+	public void add(long n)
+	{
+		count.add(n);
+	}
+
+	public long get()
+	{
+		return count.sum();
+	}
+}
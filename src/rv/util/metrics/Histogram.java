@@ -0,0 +1,144 @@
+/*
+ *  Copyright 2011 RoboViz
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package rv.util.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of durations in microseconds with a fixed memory footprint. Like an HDR histogram,
+ * values are counted in log-linear buckets: exact below 64 us, and with a relative error of at most
+ * 1/32 (about 3%) above, up to {@link #MAX_VALUE}. Recording is lock-free and allocation-free, so
+ * it can be called from any thread on hot paths.
+ * <p>
+ * Percentiles are computed from copies of the bucket counts (see {@link #getCounts(long[])}), which
+ * can be subtracted from each other to get the distribution of an interval.
+ */
+public class Histogram
+{
+	/** buckets per power of two above the linear range */
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	/** values below this are counted exactly */
+	private static final int LINEAR_RANGE = 2 * SUB_BUCKETS;
+	private static final int VALUE_BITS = 40;
+	/** largest value in microseconds (about 12 days), larger values are clamped */
+	public static final long MAX_VALUE = (1L << VALUE_BITS) - 1;
+	public static final int BUCKETS = bucketIndex(MAX_VALUE) + 1;
+
+	private final String name;
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	Histogram(String name)
+	{
+		this.name = name;
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	/** Records a duration in microseconds */
+	public void record(long micros)
+	{
+		long value = Math.max(0, Math.min(MAX_VALUE, micros));
+		counts.incrementAndGet(bucketIndex(value));
+		count.increment();
+		sum.add(value);
+		long m = max.get();
+		while (value > m && !max.compareAndSet(m, value))
+			m = max.get();
+	}
+
+	/** Records the time since a {@link System#nanoTime()} value */
+	public void recordSince(long startNanos)
+	{
+		record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+	}
+
+	public long getCount()
+	{
+		return count.sum();
+	}
+
+	/** Mean of all recorded values in microseconds */
+	public double getMean()
+	{
+		long n = count.sum();
+		return n == 0 ? 0 : (double) sum.sum() / n;
+	}
+
+	/** Largest recorded value in microseconds */
+	public long getMax()
+	{
+		return max.get();
+	}
+
+	/**
+	 * Copies the bucket counts into an array of {@link #BUCKETS} entries. Concurrent recordings may
+	 * or may not be included.
+	 */
+	public long[] getCounts(long[] result)
+	{
+		for (int i = 0; i < BUCKETS; i++)
+			result[i] = counts.get(i);
+		return result;
+	}
+
+	/** Value in microseconds below which the given percentage (0 - 100) of the counted values lie */
+	public static long getValueAtPercentile(long[] counts, double percentile)
+	{
+		long total = 0;
+		for (long c : counts)
+			total += c;
+		if (total == 0)
+			return 0;
+
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank)
+				return highestEquivalentValue(i);
+		}
+		return highestEquivalentValue(counts.length - 1);
+	}
+
+	static int bucketIndex(long value)
+	{
+		if (value < LINEAR_RANGE)
+			return (int) value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+	}
+
+	/** Largest value that is counted in a bucket */
+	static long highestEquivalentValue(int index)
+	{
+		if (index < LINEAR_RANGE)
+			return index;
+		int shift = (index >>> SUB_BUCKET_BITS) - 1;
+		long subBucket = index - ((long) shift << SUB_BUCKET_BITS);
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
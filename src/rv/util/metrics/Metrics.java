@@ -0,0 +1,144 @@
+/*
+ *  Copyright 2011 RoboViz
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package rv.util.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ * Registry of the histograms and counters of the viewer. Metrics are created on first use and kept
+ * for the lifetime of the process, so classes can look them up once and keep them in static
+ * fields. Names are dot-separated, starting with the part of the viewer they measure.
+ */
+public final class Metrics
+{
+	private static final Map<String, Histogram> histogramsByName = new ConcurrentHashMap<>();
+	private static final Map<String, Counter> countersByName = new ConcurrentHashMap<>();
+	/** in order of creation, for display */
+	private static final List<Histogram> histograms = new CopyOnWriteArrayList<>();
+	private static final List<Counter> counters = new CopyOnWriteArrayList<>();
+	private static boolean monitoringGC = false;
+
+	private Metrics()
+	{
+	}
+
+	public static Histogram histogram(String name)
+	{
+		return histogramsByName.computeIfAbsent(name, n -> {
+			Histogram h = new Histogram(n);
+			histograms.add(h);
+			return h;
+		});
+	}
+
+	public static Counter counter(String name)
+	{
+		return countersByName.computeIfAbsent(name, n -> {
+			Counter c = new Counter(n);
+			counters.add(c);
+			return c;
+		});
+	}
+
+	public static List<Histogram> getHistograms()
+	{
+		return histograms;
+	}
+
+	public static List<Counter> getCounters()
+	{
+		return counters;
+	}
+
+	/**
+	 * Records the pauses of the garbage collectors in the histogram "gc.pause", if the JVM reports
+	 * them
+	 */
+	public static synchronized void monitorGarbageCollection()
+	{
+		if (monitoringGC)
+			return;
+		monitoringGC = true;
+
+		Histogram pauses = histogram("gc.pause");
+		Counter collections = counter("gc.collections");
+		try {
+			for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+				if (!(gc instanceof NotificationEmitter))
+					continue;
+				((NotificationEmitter) gc).addNotificationListener((notification, handback) -> {
+					if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION))
+						return;
+					GarbageCollectionNotificationInfo info =
+							GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+					pauses.record(info.getGcInfo().getDuration() * 1000);
+					collections.increment();
+				}, null, null);
+			}
+		} catch (LinkageError e) {
+			// not a HotSpot based JVM, so collections aren't reported
+		}
+	}
+
+	/**
+	 * Writes the totals of all metrics since the start of the viewer as JSON: count, mean, max and
+	 * percentiles (in microseconds) of each histogram and the value of each counter
+	 */
+	public static void writeJson(File file) throws IOException
+	{
+		File dir = file.getAbsoluteFile().getParentFile();
+		if (!dir.exists())
+			dir.mkdirs();
+
+		long[] counts = new long[Histogram.BUCKETS];
+		try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+			out.println("{");
+			out.println("  \"histograms\": {");
+			for (int i = 0; i < histograms.size(); i++) {
+				Histogram h = histograms.get(i);
+				h.getCounts(counts);
+				out.printf(Locale.US,
+						"    \"%s\": {\"unit\": \"us\", \"count\": %d, \"mean\": %.1f, \"p50\": %d, \"p90\": %d, "
+								+ "\"p99\": %d, \"p999\": %d, \"max\": %d}%s%n",
+						h.getName(), h.getCount(), h.getMean(), Histogram.getValueAtPercentile(counts, 50),
+						Histogram.getValueAtPercentile(counts, 90), Histogram.getValueAtPercentile(counts, 99),
+						Histogram.getValueAtPercentile(counts, 99.9), h.getMax(),
+						i < histograms.size() - 1 ? "," : "");
+			}
+			out.println("  },");
+			out.println("  \"counters\": {");
+			for (int i = 0; i < counters.size(); i++) {
+				Counter c = counters.get(i);
+				out.printf(Locale.US, "    \"%s\": %d%s%n", c.getName(), c.get(), i < counters.size() - 1 ? "," : "");
+			}
+			out.println("  }");
+			out.println("}");
+		}
+	}
+}
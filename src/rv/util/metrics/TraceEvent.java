@@ -0,0 +1,217 @@
+/*
+ *  Copyright 2011 RoboViz
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package rv.util.metrics;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Type of a Java Flight Recorder event with a duration. The JFR API (jdk.jfr) is only available
+ * from Java 11 and later updates of Java 8 on, while RoboViz still targets Java 1.8, so event types
+ * are created reflectively with its event factory. Without JFR, events are never enabled.
+ * <p>
+ * Whether an event is enabled is cached and refreshed whenever a recording starts or stops, so
+ * the cost of a disabled event is a volatile read:
+ *
+ * <pre>
+ * Object event = EVENT.begin();
+ * ...
+ * if (event != null)
+ * 	EVENT.commit(event, field0, field1);
+ * </pre>
+ */
+public class TraceEvent
+{
+	/** field of an event: its type (a primitive type or String), name and label */
+	public static class Field
+	{
+		final Class<?> type;
+		final String name;
+		final String label;
+
+		public Field(Class<?> type, String name, String label)
+		{
+			this.type = type;
+			this.name = name;
+			this.label = label;
+		}
+	}
+
+	private static final List<TraceEvent> events = new CopyOnWriteArrayList<>();
+	private static boolean available;
+	private static MethodHandle newEvent;
+	private static MethodHandle getEventType;
+	private static MethodHandle isEnabled;
+	private static MethodHandle begin;
+	private static MethodHandle end;
+	private static MethodHandle set;
+	private static MethodHandle shouldCommit;
+	private static MethodHandle commit;
+
+	static {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+			Class<?> eventClass = Class.forName("jdk.jfr.Event");
+			Class<?> eventTypeClass = Class.forName("jdk.jfr.EventType");
+			newEvent = lookup.unreflect(factoryClass.getMethod("newEvent"));
+			getEventType = lookup.unreflect(factoryClass.getMethod("getEventType"));
+			isEnabled = lookup.unreflect(eventTypeClass.getMethod("isEnabled"));
+			begin = lookup.unreflect(eventClass.getMethod("begin"));
+			end = lookup.unreflect(eventClass.getMethod("end"));
+			set = lookup.unreflect(eventClass.getMethod("set", int.class, Object.class));
+			shouldCommit = lookup.unreflect(eventClass.getMethod("shouldCommit"));
+			commit = lookup.unreflect(eventClass.getMethod("commit"));
+
+			Class<?> listenerClass = Class.forName("jdk.jfr.FlightRecorderListener");
+			Object listener = Proxy.newProxyInstance(
+					TraceEvent.class.getClassLoader(), new Class<?>[] {listenerClass}, (proxy, method, args) -> {
+						switch (method.getName()) {
+						case "hashCode":
+							return System.identityHashCode(proxy);
+						case "equals":
+							return proxy == args[0];
+						case "toString":
+							return "RoboViz event listener";
+						default:
+							// recorder initialized or recording state changed
+							for (TraceEvent event : events)
+								event.refresh();
+							return null;
+						}
+					});
+			Class.forName("jdk.jfr.FlightRecorder").getMethod("addListener", listenerClass).invoke(null, listener);
+			available = true;
+		} catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+			// no JFR in this JVM
+			available = false;
+		}
+	}
+
+	private final String name;
+	private Object factory;
+	private volatile boolean enabled;
+
+	/**
+	 * @param name
+	 *            - stable name of the event in recordings, e.g. "rv.MessageParse"
+	 * @param label
+	 *            - human readable name shown by JDK Mission Control
+	 * @param description
+	 *            - what is measured by the duration of the event
+	 */
+	public TraceEvent(String name, String label, String description, Field... fields)
+	{
+		this.name = name;
+		if (!available)
+			return;
+
+		try {
+			Class<?> elementClass = Class.forName("jdk.jfr.AnnotationElement");
+			Constructor<?> element = elementClass.getConstructor(Class.class, Object.class);
+			List<Object> annotations = new ArrayList<>();
+			annotations.add(element.newInstance(annotation("jdk.jfr.Name"), name));
+			annotations.add(element.newInstance(annotation("jdk.jfr.Label"), label));
+			annotations.add(element.newInstance(annotation("jdk.jfr.Description"), description));
+			annotations.add(element.newInstance(annotation("jdk.jfr.Category"), new String[] {"RoboViz"}));
+			annotations.add(element.newInstance(annotation("jdk.jfr.StackTrace"), false));
+
+			Constructor<?> descriptor =
+					Class.forName("jdk.jfr.ValueDescriptor").getConstructor(Class.class, String.class, List.class);
+			List<Object> values = new ArrayList<>();
+			for (Field f : fields)
+				values.add(descriptor.newInstance(f.type, f.name,
+						Arrays.asList(element.newInstance(annotation("jdk.jfr.Label"), f.label))));
+
+			factory = Class.forName("jdk.jfr.EventFactory")
+							  .getMethod("create", List.class, List.class)
+							  .invoke(null, annotations, values);
+			events.add(this);
+			refresh();
+		} catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+			System.err.println("Unable to register flight recorder event " + name + ": " + e);
+			factory = null;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Class<? extends Annotation> annotation(String name) throws ClassNotFoundException
+	{
+		return (Class<? extends Annotation>) Class.forName(name);
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	/** Whether a running recording records this event */
+	public boolean isEnabled()
+	{
+		return enabled;
+	}
+
+	private void refresh()
+	{
+		try {
+			enabled = (boolean) isEnabled.invoke(getEventType.invoke(factory));
+		} catch (Throwable e) {
+			enabled = false;
+		}
+	}
+
+	/** Starts timing an event, returns null if the event isn't recorded */
+	public Object begin()
+	{
+		if (!enabled)
+			return null;
+		try {
+			Object event = newEvent.invoke(factory);
+			begin.invoke(event);
+			return event;
+		} catch (Throwable e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Ends an event started by {@link #begin()} and writes it with the given field values, which
+	 * must match the types of the fields in order
+	 */
+	public void commit(Object event, Object... fieldValues)
+	{
+		if (event == null)
+			return;
+		try {
+			end.invoke(event);
+			if (!(boolean) shouldCommit.invoke(event))
+				return;
+			for (int i = 0; i < fieldValues.length; i++)
+				set.invoke(event, i, fieldValues[i]);
+			commit.invoke(event);
+		} catch (Throwable e) {
+			// events are best effort
+		}
+	}
+}
@@ -17,8 +17,9 @@
 package rv.world;
 
 import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
 import js.jogl.model.ObjMaterial;
 import rv.Configuration;
 import rv.Objects;
@@ -27,7 +28,6 @@ import rv.comm.rcssserver.GameState.GameStateChangeListener;
 import rv.comm.rcssserver.ISceneGraphItem;
 import rv.comm.rcssserver.scenegraph.Node;
 import rv.comm.rcssserver.scenegraph.SceneGraph;
-import rv.comm.rcssserver.scenegraph.StaticMeshNode;
 import rv.content.ContentManager;
 import rv.util.jogl.MaterialUtil;
 import rv.world.objects.Agent;
@@ -49,7 +49,8 @@ public class Team implements ISceneGraphItem, GameStateChangeListener
 	private final Color defaultColor;
 	private final int id;
 	private String name;
-	private final List<Agent> agents;
+	/** replaced as a whole when agents join or leave, so readers may keep a reference to it */
+	private volatile List<Agent> agents = Collections.emptyList();
 	private final ObjMaterial colorMaterial;
 	private Color color;
 	private int score;
@@ -75,6 +76,7 @@ public class Team implements ISceneGraphItem, GameStateChangeListener
 		return score;
 	}
 
+	/** The current agents; the list is unmodifiable and never changes once returned */
 	public List<Agent> getAgents()
 	{
 		return agents;
@@ -118,7 +120,6 @@ public class Team implements ISceneGraphItem, GameStateChangeListener
 		this.id = id;
 		this.content = content;
 		this.config = config;
-		agents = new CopyOnWriteArrayList<>();
 
 		name = (id == LEFT) ? "<Left>" : "<Right>";
 
@@ -134,20 +135,30 @@ public class Team implements ISceneGraphItem, GameStateChangeListener
 		// Add agents from scene graph to this team
 		// TODO: hopefully we can have the scene graph store agent IDs directly
 		// to avoid this computation and guessing
+		List<Agent> newAgents = null;
 		for (int i = 1; i <= MAX_AGENTS; i++) {
 			Agent existingAgent = getAgentByID(i);
 			Node agentNode = findAgent(i, sg);
 			if (agentNode != null) {
+				// keep agents whose part of the scene graph was reused
+				if (existingAgent != null && existingAgent.isBuiltFrom(agentNode, sg))
+					continue;
+				if (newAgents == null)
+					newAgents = new ArrayList<>(agents);
 				Agent newAgent = new Agent(this, i, agentNode, sg, content);
 				if (existingAgent != null) {
 					newAgent.setAnnotation(existingAgent.getAnnotation());
-					agents.remove(existingAgent);
+					newAgents.remove(existingAgent);
 				}
-				agents.add(newAgent);
+				newAgents.add(newAgent);
 			} else if (existingAgent != null) {
-				agents.remove(existingAgent);
+				if (newAgents == null)
+					newAgents = new ArrayList<>(agents);
+				newAgents.remove(existingAgent);
 			}
 		}
+		if (newAgents != null)
+			agents = Collections.unmodifiableList(newAgents);
 	}
 
 	@Override
@@ -176,22 +187,7 @@ public class Team implements ISceneGraphItem, GameStateChangeListener
 		// with specific materials that only belong to this agent
 		String matAgentID = "matNum" + agentID;
 		String matTeamID = id == Team.LEFT ? "matLeft" : "matRight";
-		String[] materials = {matAgentID, matTeamID};
-
-		// see if a node can be found with these materials
-		StaticMeshNode leaf = sg.findStaticMeshNode(sg.getRoot(), materials);
-		if (leaf == null)
-			return null;
-
-		// root of the agent node is one level lower than root of entire scene
-		// graph
-		Node root = leaf;
-		if (root.getParent() == null)
-			return root;
-		while (root.getParent().getParent() != null) {
-			root = root.getParent();
-		}
-		return root;
+		return sg.findAgentRoot(matTeamID, matAgentID);
 	}
 
 	@Override
@@ -18,6 +18,15 @@ package rv.world;
 
 import java.awt.Color;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
 import javax.media.opengl.GL;
 import javax.media.opengl.GL2;
 import javax.media.opengl.fixedfunc.GLLightingFunc;
@@ -29,14 +38,18 @@ import rv.Configuration;
 import rv.Viewer;
 import rv.comm.rcssserver.GameState;
 import rv.comm.rcssserver.ISceneGraphItem;
+import rv.comm.rcssserver.SExp;
+import rv.comm.rcssserver.scenegraph.Node;
 import rv.comm.rcssserver.scenegraph.SceneGraph;
 import rv.comm.rcssserver.scenegraph.SceneGraph.SceneGraphListener;
+import rv.comm.rcssserver.scenegraph.StaticMeshNode;
 import rv.content.ContentManager;
 import rv.ui.UserInterface;
 import rv.world.objects.Agent;
 import rv.world.objects.Ball;
 import rv.world.objects.Field;
 import rv.world.objects.SkyBox;
+import rv.world.rendering.RenderList;
 
 /**
  * Contains, updates, and renders world state data
@@ -54,6 +67,25 @@ public class WorldModel
 
 	private final GameState gameState = new GameState();
 	private SceneGraph sceneGraph = null;
+	private boolean interpolateTransforms = false;
+	/** time source of the interpolation, see {@link #setClock(LongSupplier, long)} */
+	private LongSupplier clock = System::nanoTime;
+	private long clockFrameInterval = 0;
+	/** mesh nodes of the scene graph, only collected again when its structure changes */
+	private List<StaticMeshNode> meshNodes = Collections.emptyList();
+	private final AtomicReference<WorldSnapshot> snapshot = new AtomicReference<>(WorldSnapshot.EMPTY);
+	private final Object frameLock = new Object();
+	private WorldSnapshot frameSnapshot = WorldSnapshot.EMPTY;
+
+	/**
+	 * Prepares the next frame (scene graph item updates and render list) while the current one is
+	 * presented. The thread exits when frames stop being rendered.
+	 */
+	private final ThreadPoolExecutor updateStage = createUpdateStage();
+	private Future<?> pendingFrame;
+	private WorldSnapshot nextSnapshot;
+	private RenderList renderList = new RenderList();
+	private RenderList nextRenderList = new RenderList();
 	private ContentManager cm;
 	private Configuration config;
 
@@ -130,11 +162,92 @@ public class WorldModel
 		return sceneGraph;
 	}
 
+	/** The most recently published snapshot */
+	public WorldSnapshot getSnapshot()
+	{
+		return snapshot.get();
+	}
+
+	/**
+	 * Held while a server message is applied to the scene graph and while a frame samples its
+	 * transforms, so a frame never mixes the transforms of two messages
+	 */
+	public Object getFrameLock()
+	{
+		return frameLock;
+	}
+
+	/** The snapshot taken at the start of the frame being rendered */
+	public WorldSnapshot getFrameSnapshot()
+	{
+		return frameSnapshot;
+	}
+
+	private static ThreadPoolExecutor createUpdateStage()
+	{
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), r -> {
+					Thread t = new Thread(r, "World Update");
+					t.setDaemon(true);
+					return t;
+				});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/** The meshes to draw in the frame being rendered */
+	public RenderList getRenderList()
+	{
+		return renderList;
+	}
+
+	/**
+	 * Publishes the current state of the world to the render thread. Called by the thread applying
+	 * server messages once a message is complete.
+	 */
+	public void publishSnapshot()
+	{
+		if (leftTeam == null || rightTeam == null)
+			return;
+		snapshot.set(WorldSnapshot.create(sceneGraph, meshNodes, leftTeam, rightTeam, gameState));
+	}
+
+	/** See {@link RenderList#setLowDetailAngle(int)}, must be called before frames are rendered */
+	public void setLowDetailAngle(int arcMinutes)
+	{
+		renderList.setLowDetailAngle(arcMinutes);
+		nextRenderList.setLowDetailAngle(arcMinutes);
+	}
+
+	/** Whether transforms are interpolated between server frames when rendering */
+	public void setInterpolateTransforms(boolean interpolateTransforms)
+	{
+		this.interpolateTransforms = interpolateTransforms;
+		if (sceneGraph != null)
+			sceneGraph.getTimeline().setEnabled(interpolateTransforms);
+	}
+
+	/**
+	 * Replaces the real time used for interpolating transforms by a clock that advances by a fixed
+	 * interval per server frame (see {@link rv.comm.rcssserver.scenegraph.Timeline#setClock}).
+	 * Must be called before the first scene graph is set.
+	 */
+	public void setClock(LongSupplier clock, long frameInterval)
+	{
+		this.clock = clock;
+		this.clockFrameInterval = frameInterval;
+	}
+
 	public void setSceneGraph(SceneGraph sceneGraph)
 	{
 		this.sceneGraph = sceneGraph;
+		meshNodes = sceneGraph == null ? Collections.<StaticMeshNode> emptyList() : collectMeshNodes(sceneGraph);
 
 		if (sceneGraph != null) {
+			sceneGraph.getTimeline().setEnabled(interpolateTransforms);
+			if (clockFrameInterval > 0)
+				sceneGraph.getTimeline().setClock(clock, clockFrameInterval);
+
 			for (SceneGraphListener sgl : sgListeners)
 				sgl.newSceneGraph(sceneGraph);
 
@@ -142,6 +255,43 @@ public class WorldModel
 				sgi.sceneGraphChanged(sceneGraph);
 		}
 
+		updateSelectedAgent();
+		publishSnapshot();
+	}
+
+	/**
+	 * Notifies listeners and scene graph items after the current scene graph has been reconciled
+	 * with a full scene graph, see {@link SceneGraph#reconcile(SExp, List, List)}. Nothing happens if
+	 * the structure didn't change.
+	 */
+	public void sceneGraphReconciled(List<Node> added, List<Node> removed)
+	{
+		if (added.isEmpty() && removed.isEmpty())
+			return;
+
+		meshNodes = collectMeshNodes(sceneGraph);
+
+		for (SceneGraphListener sgl : sgListeners) {
+			for (Node node : removed)
+				sgl.nodeRemoved(sceneGraph, node);
+			for (Node node : added)
+				sgl.nodeAdded(sceneGraph, node);
+		}
+
+		for (ISceneGraphItem sgi : sgItems)
+			sgi.sceneGraphChanged(sceneGraph);
+
+		updateSelectedAgent();
+	}
+
+	private static List<StaticMeshNode> collectMeshNodes(SceneGraph sceneGraph)
+	{
+		return Collections.unmodifiableList(sceneGraph.getAllMeshNodes());
+	}
+
+	/** Selects the agent that replaced the selected agent when the scene graph changed */
+	private void updateSelectedAgent()
+	{
 		if (selectedObject instanceof Agent) {
 			Agent agent = (Agent) selectedObject;
 			Agent newSelection;
@@ -233,22 +383,83 @@ public class WorldModel
 		sgItems.add(rightTeam);
 	}
 
-	public void update(GL gl, double elapsedMS, UserInterface ui)
+	/**
+	 * Starts preparing the next frame on the update stage. Called on the GL thread once the current
+	 * frame is rendered; the frame is completed by {@link #beginFrame()}.
+	 */
+	public void prepareNextFrame()
+	{
+		if (pendingFrame != null || updateStage.isShutdown())
+			return;
+		WorldSnapshot snapshot = this.snapshot.get();
+		RenderList list = nextRenderList;
+		nextSnapshot = snapshot;
+		pendingFrame = updateStage.submit(() -> prepareFrame(snapshot, list));
+	}
+
+	/**
+	 * Waits for the frame prepared by the update stage (or prepares it if none is pending) and makes
+	 * it the frame being rendered.
+	 */
+	public void beginFrame()
+	{
+		if (pendingFrame == null) {
+			nextSnapshot = snapshot.get();
+			prepareFrame(nextSnapshot, nextRenderList);
+		} else {
+			try {
+				pendingFrame.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			} finally {
+				pendingFrame = null;
+			}
+		}
+
+		frameSnapshot = nextSnapshot;
+		RenderList list = renderList;
+		renderList = nextRenderList;
+		nextRenderList = list;
+	}
+
+	private void prepareFrame(WorldSnapshot snapshot, RenderList list)
 	{
 		// Allow scene graph items to update their states prior to rendering.
 		// This is done in the update loop rather than the scene graph update
 		// method because the scene graph might update much more frequently than
 		// rendering occurs.
-		if (sceneGraph != null) {
-			for (ISceneGraphItem sgi : sgItems)
-				sgi.update(sceneGraph);
+		SceneGraph sceneGraph = snapshot.getSceneGraph();
+		synchronized (frameLock) {
+			if (sceneGraph != null) {
+				sceneGraph.getTimeline().setDisplayTime(clock.getAsLong());
+				for (ISceneGraphItem sgi : sgItems)
+					sgi.update(sceneGraph);
+			}
+			list.build(snapshot, cm);
 		}
+	}
 
-		skyBox.setPosition(ui.getCamera().getPosition());
+	public void update(GL gl, double elapsedMS, UserInterface ui)
+	{
+		update(elapsedMS, ui.getCamera().getPosition());
+	}
+
+	/** Advances the timers of the world by the elapsed time and centers the sky box on the camera */
+	public void update(double elapsedMS, Vec3f cameraPosition)
+	{
+		skyBox.setPosition(cameraPosition);
 
 		ballCircleTimeLeft -= elapsedMS / 1000.0;
 	}
 
+	/** Whether the ball circle is still fading out */
+	public boolean isAnimating()
+	{
+		return ballCircleTimeLeft > 0;
+	}
+
 	public void renderBallCircle(GL2 gl)
 	{
 		if (gameState.hasPlayModeJustChanged()) {
@@ -312,6 +523,7 @@ public class WorldModel
 
 	public void dispose(GL gl)
 	{
+		updateStage.shutdownNow();
 		if (field != null)
 			field.dispose(gl);
 	}
@@ -0,0 +1,153 @@
+/*
+ *  Copyright 2011 RoboViz
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package rv.world;
+
+import java.util.Collections;
+import java.util.List;
+import rv.comm.rcssserver.GameState;
+import rv.comm.rcssserver.scenegraph.SceneGraph;
+import rv.comm.rcssserver.scenegraph.StaticMeshNode;
+import rv.world.objects.Agent;
+
+/**
+ * Immutable state of the world after a server frame has been applied. The thread parsing server
+ * messages publishes a new snapshot after every message, and the render thread takes one at the
+ * start of each frame. Lists are shared between snapshots as long as they don't change. Transforms
+ * are not part of the snapshot; they are sampled from the scene graph while holding
+ * {@link WorldModel#getFrameLock()}, so they belong to the same server frame as well.
+ */
+public final class WorldSnapshot
+{
+	public static final WorldSnapshot EMPTY = new WorldSnapshot(null, Collections.<StaticMeshNode> emptyList(),
+			Collections.<Agent> emptyList(), Collections.<Agent> emptyList(), null, null, 0, 0, 0, 0, null);
+
+	private final SceneGraph sceneGraph;
+	private final List<StaticMeshNode> meshNodes;
+	private final List<Agent> leftAgents;
+	private final List<Agent> rightAgents;
+	private final String teamLeft;
+	private final String teamRight;
+	private final int scoreLeft;
+	private final int scoreRight;
+	private final float time;
+	private final int half;
+	private final String playMode;
+
+	private WorldSnapshot(SceneGraph sceneGraph, List<StaticMeshNode> meshNodes, List<Agent> leftAgents,
+			List<Agent> rightAgents, String teamLeft, String teamRight, int scoreLeft, int scoreRight, float time,
+			int half, String playMode)
+	{
+		this.sceneGraph = sceneGraph;
+		this.meshNodes = meshNodes;
+		this.leftAgents = leftAgents;
+		this.rightAgents = rightAgents;
+		this.teamLeft = teamLeft;
+		this.teamRight = teamRight;
+		this.scoreLeft = scoreLeft;
+		this.scoreRight = scoreRight;
+		this.time = time;
+		this.half = half;
+		this.playMode = playMode;
+	}
+
+	/**
+	 * Creates a snapshot; the lists must not be modified afterwards
+	 */
+	static WorldSnapshot create(SceneGraph sceneGraph, List<StaticMeshNode> meshNodes, Team left, Team right,
+			GameState gs)
+	{
+		return new WorldSnapshot(sceneGraph, meshNodes, left.getAgents(), right.getAgents(), gs.getTeamLeft(),
+				gs.getTeamRight(), gs.getScoreLeft(), gs.getScoreRight(), gs.getTime(), gs.getHalf(), gs.getPlayMode());
+	}
+
+	/** The scene graph of the snapshot, or null if none has been received yet */
+	public SceneGraph getSceneGraph()
+	{
+		return sceneGraph;
+	}
+
+	/** All mesh nodes of the scene graph in depth-first order */
+	public List<StaticMeshNode> getMeshNodes()
+	{
+		return meshNodes;
+	}
+
+	public List<Agent> getLeftAgents()
+	{
+		return leftAgents;
+	}
+
+	public List<Agent> getRightAgents()
+	{
+		return rightAgents;
+	}
+
+	public String getUIStringTeamLeft()
+	{
+		return teamLeft == null ? "<Left>" : teamLeft;
+	}
+
+	public String getUIStringTeamRight()
+	{
+		return teamRight == null ? "<Right>" : teamRight;
+	}
+
+	public int getScoreLeft()
+	{
+		return scoreLeft;
+	}
+
+	public int getScoreRight()
+	{
+		return scoreRight;
+	}
+
+	public float getTime()
+	{
+		return time;
+	}
+
+	public int getHalf()
+	{
+		return half;
+	}
+
+	public String getPlayMode()
+	{
+		return playMode;
+	}
+
+	/**
+	 * Hash of the game state and the structure of the snapshot (but not the transforms), which
+	 * changes whenever the overlays showing them need to be redrawn
+	 */
+	public long getStateHash()
+	{
+		long hash = System.identityHashCode(sceneGraph);
+		hash = 31 * hash + System.identityHashCode(meshNodes);
+		hash = 31 * hash + leftAgents.size();
+		hash = 31 * hash + rightAgents.size();
+		hash = 31 * hash + (teamLeft == null ? 0 : teamLeft.hashCode());
+		hash = 31 * hash + (teamRight == null ? 0 : teamRight.hashCode());
+		hash = 31 * hash + scoreLeft;
+		hash = 31 * hash + scoreRight;
+		hash = 31 * hash + Float.floatToIntBits(time);
+		hash = 31 * hash + half;
+		hash = 31 * hash + (playMode == null ? 0 : playMode.hashCode());
+		return hash;
+	}
+}
@@ -16,8 +16,8 @@
 
 package rv.world.objects;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import javax.media.opengl.GL2;
 import js.math.BoundingBox;
 import js.math.vector.Matrix;
@@ -44,8 +44,22 @@ public class Agent implements ISelectable
 		void transformChanged(Matrix headTransform);
 	}
 
-	private final List<ChangeListener> listeners = new ArrayList<>();
+	/** Roles of the mesh nodes of an agent, assigned once when the agent is created */
+	private static final int ROLE_LIMB = 0;
+	private static final int ROLE_HEAD = 1;
+	private static final int ROLE_TORSO = 2;
+
+	/** notified on the world update stage, see {@link #update(SceneGraph)} */
+	private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+	private final Node rootNode;
 	private final List<StaticMeshNode> meshNodes;
+	private final int[] roles;
+	/** transform versions of the mesh nodes at the last update */
+	private final int[] transformVersions;
+	/** mesh bounds of each node as center and half extents, 6 floats per node */
+	private final float[] localBounds;
+	private final boolean[] modelLoaded;
+	private boolean allModelsLoaded = false;
 	private BoundingBox bounds;
 	private final ContentManager content;
 	private final Team team;
@@ -123,67 +137,134 @@ public class Agent implements ISelectable
 		this.id = id;
 		this.content = cm;
 
+		this.rootNode = rootNode;
 		meshNodes = sg.getAllMeshNodes(rootNode);
+		roles = new int[meshNodes.size()];
+		transformVersions = new int[meshNodes.size()];
+		localBounds = new float[meshNodes.size() * 6];
+		modelLoaded = new boolean[meshNodes.size()];
 
-		for (StaticMeshNode node : meshNodes) {
+		for (int i = 0; i < meshNodes.size(); i++) {
+			StaticMeshNode node = meshNodes.get(i);
 			// Check for switching models to goalie jersey
-			if ((node.getName().matches(".*naobody.*[.]obj$") || node.getName().matches(".*lupperarm.*[.]obj$") ||
-						node.getName().matches(".*rupperarm.*[.]obj$")) &&
+			if ((isMeshOf(node, "naobody") || isMeshOf(node, "lupperarm") || isMeshOf(node, "rupperarm")) &&
 					!node.getName().endsWith("G.obj") && id == 1) {
-				node.setName(node.getName().substring(0, node.getName().length() - 4) + "G.obj");
+				node.setName((node.getName().substring(0, node.getName().length() - 4) + "G.obj").intern());
 			}
+
+			if (node.getName().endsWith("head.obj"))
+				roles[i] = ROLE_HEAD;
+			else if (isMeshOf(node, "body"))
+				roles[i] = ROLE_TORSO;
+			else
+				roles[i] = ROLE_LIMB;
 		}
 	}
 
 	/**
-	 * Grabs model matrices from scene graph and updates bounding box
+	 * Checks whether the agent was created from the given root node and the same mesh nodes, so it
+	 * can be kept after the scene graph has been reconciled
+	 */
+	public boolean isBuiltFrom(Node rootNode, SceneGraph sg)
+	{
+		return this.rootNode == rootNode && sg.getAllMeshNodes(rootNode).equals(meshNodes);
+	}
+
+	/** Checks whether a node's mesh name contains the part name and ends with .obj after it */
+	private static boolean isMeshOf(StaticMeshNode node, String part)
+	{
+		String name = node.getName();
+		int i = name.indexOf(part);
+		return i != -1 && name.endsWith(".obj") && i + part.length() <= name.length() - 4;
+	}
+
+	/**
+	 * Grabs model matrices from scene graph and updates bounding box. Nothing is done if none of the
+	 * agent's transforms changed since the last update.
 	 */
 	public void update(SceneGraph sg)
 	{
-		Vec3f min = new Vec3f(Float.POSITIVE_INFINITY);
-		Vec3f max = new Vec3f(Float.NEGATIVE_INFINITY);
-
-		for (StaticMeshNode node : meshNodes) {
-			Model model = content.getModel(node.getName());
-			if (model.isLoaded()) {
-				Vec3f[] corners = model.getMesh().getBounds().getCorners();
-				Matrix modelMat = WorldModel.COORD_TFN.times(node.getWorldTransform());
-
-				// store head transformation for "robot perspective" camera mode
-				if (node.getName().endsWith("head.obj")) {
-					headTransform = modelMat;
-					headCenter = headTransform.transform(new Vec3f(0));
-					headDirection = headTransform.transform(new Vec3f(0, 0, 1)).minus(headCenter).normalize();
-				} else if (node.getName().matches(".*body.*[.]obj$")) {
-					// Store body direction for third person view
-					Matrix bodyRot = modelMat;
-					Vec3f bodyCenter = bodyRot.transform(new Vec3f(0));
-					torsoDirection = bodyRot.transform(new Vec3f(0, 0, 1)).minus(bodyCenter).normalize();
-				}
-
-				for (int j = 0; j < 8; j++) {
-					Vec3f v = modelMat.transform(corners[j]);
-					if (v.x < min.x)
-						min.x = v.x;
-					if (v.y < min.y)
-						min.y = v.y;
-					if (v.z < min.z)
-						min.z = v.z;
-					if (v.x > max.x)
-						max.x = v.x;
-					if (v.y > max.y)
-						max.y = v.y;
-					if (v.z > max.z)
-						max.z = v.z;
-				}
+		age++;
+
+		// the versions also change in between server frames while transforms are interpolated
+		boolean changed = !allModelsLoaded;
+		for (int i = 0; i < transformVersions.length; i++) {
+			int version = meshNodes.get(i).getTransformVersion();
+			if (version != transformVersions[i]) {
+				transformVersions[i] = version;
+				changed = true;
+			}
+		}
+		if (!changed)
+			return;
+
+		float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+		float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+		allModelsLoaded = true;
+
+		for (int i = 0; i < meshNodes.size(); i++) {
+			StaticMeshNode node = meshNodes.get(i);
+			if (!modelLoaded[i] && !loadBounds(i, node)) {
+				allModelsLoaded = false;
+				continue;
+			}
+
+			Matrix modelMat = WorldModel.COORD_TFN.times(node.getWorldTransform());
+			double[] m = modelMat.wrap().array();
+
+			// store head transformation for "robot perspective" camera mode
+			if (roles[i] == ROLE_HEAD) {
+				headTransform = modelMat;
+				headCenter = new Vec3f((float) m[12], (float) m[13], (float) m[14]);
+				headDirection = new Vec3f((float) m[8], (float) m[9], (float) m[10]).normalize();
+			} else if (roles[i] == ROLE_TORSO) {
+				// Store body direction for third person view
+				torsoDirection = new Vec3f((float) m[8], (float) m[9], (float) m[10]).normalize();
 			}
+
+			// the bounds of the transformed mesh box are its transformed center plus the half
+			// extents projected onto each axis, which equals transforming all 8 corners
+			int o = i * 6;
+			float cx = localBounds[o], cy = localBounds[o + 1], cz = localBounds[o + 2];
+			float ex = localBounds[o + 3], ey = localBounds[o + 4], ez = localBounds[o + 5];
+			float wx = (float) (m[0] * cx + m[4] * cy + m[8] * cz + m[12]);
+			float wy = (float) (m[1] * cx + m[5] * cy + m[9] * cz + m[13]);
+			float wz = (float) (m[2] * cx + m[6] * cy + m[10] * cz + m[14]);
+			float rx = (float) (Math.abs(m[0]) * ex + Math.abs(m[4]) * ey + Math.abs(m[8]) * ez);
+			float ry = (float) (Math.abs(m[1]) * ex + Math.abs(m[5]) * ey + Math.abs(m[9]) * ez);
+			float rz = (float) (Math.abs(m[2]) * ex + Math.abs(m[6]) * ey + Math.abs(m[10]) * ez);
+			minX = Math.min(minX, wx - rx);
+			minY = Math.min(minY, wy - ry);
+			minZ = Math.min(minZ, wz - rz);
+			maxX = Math.max(maxX, wx + rx);
+			maxY = Math.max(maxY, wy + ry);
+			maxZ = Math.max(maxZ, wz + rz);
 		}
 
-		bounds = new BoundingBox(min, max);
+		bounds = new BoundingBox(new Vec3f(minX, minY, minZ), new Vec3f(maxX, maxY, maxZ));
 		for (ChangeListener l : listeners)
 			l.transformChanged(headTransform);
+	}
 
-		age++;
+	/** Stores the mesh bounds of a node once its model is loaded */
+	private boolean loadBounds(int i, StaticMeshNode node)
+	{
+		Model model = content.getModel(node);
+		if (!model.isLoaded())
+			return false;
+
+		BoundingBox meshBounds = model.getMesh().getBounds();
+		Vec3f min = meshBounds.getMin();
+		Vec3f max = meshBounds.getMax();
+		int o = i * 6;
+		localBounds[o] = (min.x + max.x) * 0.5f;
+		localBounds[o + 1] = (min.y + max.y) * 0.5f;
+		localBounds[o + 2] = (min.z + max.z) * 0.5f;
+		localBounds[o + 3] = (max.x - min.x) * 0.5f;
+		localBounds[o + 4] = (max.y - min.y) * 0.5f;
+		localBounds[o + 5] = (max.z - min.z) * 0.5f;
+		modelLoaded[i] = true;
+		return true;
 	}
 
 	@Override
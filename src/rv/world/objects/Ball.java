@@ -52,7 +52,7 @@ public class Ball implements ISelectable, ISceneGraphItem
 		if (node == null)
 			return;
 
-		Model model = content.getModel(node.getName());
+		Model model = content.getModel(node);
 		if (!model.isLoaded()) {
 			return;
 		}
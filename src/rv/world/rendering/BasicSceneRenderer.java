@@ -16,17 +16,13 @@
 
 package rv.world.rendering;
 
-import java.util.ArrayList;
-import java.util.List;
 import javax.media.opengl.GL;
 import javax.media.opengl.GL2;
-import js.math.vector.Matrix;
 import rv.Configuration;
 import rv.Renderer;
 import rv.comm.drawing.Drawings;
-import rv.comm.rcssserver.scenegraph.StaticMeshNode;
 import rv.content.ContentManager;
-import rv.content.Model;
+import rv.util.jogl.Frustum;
 import rv.world.WorldModel;
 
 /**
@@ -37,73 +33,29 @@ import rv.world.WorldModel;
 public class BasicSceneRenderer implements SceneRenderer
 {
 	private ContentManager content;
-	private final List<String> suppressedMeshes = new ArrayList<>();
+	private final Frustum frustum = new Frustum();
 
 	@Override
 	public boolean init(GL2 gl2, Configuration.Graphics conf, ContentManager cm)
 	{
 		this.content = cm;
 
-		suppressedMeshes.add("field.obj");
-		suppressedMeshes.add("skybox.obj");
-
 		return true;
 	}
 
-	public static void applyAgentMats(Model model, StaticMeshNode node, ContentManager content)
+	private void renderEntry(GL2 gl, RenderList list, int i)
 	{
-		// NOTE: this is a hack to get the player meshes to render with the
-		// correct
-		// team colors. The materials should be explicitly listed by the scene
-		// graph,
-		// but the material being replaced (matTeam) is not mentioned anywhere
-		// in the
-		// scene graph.
-		boolean isAgent = false;
-		if (node.containsMaterial("matLeft")) {
-			model.replaceMaterial("matTeam", content.getMaterial("matLeft"));
-			model.replaceMaterial("matTeamGoalie", content.getMaterial("matLeftGoalie"));
-			model.replaceMaterial("matTeamNumGoalie", content.getMaterial("matLeftNumGoalie"));
-			isAgent = true;
-		} else if (node.containsMaterial("matRight")) {
-			model.replaceMaterial("matTeam", content.getMaterial("matRight"));
-			model.replaceMaterial("matTeamGoalie", content.getMaterial("matRightGoalie"));
-			model.replaceMaterial("matTeamNumGoalie", content.getMaterial("matRightNumGoalie"));
-			isAgent = true;
-		}
-		if (isAgent) {
-			for (String matName : node.getMaterials()) {
-				if (matName.startsWith("matNum")) {
-					model.replaceMaterial("matNum", content.getMaterial(matName));
-					break;
-				}
-			}
-		}
-	}
-
-	private void renderSceneGraphNode(GL2 gl, StaticMeshNode node, ContentManager content)
-	{
-		Model model = content.getModel(node.getName());
-		if (model.isLoaded()) {
-			// NOTE: this is a hack to avoid rendering certain meshes that are
-			// replaced by
-			// RoboViz; in particular, the field and skybox are treated
-			// differently
-			for (String s : suppressedMeshes)
-				if (node.getName().endsWith(s))
-					return;
-
-			applyAgentMats(model, node, content);
-
-			Matrix modelMat = WorldModel.COORD_TFN.times(node.getWorldTransform());
-			model.getMesh().render(gl, modelMat);
-		}
+		if (!list.isVisible(i, frustum))
+			return;
+		list.getModel(i).bindMaterials(content, list.getMaterialVariant(i));
+		list.draw(gl, i, list.isDistant(i, frustum));
 	}
 
 	public void render(GL2 gl, WorldModel world, Drawings drawings)
 	{
-		if (world.getSceneGraph() == null)
+		if (world.getFrameSnapshot().getSceneGraph() == null)
 			return;
+		frustum.update(gl);
 
 		gl.glDisable(GL2.GL_LIGHTING);
 		gl.glEnable(GL.GL_TEXTURE_2D);
@@ -119,14 +71,9 @@ public class BasicSceneRenderer implements SceneRenderer
 		world.getField().render(gl);
 		gl.glDepthMask(true);
 
-		List<StaticMeshNode> transparentNodes = new ArrayList<>();
-		List<StaticMeshNode> nodes = world.getSceneGraph().getAllMeshNodes();
-		for (StaticMeshNode node : nodes) {
-			if (node.isTransparent())
-				transparentNodes.add(node);
-			else
-				renderSceneGraphNode(gl, node, content);
-		}
+		RenderList list = world.getRenderList();
+		for (int i = 0; i < list.getOpaqueCount(); i++)
+			renderEntry(gl, list, i);
 
 		gl.glEnable(GL.GL_BLEND);
 		if (world.getSelectedObject() != null)
@@ -137,8 +84,8 @@ public class BasicSceneRenderer implements SceneRenderer
 
 		// transparent stuff
 
-		for (StaticMeshNode transparentNode : transparentNodes)
-			renderSceneGraphNode(gl, transparentNode, content);
+		for (int i = list.getOpaqueCount(); i < list.size(); i++)
+			renderEntry(gl, list, i);
 		gl.glDisable(GL.GL_BLEND);
 
 		gl.glDisable(GL2.GL_LIGHTING);
@@ -0,0 +1,140 @@
+/*
+ *  Copyright 2011 RoboViz
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package rv.world.rendering;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+import js.jogl.ShaderProgram;
+import rv.Configuration.Graphics;
+import rv.Renderer;
+import rv.comm.drawing.Drawings;
+import rv.content.ContentManager;
+import rv.util.jogl.Frustum;
+import rv.world.WorldModel;
+
+/**
+ * Renders world model using Phong shading with no shadows like {@link PhongWorldRenderer}, but
+ * draws all entries of the render list that share a mesh with instanced draw calls (see
+ * {@link MeshInstancer}). Requires OpenGL 3.3 or ARB_instanced_arrays.
+ */
+public class InstancedPhongWorldRenderer implements SceneRenderer
+{
+	/** first of the four attribute locations of the model matrix */
+	private static final int MATRIX_ATTRIBUTE = 4;
+
+	private ContentManager content;
+	private final Frustum frustum = new Frustum();
+
+	private ShaderProgram shader;
+	private MeshInstancer instancer;
+	private final MeshInstancer.EntryRenderer fallback = this::renderEntry;
+
+	@Override
+	public boolean init(GL2 gl, Graphics graphics, ContentManager cm)
+	{
+		this.content = cm;
+
+		if (!MeshInstancer.isSupported(gl)) {
+			System.err.println("Instanced rendering is not supported");
+			return false;
+		}
+
+		shader = ShaderProgram.create(gl, "shaders/phong_instanced.vs", "shaders/phong.fs",
+				getClass().getClassLoader());
+		if (shader == null) {
+			System.err.println("Instanced Phong shader failed to load!");
+			return false;
+		}
+
+		if (!MeshInstancer.bindMatrixAttribute(gl, shader, "modelMatrix", MATRIX_ATTRIBUTE)) {
+			System.err.println("Instanced Phong shader failed to link!");
+			shader.dispose(gl);
+			return false;
+		}
+		instancer = new MeshInstancer(gl, MATRIX_ATTRIBUTE);
+
+		return true;
+	}
+
+	/** Draws an entry whose mesh can't be instanced, while the matrix attribute is the identity */
+	private void renderEntry(GL2 gl, RenderList list, int i, boolean lowDetail)
+	{
+		list.getModel(i).bindMaterials(content, list.getMaterialVariant(i));
+		list.draw(gl, i, lowDetail);
+	}
+
+	private void renderEntries(GL2 gl, RenderList list, int start, int end)
+	{
+		instancer.drawEntries(gl, content, list, start, end, frustum, true, null, fallback);
+	}
+
+	public void render(GL2 gl, WorldModel world, Drawings drawings)
+	{
+		if (world.getFrameSnapshot().getSceneGraph() == null)
+			return;
+		frustum.update(gl);
+
+		gl.glDisable(GL2.GL_LIGHTING);
+		gl.glEnable(GL.GL_TEXTURE_2D);
+		gl.glColor3f(1, 1, 1);
+		world.getSkyBox().render(gl);
+
+		gl.glEnable(GL.GL_DEPTH_TEST);
+		world.getLighting().apply(gl);
+
+		shader.enable(gl);
+		instancer.resetMatrix(gl);
+
+		gl.glDepthMask(false);
+		world.getField().render(gl);
+		gl.glDepthMask(true);
+
+		RenderList list = world.getRenderList();
+		renderEntries(gl, list, 0, list.getOpaqueCount());
+
+		shader.disable(gl);
+		gl.glEnable(GL.GL_BLEND);
+		if (world.getSelectedObject() != null)
+			world.getSelectedObject().renderSelected(gl);
+		world.renderBallCircle(gl);
+		if (drawings.isVisible())
+			drawings.render(gl, Renderer.glut);
+		shader.enable(gl);
+
+		// transparent stuff
+
+		renderEntries(gl, list, list.getOpaqueCount(), list.size());
+		gl.glDisable(GL.GL_BLEND);
+
+		shader.disable(gl);
+		gl.glDisable(GL2.GL_LIGHTING);
+		gl.glDisable(GL.GL_TEXTURE_2D);
+	}
+
+	@Override
+	public void dispose(GL gl)
+	{
+		shader.dispose(gl);
+		instancer.dispose(gl);
+	}
+
+	@Override
+	public String toString()
+	{
+		return "Instanced Phong Renderer";
+	}
+}
@@ -0,0 +1,154 @@
+/*
+ *  Copyright 2011 RoboViz
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package rv.world.rendering;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+import js.math.vector.Matrix;
+import rv.Configuration.Graphics;
+import rv.Renderer;
+import rv.comm.drawing.Drawings;
+import rv.content.ContentManager;
+import rv.effects.EffectManager;
+import rv.effects.VSMPhongShader;
+import rv.util.jogl.Frustum;
+import rv.world.WorldModel;
+
+/**
+ * Renders world model scene using variance shadow mapping with Phong shading like
+ * {@link VSMPhongWorldRenderer}, but draws all entries of the render list that share a mesh with
+ * instanced draw calls (see {@link MeshInstancer}). Requires OpenGL 3.3 or ARB_instanced_arrays.
+ */
+public class InstancedVSMPhongWorldRenderer implements SceneRenderer
+{
+	/** first of the four attribute locations of the model matrix */
+	private static final int MATRIX_ATTRIBUTE = 4;
+	private static final Matrix IDENTITY = Matrix.createIdentity();
+
+	private ContentManager content;
+	private final Frustum frustum = new Frustum();
+	private final EffectManager effects;
+	private VSMPhongShader shader;
+	private MeshInstancer instancer;
+	private final MeshInstancer.EntryRenderer fallback = this::renderEntry;
+
+	public InstancedVSMPhongWorldRenderer(EffectManager effects)
+	{
+		this.effects = effects;
+	}
+
+	@Override
+	public boolean init(GL2 gl, Graphics graphics, ContentManager cm)
+	{
+		this.content = cm;
+
+		if (!MeshInstancer.isSupported(gl)) {
+			System.err.println("Instanced rendering is not supported");
+			return false;
+		}
+
+		shader = VSMPhongShader.createInstanced(gl, MATRIX_ATTRIBUTE);
+		if (shader == null) {
+			System.err.println("Instanced VSM Phong shader failed to load!");
+			return false;
+		}
+
+		shader.enable(gl);
+		shader.setLightViewProjection(gl, effects.getShadowRenderer().getLight().getViewProjection());
+		shader.disable(gl);
+		instancer = new MeshInstancer(gl, MATRIX_ATTRIBUTE);
+
+		return true;
+	}
+
+	/**
+	 * Draws an entry whose mesh can't be instanced, while the matrix attribute is the identity. The
+	 * model matrix uniform is restored to the identity for the instances drawn afterwards.
+	 */
+	private void renderEntry(GL2 gl, RenderList list, int i, boolean lowDetail)
+	{
+		list.getModel(i).bindMaterials(content, list.getMaterialVariant(i));
+		shader.setModelMatrix(gl, list.getMatrices(), list.getMatrixOffset(i));
+		list.draw(gl, i, lowDetail);
+		shader.setModelMatrix(gl, IDENTITY);
+	}
+
+	private void renderEntries(GL2 gl, RenderList list, int start, int end)
+	{
+		instancer.drawEntries(gl, content, list, start, end, frustum, true, null, fallback);
+	}
+
+	public void render(GL2 gl, WorldModel world, Drawings drawings)
+	{
+		if (world.getFrameSnapshot().getSceneGraph() == null)
+			return;
+		frustum.update(gl);
+
+		gl.glDisable(GL2.GL_LIGHTING);
+		gl.glEnable(GL.GL_TEXTURE_2D);
+		gl.glColor3f(1, 1, 1);
+		world.getSkyBox().render(gl);
+
+		gl.glEnable(GL.GL_DEPTH_TEST);
+
+		world.getLighting().apply(gl);
+
+		shader.enable(gl);
+		instancer.resetMatrix(gl);
+		ShadowMapRenderer shadows = effects.getShadowRenderer();
+		shader.setShadowMaps(gl, shadows.getStaticShadowMap(), shadows.getDynamicShadowMap());
+
+		shader.setModelMatrix(gl, world.getField().getModelMatrix());
+		gl.glDepthMask(false);
+		world.getField().render(gl);
+		gl.glDepthMask(true);
+		shader.setModelMatrix(gl, IDENTITY);
+
+		RenderList list = world.getRenderList();
+		renderEntries(gl, list, 0, list.getOpaqueCount());
+
+		// drawings
+		gl.glEnable(GL.GL_BLEND);
+		shader.disable(gl);
+		if (world.getSelectedObject() != null)
+			world.getSelectedObject().renderSelected(gl);
+		world.renderBallCircle(gl);
+		if (drawings.isVisible())
+			drawings.render(gl, Renderer.glut);
+		shader.enable(gl);
+
+		// transparent stuff
+
+		renderEntries(gl, list, list.getOpaqueCount(), list.size());
+		gl.glDisable(GL.GL_BLEND);
+
+		shader.disable(gl);
+	}
+
+	@Override
+	public void dispose(GL gl)
+	{
+		shader.dispose(gl);
+		instancer.dispose(gl);
+	}
+
+	@Override
+	public String toString()
+	{
+		return "Instanced VSM Phong Renderer";
+	}
+}
@@ -0,0 +1,338 @@
+/*
+ *  Copyright 2011 RoboViz
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package rv.world.rendering;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+import javax.media.opengl.GL3;
+import javax.media.opengl.fixedfunc.GLPointerFunc;
+import com.jogamp.common.nio.Buffers;
+import js.jogl.ShaderProgram;
+import js.jogl.VertexBuffer;
+import js.jogl.VertexBuffer.BufferUsage;
+import js.jogl.model.Mesh;
+import js.jogl.model.MeshFace;
+import js.jogl.model.MeshMaterial;
+import js.jogl.model.MeshPart;
+import js.jogl.model.MeshVertex;
+import rv.content.ContentManager;
+import rv.content.Model;
+import rv.util.jogl.Frustum;
+
+/**
+ * Draws render list entries that share a mesh with one instanced draw call per mesh part and
+ * material. The model matrices of the entries are streamed to an instance buffer and read by the
+ * shader from a mat4 attribute that advances once per instance. Entries of different material
+ * variants still share the draw calls of the parts whose materials don't depend on the variant, so
+ * the Nao parts are drawn once per team and only the numbered parts once per robot.
+ * <p>
+ * While no instances are drawn, the matrix attribute is set to the identity so that the shader can
+ * draw everything else (like the field) with the regular model-view matrix. Meshes whose vertices
+ * don't all have normals and texture coordinates are drawn one by one instead.
+ */
+public class MeshInstancer
+{
+	private static final int MATRIX_SIZE = 16 * 4;
+
+	/** Selects the render list entries that a pass draws */
+	public interface EntryFilter {
+		boolean accept(RenderList list, int i);
+	}
+
+	/** Draws a single render list entry without instancing */
+	public interface EntryRenderer {
+		void render(GL2 gl, RenderList list, int i, boolean lowDetail);
+	}
+
+	/** copy of a mesh for instanced drawing, since jsgl doesn't expose its buffers */
+	private static class InstancedMesh
+	{
+		/** Whether all vertices have the layout of the vertex buffer: position, normal and texture coordinates */
+		static boolean supports(Mesh mesh)
+		{
+			if (mesh.getVertices().isEmpty())
+				return false;
+			for (MeshVertex v : mesh.getVertices()) {
+				if (v.getPosition().length < 3 || v.getNormal() == null || v.getNormal().length < 3
+						|| v.getTexCoords() == null || v.getTexCoords().length < 2)
+					return false;
+			}
+			return true;
+		}
+
+		private final VertexBuffer vertices;
+		private final int stride;
+		private final int normalOffset;
+		private final int texCoordOffset;
+		/** triangle indices of each part, drawn from client memory */
+		private final IntBuffer[] indices;
+
+		InstancedMesh(GL2 gl, Mesh mesh)
+		{
+			List<MeshVertex> verts = mesh.getVertices();
+			normalOffset = 12;
+			texCoordOffset = 24;
+			stride = 32;
+
+			FloatBuffer data = Buffers.newDirectFloatBuffer(verts.size() * stride / 4);
+			for (MeshVertex v : verts) {
+				data.put(v.getPosition(), 0, 3);
+				data.put(v.getNormal(), 0, 3);
+				data.put(v.getTexCoords(), 0, 2);
+			}
+			data.rewind();
+			vertices = new VertexBuffer(gl, BufferUsage.STATIC);
+			vertices.setData(data, data.capacity() * 4);
+
+			List<MeshPart> parts = mesh.getParts();
+			indices = new IntBuffer[parts.size()];
+			for (int p = 0; p < indices.length; p++) {
+				int count = 0;
+				for (MeshFace face : parts.get(p).getFaces())
+					count += (face.getVertIndices().length - 2) * 3;
+				IntBuffer buffer = Buffers.newDirectIntBuffer(count);
+				for (MeshFace face : parts.get(p).getFaces()) {
+					int[] f = face.getVertIndices();
+					for (int i = 1; i + 1 < f.length; i++)
+						buffer.put(f[0]).put(f[i]).put(f[i + 1]);
+				}
+				buffer.rewind();
+				indices[p] = buffer;
+			}
+		}
+
+		void set(GL2 gl)
+		{
+			vertices.bind();
+			gl.glEnableClientState(GLPointerFunc.GL_VERTEX_ARRAY);
+			gl.glVertexPointer(3, GL.GL_FLOAT, stride, 0);
+			gl.glEnableClientState(GLPointerFunc.GL_NORMAL_ARRAY);
+			gl.glNormalPointer(GL.GL_FLOAT, stride, normalOffset);
+			gl.glEnableClientState(GLPointerFunc.GL_TEXTURE_COORD_ARRAY);
+			gl.glTexCoordPointer(2, GL.GL_FLOAT, stride, texCoordOffset);
+			vertices.unbind();
+		}
+
+		void unset(GL2 gl)
+		{
+			gl.glDisableClientState(GLPointerFunc.GL_VERTEX_ARRAY);
+			gl.glDisableClientState(GLPointerFunc.GL_NORMAL_ARRAY);
+			gl.glDisableClientState(GLPointerFunc.GL_TEXTURE_COORD_ARRAY);
+		}
+
+		void dispose(GL gl)
+		{
+			vertices.dispose(gl);
+		}
+	}
+
+	private final int matrixAttribute;
+	private final Map<Mesh, InstancedMesh> meshes = new IdentityHashMap<>();
+	private final Set<Mesh> unsupportedMeshes = Collections.newSetFromMap(new IdentityHashMap<Mesh, Boolean>());
+	private final VertexBuffer instanceBuffer;
+	private FloatBuffer instanceData = Buffers.newDirectFloatBuffer(16 * 32);
+	private MeshMaterial[][] instanceMaterials = new MeshMaterial[32][];
+
+	// entries of the current model, split by detail level
+	private int[] near = new int[32];
+	private int[] far = new int[32];
+
+	/**
+	 * Whether the context supports instanced draws with per-instance attributes (OpenGL 3.3 or
+	 * ARB_instanced_arrays)
+	 */
+	public static boolean isSupported(GL2 gl)
+	{
+		return gl instanceof GL3 && gl.isFunctionAvailable("glDrawElementsInstanced")
+				&& gl.isFunctionAvailable("glVertexAttribDivisor");
+	}
+
+	/**
+	 * Binds the mat4 attribute of the model matrix to a fixed location and links the program again,
+	 * since the matrix must not alias gl_Vertex (attribute 0 on some drivers). Returns false if the
+	 * program doesn't link.
+	 */
+	public static boolean bindMatrixAttribute(GL2 gl, ShaderProgram program, String name, int location)
+	{
+		gl.glBindAttribLocation(program.getID(), location, name);
+		gl.glLinkProgram(program.getID());
+		int[] linked = new int[1];
+		gl.glGetProgramiv(program.getID(), GL2.GL_LINK_STATUS, linked, 0);
+		return linked[0] != 0;
+	}
+
+	/**
+	 * @param matrixAttribute
+	 *            - location of the mat4 attribute of the model matrix in the shader
+	 */
+	public MeshInstancer(GL2 gl, int matrixAttribute)
+	{
+		this.matrixAttribute = matrixAttribute;
+		instanceBuffer = new VertexBuffer(gl, BufferUsage.STREAM);
+		resetMatrix(gl);
+	}
+
+	/** Sets the matrix attribute to the identity for draws without instances */
+	public void resetMatrix(GL2 gl)
+	{
+		for (int c = 0; c < 4; c++)
+			gl.glVertexAttrib4f(matrixAttribute + c, c == 0 ? 1 : 0, c == 1 ? 1 : 0, c == 2 ? 1 : 0, c == 3 ? 1 : 0);
+	}
+
+	/**
+	 * Draws the entries from start to end that the filter accepts and that intersect the frustum.
+	 * Consecutive entries with the same model are drawn together, entries of meshes that can't be
+	 * instanced by the fallback. Must be called with the shader that has the matrix attribute
+	 * enabled.
+	 *
+	 * @param lowDetail
+	 *            - whether entries that are distant in the frustum are drawn in low detail
+	 * @param filter
+	 *            - selects the entries to draw, null for all
+	 */
+	public void drawEntries(GL2 gl, ContentManager content, RenderList list, int start, int end, Frustum frustum,
+			boolean lowDetail, EntryFilter filter, EntryRenderer fallback)
+	{
+		if (near.length < end - start) {
+			near = new int[end - start];
+			far = new int[end - start];
+		}
+
+		int i = start;
+		while (i < end) {
+			Model model = list.getModel(i);
+			int nearCount = 0;
+			int farCount = 0;
+			for (; i < end && list.getModel(i) == model; i++) {
+				if ((filter != null && !filter.accept(list, i)) || !list.isVisible(i, frustum))
+					continue;
+				if (lowDetail && list.isDistant(i, frustum))
+					far[farCount++] = i;
+				else
+					near[nearCount++] = i;
+			}
+
+			drawOrFallBack(gl, content, list, near, nearCount, false, fallback);
+			drawOrFallBack(gl, content, list, far, farCount, true, fallback);
+		}
+	}
+
+	private void drawOrFallBack(GL2 gl, ContentManager content, RenderList list, int[] entries, int count,
+			boolean lowDetail, EntryRenderer fallback)
+	{
+		if (count == 0 || draw(gl, content, list, entries, count, lowDetail))
+			return;
+		for (int i = 0; i < count; i++)
+			fallback.render(gl, list, entries[i], lowDetail);
+	}
+
+	/** The vertex buffer copy of a mesh, or null if it can't be instanced */
+	private InstancedMesh getInstancedMesh(GL2 gl, Mesh mesh)
+	{
+		InstancedMesh instanced = meshes.get(mesh);
+		if (instanced == null && !unsupportedMeshes.contains(mesh)) {
+			if (InstancedMesh.supports(mesh)) {
+				instanced = new InstancedMesh(gl, mesh);
+				meshes.put(mesh, instanced);
+			} else {
+				unsupportedMeshes.add(mesh);
+			}
+		}
+		return instanced;
+	}
+
+	/**
+	 * Draws entries of a render list that all have the same model, at full or low detail. Returns
+	 * false without drawing anything if the mesh can't be instanced.
+	 *
+	 * @param entries
+	 *            - indices of the entries in the render list
+	 */
+	private boolean draw(GL2 gl, ContentManager content, RenderList list, int[] entries, int count, boolean lowDetail)
+	{
+		Model model = list.getModel(entries[0]);
+		Mesh mesh = lowDetail ? model.getLowDetailMesh() : model.getMesh();
+		InstancedMesh instanced = getInstancedMesh(gl, mesh);
+		if (instanced == null)
+			return false;
+
+		if (instanceData.capacity() < count * 16)
+			instanceData = Buffers.newDirectFloatBuffer(count * 16);
+		if (instanceMaterials.length < count)
+			instanceMaterials = new MeshMaterial[count][];
+		instanceData.clear();
+		float[] matrices = list.getMatrices();
+		for (int i = 0; i < count; i++) {
+			instanceData.put(matrices, list.getMatrixOffset(entries[i]), 16);
+			instanceMaterials[i] = model.getMaterials(content, list.getMaterialVariant(entries[i]));
+		}
+		instanceData.rewind();
+		instanceBuffer.setData(instanceData, count * MATRIX_SIZE);
+
+		GL3 gl3 = (GL3) gl;
+		instanced.set(gl);
+		for (int c = 0; c < 4; c++) {
+			gl.glEnableVertexAttribArray(matrixAttribute + c);
+			gl3.glVertexAttribDivisor(matrixAttribute + c, 1);
+		}
+
+		// draw each part once per run of instances that use the same material for it
+		for (int p = 0; p < instanced.indices.length; p++) {
+			IntBuffer indices = instanced.indices[p];
+			int start = 0;
+			while (start < count) {
+				MeshMaterial material = instanceMaterials[start][p];
+				int end = start + 1;
+				while (end < count && instanceMaterials[end][p] == material)
+					end++;
+
+				material.apply(gl);
+				instanceBuffer.bind();
+				for (int c = 0; c < 4; c++)
+					gl.glVertexAttribPointer(matrixAttribute + c, 4, GL.GL_FLOAT, false, MATRIX_SIZE,
+							(long) start * MATRIX_SIZE + c * 16);
+				instanceBuffer.unbind();
+				gl.glDrawElementsInstanced(GL.GL_TRIANGLES, indices.capacity(), GL.GL_UNSIGNED_INT, indices, end - start);
+				start = end;
+			}
+		}
+
+		for (int c = 0; c < 4; c++) {
+			gl3.glVertexAttribDivisor(matrixAttribute + c, 0);
+			gl.glDisableVertexAttribArray(matrixAttribute + c);
+		}
+		instanced.unset(gl);
+		resetMatrix(gl);
+		return true;
+	}
+
+	public void dispose(GL gl)
+	{
+		for (InstancedMesh mesh : meshes.values())
+			mesh.dispose(gl);
+		meshes.clear();
+		unsupportedMeshes.clear();
+		instanceBuffer.dispose(gl);
+	}
+}
@@ -0,0 +1,306 @@
+/*
+ *  Copyright 2011 RoboViz
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package rv.world.rendering;
+
+import java.util.Arrays;
+import java.util.List;
+import javax.media.opengl.GL2;
+import js.math.BoundingBox;
+import js.math.vector.Vec3f;
+import rv.comm.rcssserver.scenegraph.StaticMeshNode;
+import rv.content.ContentManager;
+import rv.content.Model;
+import rv.util.jogl.Frustum;
+import rv.world.WorldSnapshot;
+
+/**
+ * Scene graph meshes to draw in a frame, prepared ahead of time by the update stage of the world
+ * model so that the renderers only have to issue draw calls. Entries are sorted by transparency,
+ * mesh and material variant: transparent meshes come last and consecutive draws mostly share their
+ * state.
+ */
+public class RenderList
+{
+	/**
+	 * NOTE: this is a hack to avoid rendering certain meshes that are replaced by RoboViz; in
+	 * particular, the field and skybox are treated differently
+	 */
+	private static final String[] SUPPRESSED_MESHES = {"field.obj", "skybox.obj"};
+
+	/** meshes that move apart from the agents, which are recognized by their material variant */
+	private static final String[] DYNAMIC_MESHES = {"soccerball.obj"};
+
+	// sort keys: transparency, model ID, variant and entry index, from high to low bits
+	private static final int INDEX_BITS = 20;
+	private static final int VARIANT_BITS = 12;
+	private static final int MAX_ENTRIES = 1 << INDEX_BITS;
+
+	/**
+	 * Default angle in arc minutes below which meshes are drawn in low detail: about 5 pixels at
+	 * 1920 pixels across a 80 degree field of view, where the decimated meshes can't be told apart
+	 */
+	public static final int DEFAULT_LOW_DETAIL_ANGLE = 12;
+
+	/**
+	 * Meshes are drawn in low detail when the radius of their bounds is smaller than this fraction
+	 * of their distance
+	 */
+	private float lowDetailSize = toLowDetailSize(DEFAULT_LOW_DETAIL_ANGLE);
+
+	private Model[] models = new Model[0];
+	private int[] variants = new int[0];
+	private float[] matrices = new float[0];
+	private float[] bounds = new float[0];
+	private boolean[] transparent = new boolean[0];
+	private boolean[] dynamic = new boolean[0];
+	private long[] keys = new long[0];
+	private int[] order = new int[0];
+	private int size;
+	private int opaqueCount;
+	private long staticHash;
+	private long dynamicHash;
+
+	/** Number of entries */
+	public int size()
+	{
+		return size;
+	}
+
+	/** Number of opaque entries, which come before all transparent ones */
+	public int getOpaqueCount()
+	{
+		return opaqueCount;
+	}
+
+	public Model getModel(int i)
+	{
+		return models[order[i]];
+	}
+
+	public int getMaterialVariant(int i)
+	{
+		return variants[order[i]];
+	}
+
+	public boolean isTransparent(int i)
+	{
+		return transparent[order[i]];
+	}
+
+	/** Whether an entry belongs to an agent or the ball, i.e. is expected to move */
+	public boolean isDynamic(int i)
+	{
+		return dynamic[order[i]];
+	}
+
+	/**
+	 * Hash of the models, materials and transforms of the static entries, which changes whenever
+	 * one of them changes (for caching things derived from them)
+	 */
+	public long getStaticHash()
+	{
+		return staticHash;
+	}
+
+	/** Hash of the models, materials and transforms of the dynamic entries */
+	public long getDynamicHash()
+	{
+		return dynamicHash;
+	}
+
+	/** Model matrix of an entry, 16 values at {@link #getMatrixOffset(int)} in column-major order */
+	public float[] getMatrices()
+	{
+		return matrices;
+	}
+
+	public int getMatrixOffset(int i)
+	{
+		return order[i] * 16;
+	}
+
+	/** Whether the world space bounds of an entry intersect a frustum */
+	public boolean isVisible(int i, Frustum frustum)
+	{
+		return frustum.intersects(bounds, order[i] * 6);
+	}
+
+	/**
+	 * Sets the angle in arc minutes that the bounds of a mesh must cover from the eye to be drawn
+	 * in full detail, 0 always draws full detail
+	 */
+	public void setLowDetailAngle(int arcMinutes)
+	{
+		lowDetailSize = toLowDetailSize(arcMinutes);
+	}
+
+	private static float toLowDetailSize(int arcMinutes)
+	{
+		return (float) Math.tan(Math.toRadians(arcMinutes / 60.0) / 2);
+	}
+
+	/** Whether an entry covers so little of a perspective view that it can be drawn in low detail */
+	public boolean isDistant(int i, Frustum frustum)
+	{
+		int o = order[i] * 6;
+		float ex = bounds[o + 3] - bounds[o];
+		float ey = bounds[o + 4] - bounds[o + 1];
+		float ez = bounds[o + 5] - bounds[o + 2];
+		float radius = 0.5f * (float) Math.sqrt(ex * ex + ey * ey + ez * ez);
+		float distance = frustum.distanceToEye(
+				bounds[o] + ex * 0.5f, bounds[o + 1] + ey * 0.5f, bounds[o + 2] + ez * 0.5f);
+		return radius < distance * lowDetailSize;
+	}
+
+	/**
+	 * Draws the mesh of an entry at its model matrix with the materials currently bound to it. Must
+	 * be called on the GL thread.
+	 */
+	public void draw(GL2 gl, int i)
+	{
+		draw(gl, i, false);
+	}
+
+	/** Draws an entry, using the low detail version of its mesh if requested */
+	public void draw(GL2 gl, int i, boolean lowDetail)
+	{
+		Model model = getModel(i);
+		gl.glPushMatrix();
+		gl.glMultMatrixf(matrices, getMatrixOffset(i));
+		(lowDetail ? model.getLowDetailMesh() : model.getMesh()).render(gl);
+		gl.glPopMatrix();
+	}
+
+	/**
+	 * Fills the list with the loaded meshes of a snapshot at the current transforms. Called by the
+	 * update stage, which is the only thread sampling the scene graph transforms.
+	 */
+	public void build(WorldSnapshot snapshot, ContentManager content)
+	{
+		size = 0;
+		opaqueCount = 0;
+		staticHash = 1;
+		dynamicHash = 1;
+
+		List<StaticMeshNode> nodes = snapshot.getMeshNodes();
+		ensureCapacity(Math.min(nodes.size(), MAX_ENTRIES));
+		for (int n = 0; n < nodes.size() && size < MAX_ENTRIES; n++) {
+			StaticMeshNode node = nodes.get(n);
+			Model model = content.getModel(node);
+			if (!model.isLoaded() || isSuppressed(node))
+				continue;
+
+			int i = size++;
+			models[i] = model;
+			variants[i] = content.getMaterialVariant(node);
+			transparent[i] = node.isTransparent();
+			if (!transparent[i])
+				opaqueCount++;
+			dynamic[i] = variants[i] != Model.NO_VARIANT || isDynamic(node);
+
+			// the coordinate transformation swaps y and z and negates x, so the rows of the world
+			// transform are rearranged instead of multiplying the matrices
+			double[] w = node.getWorldTransform().wrap().array();
+			int o = i * 16;
+			for (int c = 0; c < 16; c += 4) {
+				matrices[o + c] = (float) -w[c];
+				matrices[o + c + 1] = (float) w[c + 2];
+				matrices[o + c + 2] = (float) w[c + 1];
+				matrices[o + c + 3] = (float) w[c + 3];
+			}
+			computeBounds(i, model.getMesh().getBounds());
+
+			long hash = 31 * (31 * model.getID() + variants[i]) + (transparent[i] ? 1 : 0);
+			for (int c = 0; c < 16; c++)
+				hash = 31 * hash + Float.floatToIntBits(matrices[o + c]);
+			if (dynamic[i])
+				dynamicHash = 31 * dynamicHash + hash;
+			else
+				staticHash = 31 * staticHash + hash;
+
+			long key = transparent[i] ? 1 : 0;
+			key = (key << 30) | model.getID();
+			key = (key << VARIANT_BITS) | ((variants[i] + 1) & ((1 << VARIANT_BITS) - 1));
+			keys[i] = (key << INDEX_BITS) | i;
+		}
+
+		Arrays.sort(keys, 0, size);
+		for (int i = 0; i < size; i++)
+			order[i] = (int) (keys[i] & (MAX_ENTRIES - 1));
+
+		// don't keep models of earlier scene graphs alive
+		Arrays.fill(models, size, models.length, null);
+	}
+
+	/** Stores the world space box around the mesh bounds transformed by an entry's model matrix */
+	private void computeBounds(int i, BoundingBox meshBounds)
+	{
+		Vec3f min = meshBounds.getMin();
+		Vec3f max = meshBounds.getMax();
+		float cx = (min.x + max.x) * 0.5f, cy = (min.y + max.y) * 0.5f, cz = (min.z + max.z) * 0.5f;
+		float ex = (max.x - min.x) * 0.5f, ey = (max.y - min.y) * 0.5f, ez = (max.z - min.z) * 0.5f;
+
+		float[] m = matrices;
+		int o = i * 16;
+		float wx = m[o] * cx + m[o + 4] * cy + m[o + 8] * cz + m[o + 12];
+		float wy = m[o + 1] * cx + m[o + 5] * cy + m[o + 9] * cz + m[o + 13];
+		float wz = m[o + 2] * cx + m[o + 6] * cy + m[o + 10] * cz + m[o + 14];
+		float rx = Math.abs(m[o]) * ex + Math.abs(m[o + 4]) * ey + Math.abs(m[o + 8]) * ez;
+		float ry = Math.abs(m[o + 1]) * ex + Math.abs(m[o + 5]) * ey + Math.abs(m[o + 9]) * ez;
+		float rz = Math.abs(m[o + 2]) * ex + Math.abs(m[o + 6]) * ey + Math.abs(m[o + 10]) * ez;
+
+		int b = i * 6;
+		bounds[b] = wx - rx;
+		bounds[b + 1] = wy - ry;
+		bounds[b + 2] = wz - rz;
+		bounds[b + 3] = wx + rx;
+		bounds[b + 4] = wy + ry;
+		bounds[b + 5] = wz + rz;
+	}
+
+	private static boolean isSuppressed(StaticMeshNode node)
+	{
+		return endsWithAny(node.getName(), SUPPRESSED_MESHES);
+	}
+
+	private static boolean isDynamic(StaticMeshNode node)
+	{
+		return endsWithAny(node.getName(), DYNAMIC_MESHES);
+	}
+
+	private static boolean endsWithAny(String name, String[] suffixes)
+	{
+		for (String s : suffixes)
+			if (name.endsWith(s))
+				return true;
+		return false;
+	}
+
+	private void ensureCapacity(int capacity)
+	{
+		if (models.length >= capacity)
+			return;
+		models = Arrays.copyOf(models, capacity);
+		variants = Arrays.copyOf(variants, capacity);
+		matrices = Arrays.copyOf(matrices, capacity * 16);
+		bounds = Arrays.copyOf(bounds, capacity * 6);
+		transparent = Arrays.copyOf(transparent, capacity);
+		dynamic = Arrays.copyOf(dynamic, capacity);
+		keys = Arrays.copyOf(keys, capacity);
+		order = Arrays.copyOf(order, capacity);
+	}
+}
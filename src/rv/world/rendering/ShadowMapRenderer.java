@@ -16,8 +16,7 @@
 
 package rv.world.rendering;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 import javax.media.opengl.GL;
 import javax.media.opengl.GL2;
 import js.jogl.FrameBufferObject;
@@ -31,13 +30,17 @@ import js.math.vector.Vec3f;
 import rv.Configuration;
 import rv.Configuration.Graphics;
 import rv.comm.drawing.Drawings;
-import rv.comm.rcssserver.scenegraph.StaticMeshNode;
 import rv.content.ContentManager;
-import rv.content.Model;
+import rv.util.jogl.Frustum;
 import rv.world.WorldModel;
+import rv.world.objects.Field;
 
 /**
- * Variance shadow mapping
+ * Variance shadow mapping. Static geometry and dynamic casters (agents and the ball) are rendered
+ * into separate shadow maps that the shader combines, since the light never moves: the static map
+ * is only rendered again when static geometry changes, and the dynamic map only when a dynamic
+ * caster moved. With instancing, the casters that share a mesh are drawn with instanced draw calls
+ * (see {@link MeshInstancer}).
  *
  * @author justin
  */
@@ -87,16 +90,24 @@ public class ShadowMapRenderer implements SceneRenderer
 	}
 
 	private final static int TEX_FORMAT = GL2.GL_RG32F;
+	/** first of the four attribute locations of the model matrix in the instanced depth shader */
+	private static final int MATRIX_ATTRIBUTE = 4;
+	private static final MeshInstancer.EntryFilter STATIC_ENTRIES = (list, i) -> !list.isDynamic(i);
+	private static final MeshInstancer.EntryFilter DYNAMIC_ENTRIES = (list, i) -> list.isDynamic(i);
+	private static final MeshInstancer.EntryRenderer DRAW_ENTRY = (gl, list, i, lowDetail) -> list.draw(gl, i);
 
-	private ContentManager content;
 	private final static float BLURRINESS = 1.0f;
 	private final static int SAMPLES = 5;
 	private int texWidth;
 	private int texHeight;
-	private Texture2D shadowMapTexture;
 
-	private FrameBufferObject shadowFBO;
+	private FrameBufferObject staticFBO;
+	private FrameBufferObject dynamicFBO;
 	private FrameBufferObject blurFBO;
+	private boolean staticValid;
+	private boolean dynamicValid;
+	private long staticHash;
+	private long dynamicHash;
 
 	private ShaderProgram depthShader;
 	private ShaderProgram blurShader;
@@ -107,20 +118,33 @@ public class ShadowMapRenderer implements SceneRenderer
 
 	private boolean useBlur = true;
 	private final LightShadowVolume light;
+	private final boolean useInstancing;
+	private MeshInstancer instancer;
+	private ContentManager content;
+	private final Frustum frustum = new Frustum();
+	private final float[] clearColor = new float[4];
 
 	public LightShadowVolume getLight()
 	{
 		return light;
 	}
 
-	public Texture2D getShadowMap()
+	/** Shadow map of the static geometry */
+	public Texture2D getStaticShadowMap()
+	{
+		return staticFBO.getColorTexture(0);
+	}
+
+	/** Shadow map of the agents and the ball */
+	public Texture2D getDynamicShadowMap()
 	{
-		return shadowMapTexture;
+		return dynamicFBO.getColorTexture(0);
 	}
 
-	public ShadowMapRenderer(LightShadowVolume light)
+	public ShadowMapRenderer(LightShadowVolume light, boolean useInstancing)
 	{
 		this.light = light;
+		this.useInstancing = useInstancing;
 	}
 
 	private Texture2D createTexture(GL2 gl)
@@ -162,13 +186,12 @@ public class ShadowMapRenderer implements SceneRenderer
 	{
 		// can change w/h of textures for downsampling maybe
 
+		// holds the horizontal pass, the vertical pass writes back to the shadow map
 		Texture2D hBlurTexture = createTexture(gl);
-		Texture2D vBlurTexture = createTexture(gl);
 
 		FrameBufferObject fbo = FrameBufferObject.generate(gl);
 		fbo.bind(gl);
 		fbo.attachColorTarget(gl, hBlurTexture, 0, 0, true);
-		fbo.attachColorTarget(gl, vBlurTexture, 0, 1, true);
 
 		RenderBuffer rbo = RenderBuffer.createDepthBuffer(gl, texWidth, texHeight);
 		fbo.attachDepthTarget(gl, rbo, true);
@@ -194,15 +217,40 @@ public class ShadowMapRenderer implements SceneRenderer
 
 	public void render(GL2 gl, WorldModel wm, Drawings drawings)
 	{
-		if (wm.getSceneGraph() == null)
+		if (wm.getFrameSnapshot().getSceneGraph() == null)
 			return;
 
-		shadowMapTexture = renderShadowMap(gl, wm, drawings);
-		if (useBlur)
-			shadowMapTexture = blurShadowMap(gl);
+		RenderList list = wm.getRenderList();
+		long currentStaticHash = getStaticHash(wm);
+		boolean renderStatic = !staticValid || currentStaticHash != staticHash;
+		boolean renderDynamic = !dynamicValid || list.getDynamicHash() != dynamicHash;
+
+		if (renderStatic) {
+			renderShadowMap(gl, staticFBO, wm, false);
+			if (useBlur)
+				blurShadowMap(gl, staticFBO);
+			staticHash = currentStaticHash;
+			staticValid = true;
+		}
+		if (renderDynamic) {
+			renderShadowMap(gl, dynamicFBO, wm, true);
+			if (useBlur)
+				blurShadowMap(gl, dynamicFBO);
+			dynamicHash = list.getDynamicHash();
+			dynamicValid = true;
+		}
+	}
+
+	/** Hash of the static meshes of the render list and the field, which is drawn separately */
+	private static long getStaticHash(WorldModel wm)
+	{
+		Field field = wm.getField();
+		long hash = 31 * wm.getRenderList().getStaticHash() + (field.getModel().isLoaded() ? 1 : 0);
+		return 31 * hash + Arrays.hashCode(field.getModelMatrix().wrap().array());
 	}
 
-	private Texture2D renderShadowMap(GL2 gl, WorldModel world, Drawings drawings)
+	/** Renders the static geometry or the dynamic casters into a shadow map */
+	private void renderShadowMap(GL2 gl, FrameBufferObject fbo, WorldModel world, boolean dynamic)
 	{
 		gl.glMatrixMode(GL2.GL_PROJECTION);
 		gl.glLoadMatrixd(light.getProjection().wrap());
@@ -210,44 +258,51 @@ public class ShadowMapRenderer implements SceneRenderer
 		gl.glLoadMatrixd(light.getView().wrap());
 		gl.glEnable(GL.GL_DEPTH_TEST);
 
-		shadowFBO.bind(gl);
-		shadowFBO.setViewport(gl);
-		shadowFBO.clear(gl);
+		fbo.bind(gl);
+		fbo.setViewport(gl);
+		// the dynamic map is cleared to the far plane, so that it doesn't shadow anything without
+		// casters
+		gl.glGetFloatv(GL.GL_COLOR_CLEAR_VALUE, clearColor, 0);
+		if (dynamic)
+			gl.glClearColor(1, 1, 0, 0);
+		fbo.clear(gl);
+		gl.glClearColor(clearColor[0], clearColor[1], clearColor[2], clearColor[3]);
 		depthShader.enable(gl);
+		if (instancer != null)
+			instancer.resetMatrix(gl);
 
-		world.getField().render(gl);
-
-		List<StaticMeshNode> transparentNodes = new ArrayList<>();
-		List<StaticMeshNode> nodes = world.getSceneGraph().getAllMeshNodes();
-		for (StaticMeshNode node : nodes) {
-			if (node.isTransparent())
-				transparentNodes.add(node);
-			else {
-				Model model = content.getModel(node.getName());
-				if (model.isLoaded()) {
-					Matrix modelMat = WorldModel.COORD_TFN.times(node.getWorldTransform());
-					model.getMesh().render(gl, modelMat);
-				}
-			}
-		}
+		if (!dynamic)
+			world.getField().render(gl);
+
+		// only meshes inside the orthographic volume of the light can cast shadows onto the map
+		frustum.update(gl);
+		RenderList list = world.getRenderList();
+		renderCasters(gl, list, 0, list.getOpaqueCount(), dynamic);
 
 		gl.glEnable(GL.GL_BLEND);
-		for (StaticMeshNode node : transparentNodes) {
-			Model model = content.getModel(node.getName());
-			if (model.isLoaded()) {
-				Matrix modelMat = WorldModel.COORD_TFN.times(node.getWorldTransform());
-				model.getMesh().render(gl, modelMat);
-			}
-		}
+		renderCasters(gl, list, list.getOpaqueCount(), list.size(), dynamic);
 		gl.glDisable(GL.GL_BLEND);
 
 		depthShader.disable(gl);
-		shadowFBO.unbind(gl);
+		fbo.unbind(gl);
+	}
 
-		return shadowFBO.getColorTexture(0);
+	/** Draws the static or dynamic entries from start to end that are inside the light volume */
+	private void renderCasters(GL2 gl, RenderList list, int start, int end, boolean dynamic)
+	{
+		if (instancer != null) {
+			instancer.drawEntries(
+					gl, content, list, start, end, frustum, false, dynamic ? DYNAMIC_ENTRIES : STATIC_ENTRIES, DRAW_ENTRY);
+			return;
+		}
+		for (int i = start; i < end; i++) {
+			if (list.isDynamic(i) == dynamic && list.isVisible(i, frustum))
+				list.draw(gl, i);
+		}
 	}
 
-	private Texture2D blurShadowMap(GL2 gl)
+	/** Blurs the color texture of a shadow map in place */
+	private void blurShadowMap(GL2 gl, FrameBufferObject fbo)
 	{
 		gl.glMatrixMode(GL2.GL_PROJECTION);
 		gl.glLoadIdentity();
@@ -255,67 +310,89 @@ public class ShadowMapRenderer implements SceneRenderer
 		gl.glLoadIdentity();
 
 		gl.glEnable(GL.GL_TEXTURE_2D);
-		shadowMapTexture.bind(gl);
+		fbo.getColorTexture(0).bind(gl);
 		gl.glDisable(GL.GL_DEPTH_TEST);
 		gl.glDisable(GL2.GL_LIGHTING);
 
 		blurFBO.bind(gl);
 		blurFBO.setViewport(gl);
-		blurFBO.clear(gl);
 		blurShader.enable(gl);
 
 		// horizontal pass
 		gl.glUniform2fv(ulocBlurOffsets, blurParams[0].offsets.length / 2, blurParams[0].offsets, 0);
 		gl.glUniform1fv(ulocBlurWeights, blurParams[0].weights.length, blurParams[0].weights, 0);
-		gl.glDrawBuffer(GL2.GL_COLOR_ATTACHMENT1);
 		gl.glClear(GL.GL_COLOR_BUFFER_BIT);
 		GLHelper.renderQuad(gl);
-		blurFBO.getColorTexture(1).bind(gl);
+		blurFBO.unbind(gl);
+		blurFBO.getColorTexture(0).bind(gl);
 
 		// vertical pass
+		fbo.bind(gl);
 		gl.glUniform2fv(ulocBlurOffsets, blurParams[1].offsets.length / 2, blurParams[1].offsets, 0);
 		gl.glUniform1fv(ulocBlurWeights, blurParams[1].weights.length, blurParams[1].weights, 0);
-		gl.glDrawBuffer(GL2.GL_COLOR_ATTACHMENT0);
 		gl.glClear(GL.GL_COLOR_BUFFER_BIT);
 		GLHelper.renderQuad(gl);
 
 		blurShader.disable(gl);
-		blurFBO.unbind(gl);
+		fbo.unbind(gl);
 		gl.glEnable(GL.GL_DEPTH_TEST);
 		Texture2D.unbind(gl);
-
-		return blurFBO.getColorTexture(0);
 	}
 
 	@Override
 	public void dispose(GL gl)
 	{
-		if (shadowFBO != null)
-			shadowFBO.dispose(gl);
+		if (staticFBO != null)
+			staticFBO.dispose(gl);
+		if (dynamicFBO != null)
+			dynamicFBO.dispose(gl);
 		if (blurFBO != null)
 			blurFBO.dispose(gl);
 		if (depthShader != null)
 			depthShader.dispose(gl);
+		if (instancer != null)
+			instancer.dispose(gl);
 		if (blurShader != null)
 			blurShader.dispose(gl);
 	}
 
+	/** Loads the depth shader for instanced casters, leaves it null if that fails */
+	private void initInstancedDepthShader(GL2 gl, ClassLoader cl)
+	{
+		depthShader = ShaderProgram.create(gl, "shaders/vsm_depth_instanced.vert", "shaders/vsm_depth.frag", cl);
+		if (depthShader == null)
+			return;
+		if (!MeshInstancer.bindMatrixAttribute(gl, depthShader, "modelMatrix", MATRIX_ATTRIBUTE)) {
+			System.err.println("Shadow Map: instanced depth shader failed to link, drawing casters one by one");
+			depthShader.dispose(gl);
+			depthShader = null;
+			return;
+		}
+		instancer = new MeshInstancer(gl, MATRIX_ATTRIBUTE);
+	}
+
 	@Override
 	public boolean init(GL2 gl, Graphics conf, ContentManager cm)
 	{
-		this.content = cm;
 		this.useBlur = conf.useSoftShadows;
+		this.content = cm;
 
 		texWidth = texHeight = conf.shadowResolution;
 
 		// generate FBOs
-		shadowFBO = createShadowFBO(gl);
-		if (shadowFBO == null)
+		staticFBO = createShadowFBO(gl);
+		dynamicFBO = createShadowFBO(gl);
+		if (staticFBO == null || dynamicFBO == null)
 			return abortInit(gl, "could not create shadow FBO", conf);
+		staticValid = false;
+		dynamicValid = false;
 		blurFBO = createBlurFBO(gl);
 
 		ClassLoader cl = getClass().getClassLoader();
-		depthShader = ShaderProgram.create(gl, "shaders/vsm_depth.vert", "shaders/vsm_depth.frag", cl);
+		if (useInstancing && MeshInstancer.isSupported(gl))
+			initInstancedDepthShader(gl, cl);
+		if (depthShader == null)
+			depthShader = ShaderProgram.create(gl, "shaders/vsm_depth.vert", "shaders/vsm_depth.frag", cl);
 		if (depthShader == null)
 			return abortInit(gl, "could not load depth pass shader", conf);
 
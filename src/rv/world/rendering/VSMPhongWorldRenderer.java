@@ -16,19 +16,15 @@
 
 package rv.world.rendering;
 
-import java.util.ArrayList;
-import java.util.List;
 import javax.media.opengl.GL;
 import javax.media.opengl.GL2;
-import js.math.vector.Matrix;
 import rv.Configuration.Graphics;
 import rv.Renderer;
 import rv.comm.drawing.Drawings;
-import rv.comm.rcssserver.scenegraph.StaticMeshNode;
 import rv.content.ContentManager;
-import rv.content.Model;
 import rv.effects.EffectManager;
 import rv.effects.VSMPhongShader;
+import rv.util.jogl.Frustum;
 import rv.world.WorldModel;
 
 /**
@@ -39,9 +35,9 @@ import rv.world.WorldModel;
 public class VSMPhongWorldRenderer implements SceneRenderer
 {
 	private ContentManager content;
+	private final Frustum frustum = new Frustum();
 	private final EffectManager effects;
 	private VSMPhongShader shader;
-	private final List<String> suppressedMeshes = new ArrayList<>();
 
 	public VSMPhongShader getShader()
 	{
@@ -68,37 +64,23 @@ public class VSMPhongWorldRenderer implements SceneRenderer
 		shader.setLightViewProjection(gl, effects.getShadowRenderer().getLight().getViewProjection());
 		shader.disable(gl);
 
-		suppressedMeshes.add("field.obj");
-		suppressedMeshes.add("skybox.obj");
-
 		return true;
 	}
 
-	private void renderSceneGraphNode(GL2 gl, StaticMeshNode node, ContentManager content)
+	private void renderEntry(GL2 gl, RenderList list, int i)
 	{
-		Model model = content.getModel(node.getName());
-		if (model.isLoaded()) {
-			// NOTE: this is a hack to avoid rendering certain meshes that are
-			// replaced by
-			// RoboViz; in particular, the field and skybox are treated
-			// differently
-			for (String s : suppressedMeshes)
-				if (node.getName().endsWith(s))
-					return;
-
-			BasicSceneRenderer.applyAgentMats(model, node, content);
-
-			Matrix modelMat = WorldModel.COORD_TFN.times(node.getWorldTransform());
-			shader.setModelMatrix(gl, modelMat);
-
-			model.getMesh().render(gl, modelMat);
-		}
+		if (!list.isVisible(i, frustum))
+			return;
+		list.getModel(i).bindMaterials(content, list.getMaterialVariant(i));
+		shader.setModelMatrix(gl, list.getMatrices(), list.getMatrixOffset(i));
+		list.draw(gl, i, list.isDistant(i, frustum));
 	}
 
 	public void render(GL2 gl, WorldModel world, Drawings drawings)
 	{
-		if (world.getSceneGraph() == null)
+		if (world.getFrameSnapshot().getSceneGraph() == null)
 			return;
+		frustum.update(gl);
 
 		gl.glDisable(GL2.GL_LIGHTING);
 		gl.glEnable(GL.GL_TEXTURE_2D);
@@ -110,21 +92,17 @@ public class VSMPhongWorldRenderer implements SceneRenderer
 		world.getLighting().apply(gl);
 
 		shader.enable(gl);
-		shader.setShadowMap(gl, effects.getShadowRenderer().getShadowMap());
+		ShadowMapRenderer shadows = effects.getShadowRenderer();
+		shader.setShadowMaps(gl, shadows.getStaticShadowMap(), shadows.getDynamicShadowMap());
 
 		shader.setModelMatrix(gl, world.getField().getModelMatrix());
 		gl.glDepthMask(false);
 		world.getField().render(gl);
 		gl.glDepthMask(true);
 
-		List<StaticMeshNode> transparentNodes = new ArrayList<>();
-		List<StaticMeshNode> nodes = world.getSceneGraph().getAllMeshNodes();
-		for (StaticMeshNode node : nodes) {
-			if (node.isTransparent())
-				transparentNodes.add(node);
-			else
-				renderSceneGraphNode(gl, node, content);
-		}
+		RenderList list = world.getRenderList();
+		for (int i = 0; i < list.getOpaqueCount(); i++)
+			renderEntry(gl, list, i);
 
 		// drawings
 		gl.glEnable(GL.GL_BLEND);
@@ -138,8 +116,8 @@ public class VSMPhongWorldRenderer implements SceneRenderer
 
 		// transparent stuff
 
-		for (StaticMeshNode transparentNode : transparentNodes)
-			renderSceneGraphNode(gl, transparentNode, content);
+		for (int i = list.getOpaqueCount(); i < list.size(); i++)
+			renderEntry(gl, list, i);
 		gl.glDisable(GL.GL_BLEND);
 
 		shader.disable(gl);
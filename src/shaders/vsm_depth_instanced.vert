@@ -0,0 +1,31 @@
+/*
+*  Copyright 2011 RoboViz
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*/
+
+// same as vsm_depth.vert, but with a per-instance model matrix (identity when not instancing)
+attribute mat4  modelMatrix;
+
+varying vec2    diffuseTexCoords;
+varying float   depth;
+
+void main()
+{	
+	gl_Position = gl_ModelViewProjectionMatrix * modelMatrix * gl_Vertex;
+	diffuseTexCoords = vec2(gl_MultiTexCoord0);
+	
+	vec3 vertPos = vec3(gl_Position / gl_Position.w);
+	vertPos = vertPos * 0.5 + 0.5;
+	depth = vertPos.z;
+} 
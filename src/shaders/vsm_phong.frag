@@ -34,6 +34,7 @@ varying float   fragDepth;
 
 uniform sampler2D diffuseTexture;
 uniform sampler2D shadowTexture;
+uniform sampler2D dynamicShadowTexture;
 
 float linstep(float minVal, float maxVal, float val)  
 {  
@@ -47,9 +48,9 @@ float lightBleedReduction(float p_max, float Amount)
     return linstep(Amount, 1.0, p_max); 
 }
 
-float calcShadowFactor()
+float calcShadowFactor(sampler2D shadowMap)
 {
-    vec2 moments = texture2D(shadowTexture, shadowTexCoords).rg;
+    vec2 moments = texture2D(shadowMap, shadowTexCoords).rg;
 
     float p_max = (fragDepth <= moments.x) ? 1.0 : 0.0;
 
@@ -75,7 +76,9 @@ void main()
 	vec3 h = normalize(halfVector);
 	
 	float I_diffuse = max(dot(n, lightDir), 0.0);
-	float I_shadow = min(calcShadowFactor() + 0.6, 1.0);
+	// static geometry and dynamic casters have separate shadow maps
+	float lit = min(calcShadowFactor(shadowTexture), calcShadowFactor(dynamicShadowTexture));
+	float I_shadow = min(lit + 0.6, 1.0);
     float I_specular = pow(max(dot(n, h), 0.0), gl_FrontMaterial.shininess);
 
     C_light += I_shadow * (I_diffuse * C_diffuse + I_specular * C_specular);